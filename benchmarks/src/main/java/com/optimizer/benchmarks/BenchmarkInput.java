@@ -0,0 +1,78 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.model.OptimizationRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Входные данные бенчмарков: примеры из каталога examples/ или синтетический каталог
+ */
+public final class BenchmarkInput {
+    private final String metadata;
+    private final String statistics;
+    private final String sql;
+
+    private BenchmarkInput(String metadata, String statistics, String sql) {
+        this.metadata = metadata;
+        this.statistics = statistics;
+        this.sql = sql;
+    }
+
+    /** Количество таблиц синтетического каталога (не меньше ширины соединения) */
+    static final int GENERATED_TABLES = 32;
+    /** Количество колонок таблиц синтетического каталога */
+    static final int GENERATED_COLUMNS = 10;
+    static final long SEED = 42;
+
+    /**
+     * @param dataset "examples" или "форма-N" (например, "star-16"): запрос с соединением N таблиц
+     *                синтетического каталога в форме chain, star, snowflake или clique
+     */
+    public static BenchmarkInput load(String dataset) throws IOException {
+        if (dataset.equals("examples")) {
+            return new BenchmarkInput(resource("examples/metadata.json"), resource("examples/statistics.json"),
+                resource("examples/query.sql"));
+        }
+        int separator = dataset.lastIndexOf('-');
+        if (separator > 0) {
+            JoinShape shape = JoinShape.valueOf(dataset.substring(0, separator).toUpperCase(Locale.ROOT));
+            int width = Integer.parseInt(dataset.substring(separator + 1));
+            CatalogGenerator catalog = new CatalogGenerator(Math.max(width, GENERATED_TABLES), GENERATED_COLUMNS, SEED);
+            return new BenchmarkInput(catalog.metadata(), catalog.statistics(), catalog.query(shape, width));
+        }
+        throw new IllegalArgumentException("Неизвестный набор данных: " + dataset);
+    }
+
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public String getStatistics() {
+        return statistics;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public OptimizationRequest toRequest() {
+        OptimizationRequest request = new OptimizationRequest();
+        request.setSqlQuery(sql);
+        request.setMetadata(metadata);
+        request.setStatistics(statistics);
+        request.setCostThreshold(1000.0);
+        return request;
+    }
+
+    static String resource(String name) throws IOException {
+        try (InputStream in = BenchmarkInput.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Ресурс не найден: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
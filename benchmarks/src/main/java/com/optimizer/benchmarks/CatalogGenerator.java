@@ -0,0 +1,173 @@
+package com.optimizer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Генератор синтетического каталога из N таблиц по M колонок в формате MetadataParser
+ * и StatisticsParser и запросов с соединением таблиц каталога.
+ *
+ * Количество строк таблиц распределено по закону Ципфа (несколько больших таблиц фактов
+ * и много маленьких справочников), число различных значений и доля NULL колонок
+ * также неравномерны. Каталог и запросы одинаковы при одинаковом seed
+ */
+public class CatalogGenerator {
+    /** Количество строк самой большой таблицы */
+    static final long MAX_ROWS = 1_000_000_000L;
+    /** Количество строк самой маленькой таблицы */
+    static final long MIN_ROWS = 100L;
+    /** Показатель степени распределения Ципфа для размеров таблиц */
+    static final double ZIPF_EXPONENT = 1.1;
+    /** Ветвление дерева соединений для формы SNOWFLAKE */
+    static final int SNOWFLAKE_FANOUT = 3;
+
+    private static final String[] COLUMN_TYPES = {"integer", "varchar", "decimal", "date", "bigint"};
+
+    private final int tables;
+    private final int columns;
+    private final long seed;
+    private final long[] rowCounts;
+
+    /**
+     * @param tables  количество таблиц
+     * @param columns количество колонок каждой таблицы помимо первичного ключа id
+     * @param seed    начальное значение генератора случайных чисел
+     */
+    public CatalogGenerator(int tables, int columns, long seed) {
+        if (tables < 1 || columns < 1) {
+            throw new IllegalArgumentException("Каталог должен содержать хотя бы одну таблицу и одну колонку");
+        }
+        this.tables = tables;
+        this.columns = columns;
+        this.seed = seed;
+        this.rowCounts = new long[tables];
+        Random random = new Random(seed);
+
+        List<Integer> ranks = new ArrayList<>();
+        for (int i = 1; i <= tables; i++) {
+            ranks.add(i);
+        }
+        Collections.shuffle(ranks, random);
+        for (int i = 0; i < tables; i++) {
+            rowCounts[i] = Math.max(MIN_ROWS, Math.round(MAX_ROWS / Math.pow(ranks.get(i), ZIPF_EXPONENT)));
+        }
+    }
+
+    public int getTables() {
+        return tables;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Имя таблицы с номером от 1 до N
+     */
+    public static String tableName(int table) {
+        return "t_" + table;
+    }
+
+    /**
+     * Тип колонки c_j; первая колонка всегда целочисленная и используется как ключ соединения
+     */
+    static String columnType(int column) {
+        return COLUMN_TYPES[(column - 1) % COLUMN_TYPES.length];
+    }
+
+    public String metadata() {
+        StringBuilder json = new StringBuilder("{\"tables\": [");
+        for (int t = 1; t <= tables; t++) {
+            json.append(t > 1 ? ",\n" : "\n").append("{\"name\": \"").append(tableName(t))
+                .append("\", \"columns\": [{\"name\": \"id\", \"type\": \"bigint\"}");
+            for (int c = 1; c <= columns; c++) {
+                json.append(", {\"name\": \"c_").append(c).append("\", \"type\": \"")
+                    .append(columnType(c)).append("\"}");
+            }
+            json.append("]}");
+        }
+        return json.append("\n]}").toString();
+    }
+
+    public String statistics() {
+        Random random = new Random(seed + 1);
+        StringBuilder json = new StringBuilder("{\"tables\": [");
+        for (int t = 1; t <= tables; t++) {
+            long rows = rowCounts[t - 1];
+            json.append(t > 1 ? ",\n" : "\n").append("{\"name\": \"").append(tableName(t))
+                .append("\", \"rowCount\": ").append(rows).append(", \"columnStats\": [")
+                .append(columnStats("id", rows, 0));
+            for (int c = 1; c <= columns; c++) {
+                // Число различных значений от единиц до количества строк, с перекосом к малым значениям
+                long distinct = Math.max(1, Math.round(rows * Math.pow(random.nextDouble(), 4)));
+                long nulls = random.nextInt(4) == 0 ? Math.round(rows * random.nextDouble() * 0.2) : 0;
+                json.append(", ").append(columnStats("c_" + c, distinct, nulls));
+            }
+            json.append("]}");
+        }
+        return json.append("\n]}").toString();
+    }
+
+    /**
+     * Запрос с соединением width таблиц каталога в форме shape, фильтром по первой таблице
+     * и группировкой по ее первичному ключу
+     */
+    public String query(JoinShape shape, int width) {
+        if (width < 1 || width > tables) {
+            throw new IllegalArgumentException("Ширина соединения должна быть от 1 до " + tables);
+        }
+        Random random = new Random(Objects.hash(seed, shape.ordinal(), width));
+        List<Integer> joined = new ArrayList<>();
+        for (int t = 1; t <= tables; t++) {
+            joined.add(t);
+        }
+        Collections.shuffle(joined, random);
+        joined = joined.subList(0, width);
+
+        StringBuilder sql = new StringBuilder("SELECT a1.id, COUNT(*) AS cnt");
+        if (width > 1) {
+            sql.append(", SUM(a").append(width).append(".c_1) AS total");
+        }
+        sql.append("\nFROM ").append(tableName(joined.get(0))).append(" a1");
+        List<String> conditions = new ArrayList<>();
+        for (int i = 2; i <= width; i++) {
+            String alias = "a" + i;
+            if (shape == JoinShape.CLIQUE) {
+                sql.append(",\n  ").append(tableName(joined.get(i - 1))).append(' ').append(alias);
+                for (int j = 1; j < i; j++) {
+                    conditions.add("a" + j + ".c_1 = " + alias + ".c_1");
+                }
+            } else {
+                sql.append("\nJOIN ").append(tableName(joined.get(i - 1))).append(' ').append(alias)
+                    .append(" ON a").append(parent(shape, i)).append(".c_1 = ").append(alias).append(".id");
+            }
+        }
+        conditions.add("a1.c_1 < " + (1 + random.nextInt(1000)));
+        sql.append("\nWHERE ").append(String.join("\n  AND ", conditions));
+        sql.append("\nGROUP BY a1.id");
+        return sql.toString();
+    }
+
+    /**
+     * Номер таблицы, с которой соединяется таблица i (нумерация с 1)
+     */
+    private static int parent(JoinShape shape, int i) {
+        switch (shape) {
+            case CHAIN:
+                return i - 1;
+            case STAR:
+                return 1;
+            case SNOWFLAKE:
+            default:
+                return (i - 2) / SNOWFLAKE_FANOUT + 1;
+        }
+    }
+
+    private static String columnStats(String name, long distinctValues, long nullCount) {
+        return "{\"name\": \"" + name + "\", \"distinctValues\": " + distinctValues
+            + ", \"nullCount\": " + nullCount + "}";
+    }
+}
@@ -0,0 +1,49 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный цикл {@link QueryOptimizer#optimize}: схема, статистика, парсинг, оптимизация, разбиение
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({"examples", "chain-8", "star-16", "snowflake-16", "clique-6"})
+    public String dataset;
+
+    private QueryOptimizer optimizer;
+    private OptimizationRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        optimizer = new QueryOptimizer();
+        request = BenchmarkInput.load(dataset).toRequest();
+        // Снимки медленных запросов не должны влиять на измерения
+        optimizer.getSlowQueryRecorder().setLatencyThresholdMillis(Long.MAX_VALUE / 1_000_000);
+    }
+
+    @Benchmark
+    public OptimizationResult optimize() {
+        return optimizer.optimize(request);
+    }
+}
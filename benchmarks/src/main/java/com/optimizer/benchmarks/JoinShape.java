@@ -0,0 +1,15 @@
+package com.optimizer.benchmarks;
+
+/**
+ * Форма графа соединений генерируемого запроса
+ */
+public enum JoinShape {
+    /** Каждая таблица соединяется со следующей */
+    CHAIN,
+    /** Все таблицы соединяются с первой */
+    STAR,
+    /** Дерево: у каждой таблицы до трех таблиц-измерений */
+    SNOWFLAKE,
+    /** Каждая таблица соединяется со всеми остальными */
+    CLIQUE
+}
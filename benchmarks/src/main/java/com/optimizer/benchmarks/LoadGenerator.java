@@ -0,0 +1,230 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочный тест с открытым циклом: запросы отправляются с заданной частотой
+ * независимо от того, успевает ли оптимизатор их обрабатывать.
+ *
+ * Время ответа отсчитывается от запланированного момента отправки, а не от фактического
+ * начала обработки, поэтому ожидание в очереди перегруженного пула учитывается
+ * (без искажения coordinated omission). Отдельно записывается время обработки
+ */
+public class LoadGenerator {
+    /** Наибольшая записываемая задержка: 10 минут */
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final QueryOptimizer optimizer = new QueryOptimizer();
+    private final Map<String, QueryStats> stats = new LinkedHashMap<>();
+    private final QueryStats total = new QueryStats();
+    private long measuredNanos;
+
+    /**
+     * Статистика одного вида запросов
+     */
+    static class QueryStats {
+        final Histogram responseTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+        final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+        final LongAdder errors = new LongAdder();
+
+        void record(long responseNanos, long serviceNanos, boolean success) {
+            responseTime.recordValue(Math.min(responseNanos, HIGHEST_TRACKABLE_NANOS));
+            serviceTime.recordValue(Math.min(serviceNanos, HIGHEST_TRACKABLE_NANOS));
+            if (!success) {
+                errors.increment();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = createOptions();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("load-generator", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp("load-generator", options);
+            return;
+        }
+
+        double rate = Double.parseDouble(cmd.getOptionValue("rate", "10"));
+        long durationSeconds = Long.parseLong(cmd.getOptionValue("duration", "60"));
+        long warmupSeconds = Long.parseLong(cmd.getOptionValue("warmup", "10"));
+        int concurrency = Integer.parseInt(cmd.getOptionValue("concurrency",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Map<String, Double> mix = parseMix(cmd.getOptionValue("mix", "examples:1"));
+        long seed = Long.parseLong(cmd.getOptionValue("seed", "42"));
+
+        LoadGenerator generator = new LoadGenerator();
+        generator.run(mix, rate, warmupSeconds, durationSeconds, concurrency, seed);
+        generator.report(System.out, rate, durationSeconds, concurrency);
+        if (cmd.hasOption("output")) {
+            generator.export(Paths.get(cmd.getOptionValue("output")), rate, durationSeconds, concurrency);
+        }
+    }
+
+    /**
+     * Отправляет запросы смеси с частотой rate запросов в секунду в течение прогрева и измерения.
+     * Запросы прогрева не записываются
+     */
+    void run(Map<String, Double> mix, double rate, long warmupSeconds, long durationSeconds,
+             int concurrency, long seed) throws IOException, InterruptedException {
+        List<String> names = new ArrayList<>(mix.keySet());
+        List<OptimizationRequest> requests = new ArrayList<>();
+        double[] cumulativeWeights = new double[names.size()];
+        double weightSum = 0;
+        for (int i = 0; i < names.size(); i++) {
+            requests.add(BenchmarkInput.load(names.get(i)).toRequest());
+            weightSum += mix.get(names.get(i));
+            cumulativeWeights[i] = weightSum;
+            stats.put(names.get(i), new QueryStats());
+        }
+        // Снимки медленных запросов не должны влиять на измерения
+        optimizer.getSlowQueryRecorder().setLatencyThresholdMillis(Long.MAX_VALUE / 1_000_000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        Random random = new Random(seed);
+        long intervalNanos = (long) (1_000_000_000L / rate);
+        long totalRequests = (long) ((warmupSeconds + durationSeconds) * rate);
+        long warmupRequests = (long) (warmupSeconds * rate);
+        long start = System.nanoTime();
+
+        for (long i = 0; i < totalRequests; i++) {
+            long intendedStart = start + i * intervalNanos;
+            long delay = intendedStart - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            double choice = random.nextDouble() * weightSum;
+            int index = 0;
+            while (cumulativeWeights[index] < choice) {
+                index++;
+            }
+            OptimizationRequest request = requests.get(index);
+            QueryStats queryStats = i < warmupRequests ? null : stats.get(names.get(index));
+            executor.execute(() -> {
+                long serviceStart = System.nanoTime();
+                OptimizationResult result = optimizer.optimize(request);
+                long end = System.nanoTime();
+                if (queryStats != null) {
+                    queryStats.record(end - intendedStart, end - serviceStart, result.isSuccess());
+                    total.record(end - intendedStart, end - serviceStart, result.isSuccess());
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        measuredNanos = System.nanoTime() - (start + warmupRequests * intervalNanos);
+    }
+
+    /**
+     * Выводит перцентили времени ответа и обработки для каждого вида запросов и для всей смеси
+     */
+    void report(PrintStream out, double rate, long durationSeconds, int concurrency) {
+        out.printf(Locale.ROOT, "Целевая частота: %.1f запросов/с, длительность: %d с, потоков: %d%n",
+            rate, durationSeconds, concurrency);
+        // Обработка отстающих запросов продлевает измерение, поэтому частота может быть ниже целевой
+        out.printf(Locale.ROOT, "Фактическая частота: %.1f запросов/с%n",
+            total.responseTime.getTotalCount() / (measuredNanos / 1e9));
+        out.println("query,metric,count,errors,p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+        for (Map.Entry<String, QueryStats> entry : stats.entrySet()) {
+            printRow(out, entry.getKey(), entry.getValue());
+        }
+        printRow(out, "total", total);
+    }
+
+    /**
+     * Сохраняет отчет и полные распределения времени ответа в формате HdrHistogram (.hgrm)
+     */
+    void export(Path report, double rate, long durationSeconds, int concurrency) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(report), true, "UTF-8")) {
+            report(out, rate, durationSeconds, concurrency);
+        }
+        Map<String, QueryStats> all = new LinkedHashMap<>(stats);
+        all.put("total", total);
+        for (Map.Entry<String, QueryStats> entry : all.entrySet()) {
+            Path distribution = report.resolveSibling(report.getFileName() + "." + entry.getKey() + ".hgrm");
+            try (PrintStream out = new PrintStream(Files.newOutputStream(distribution), true, "UTF-8")) {
+                entry.getValue().responseTime.outputPercentileDistribution(out, 1_000_000.0);
+            }
+        }
+    }
+
+    private static void printRow(PrintStream out, String name, QueryStats queryStats) {
+        printRow(out, name, "response", queryStats.responseTime, queryStats.errors.sum());
+        printRow(out, name, "service", queryStats.serviceTime, queryStats.errors.sum());
+    }
+
+    private static void printRow(PrintStream out, String name, String metric, Histogram histogram, long errors) {
+        out.printf(Locale.ROOT, "%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", name, metric,
+            histogram.getTotalCount(), errors,
+            histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(90) / 1e6,
+            histogram.getValueAtPercentile(99) / 1e6, histogram.getValueAtPercentile(99.9) / 1e6,
+            histogram.getMaxValue() / 1e6);
+    }
+
+    /**
+     * Разбирает смесь запросов вида "examples:1,star-16:3": набор данных и его вес
+     */
+    static Map<String, Double> parseMix(String mix) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            result.put(parts[0], parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0);
+        }
+        return result;
+    }
+
+    private static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("r").longOpt("rate").hasArg()
+            .desc("Частота запросов в секунду (по умолчанию: 10)").build());
+        options.addOption(Option.builder("d").longOpt("duration").hasArg()
+            .desc("Длительность измерения в секундах (по умолчанию: 60)").build());
+        options.addOption(Option.builder("w").longOpt("warmup").hasArg()
+            .desc("Длительность прогрева в секундах (по умолчанию: 10)").build());
+        options.addOption(Option.builder("c").longOpt("concurrency").hasArg()
+            .desc("Количество потоков оптимизатора (по умолчанию: число процессоров)").build());
+        options.addOption(Option.builder("m").longOpt("mix").hasArg()
+            .desc("Смесь запросов: наборы данных с весами через запятую, например examples:1,star-16:3").build());
+        options.addOption(Option.builder().longOpt("seed").hasArg()
+            .desc("Начальное значение генератора выбора запросов (по умолчанию: 42)").build());
+        options.addOption(Option.builder("o").longOpt("output").hasArg()
+            .desc("Файл отчета; рядом сохраняются распределения времени ответа (.hgrm)").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Показать справку").build());
+        return options;
+    }
+}
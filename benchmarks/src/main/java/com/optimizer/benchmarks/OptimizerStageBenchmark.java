@@ -0,0 +1,115 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.SubQuery;
+import com.optimizer.parser.MetadataParser;
+import com.optimizer.parser.StatisticsParser;
+import com.optimizer.splitter.QuerySplitter;
+import com.optimizer.util.JsonUtils;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.tools.FrameworkConfig;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.Planner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность отдельных этапов оптимизации. Входные данные каждого этапа
+ * готовятся один раз в {@link #setup}, поэтому измеряется только сам этап.
+ * Профиль выделения памяти снимается профилировщиком JMH: -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerStageBenchmark {
+
+    @Param({"examples", "chain-8", "star-16", "snowflake-16", "clique-6"})
+    public String dataset;
+
+    private BenchmarkInput input;
+    private MetadataParser metadataParser;
+    private StatisticsParser statisticsParser;
+    private QueryOptimizer optimizer;
+    private QuerySplitter querySplitter;
+    private FrameworkConfig config;
+    private RelNode relNode;
+    private RelNode optimizedNode;
+    private OptimizationResult result;
+
+    @Setup
+    public void setup() throws Exception {
+        input = BenchmarkInput.load(dataset);
+        metadataParser = new MetadataParser();
+        statisticsParser = new StatisticsParser();
+        optimizer = new QueryOptimizer();
+        querySplitter = new QuerySplitter();
+
+        SchemaPlus schema = metadataParser.createSchema(input.getMetadata());
+        statisticsParser.loadStatistics(schema, input.getStatistics());
+        config = QueryOptimizer.createFrameworkConfig(schema);
+        relNode = toRelNode();
+        optimizedNode = optimizer.optimizeQuery(relNode);
+        result = optimizer.optimize(input.toRequest());
+    }
+
+    @Benchmark
+    public SchemaPlus createSchema() {
+        return metadataParser.createSchema(input.getMetadata());
+    }
+
+    @Benchmark
+    public SchemaPlus loadStatistics() {
+        SchemaPlus schema = metadataParser.createSchema(input.getMetadata());
+        statisticsParser.loadStatistics(schema, input.getStatistics());
+        return schema;
+    }
+
+    @Benchmark
+    public SqlNode parse() throws Exception {
+        return SqlParser.create(input.getSql(), config.getParserConfig()).parseQuery();
+    }
+
+    /**
+     * Парсинг, валидация и преобразование в RelNode
+     */
+    @Benchmark
+    public RelNode toRelNode() throws Exception {
+        Planner planner = Frameworks.getPlanner(config);
+        SqlNode validated = planner.validate(planner.parse(input.getSql()));
+        return planner.rel(validated).project();
+    }
+
+    @Benchmark
+    public RelNode optimizeQuery() {
+        return optimizer.optimizeQuery(relNode);
+    }
+
+    @Benchmark
+    public List<SubQuery> splitQuery() {
+        return querySplitter.splitQuery(optimizedNode, 1000.0, config);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JsonUtils.toJson(result);
+    }
+}
@@ -0,0 +1,76 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Время оптимизации широкого UNION ALL последовательно и с параллельной оптимизацией
+ * независимых поддеревьев ({@link QueryOptimizer#setParallelSubtreeOptimization})
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelSubtreeBenchmark {
+    private static final JoinShape[] SHAPES = {JoinShape.CHAIN, JoinShape.STAR, JoinShape.SNOWFLAKE};
+
+    /** Количество ветвей UNION ALL */
+    @Param({"4", "8", "16"})
+    public int branches;
+
+    /** Ширина соединения в каждой ветви */
+    @Param({"8"})
+    public int width;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private QueryOptimizer optimizer;
+    private OptimizationRequest request;
+
+    @Setup
+    public void setup() {
+        CatalogGenerator catalog = new CatalogGenerator(
+            Math.max(width + branches, BenchmarkInput.GENERATED_TABLES), BenchmarkInput.GENERATED_COLUMNS,
+            BenchmarkInput.SEED);
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < branches; i++) {
+            // Ветви различаются формой и шириной, поэтому поддеревья не совпадают
+            queries.add(catalog.query(SHAPES[i % SHAPES.length], width + i / SHAPES.length));
+        }
+
+        request = new OptimizationRequest();
+        request.setSqlQuery(String.join("\nUNION ALL\n", queries));
+        request.setMetadata(catalog.metadata());
+        request.setStatistics(catalog.statistics());
+        request.setCostThreshold(1000.0);
+
+        optimizer = new QueryOptimizer();
+        optimizer.setParallelSubtreeOptimization(parallel);
+        // Снимки медленных запросов не должны влиять на измерения
+        optimizer.getSlowQueryRecorder().setLatencyThresholdMillis(Long.MAX_VALUE / 1_000_000);
+    }
+
+    @Benchmark
+    public OptimizationResult optimize() {
+        return optimizer.optimize(request);
+    }
+}
@@ -0,0 +1,30 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.model.OptimizationRequest;
+
+/**
+ * Строка журнала запросов для воспроизведения: момент поступления и сам запрос
+ */
+public class ReplayEntry {
+    private long timestamp;
+    private OptimizationRequest request;
+
+    /**
+     * Момент поступления запроса (миллисекунды от начала эпохи)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public OptimizationRequest getRequest() {
+        return request;
+    }
+
+    public void setRequest(OptimizationRequest request) {
+        this.request = request;
+    }
+}
@@ -0,0 +1,77 @@
+package com.optimizer.benchmarks;
+
+/**
+ * Результат воспроизведения одного запроса журнала
+ */
+public class ReplayOutcome {
+    private int index;
+    private long latencyNanos;
+    private boolean success;
+    private double totalCost;
+    private int subQueryCount;
+    private String errorMessage;
+
+    public ReplayOutcome() {
+    }
+
+    public ReplayOutcome(int index, long latencyNanos, boolean success, double totalCost, int subQueryCount,
+                         String errorMessage) {
+        this.index = index;
+        this.latencyNanos = latencyNanos;
+        this.success = success;
+        this.totalCost = totalCost;
+        this.subQueryCount = subQueryCount;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Номер запроса в журнале (с нуля)
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public void setTotalCost(double totalCost) {
+        this.totalCost = totalCost;
+    }
+
+    public int getSubQueryCount() {
+        return subQueryCount;
+    }
+
+    public void setSubQueryCount(int subQueryCount) {
+        this.subQueryCount = subQueryCount;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+}
@@ -0,0 +1,247 @@
+package com.optimizer.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.optimizer.core.OptimizedPlan;
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.parser.MetadataParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Измерение удерживаемого объема кучи артефактов, которые может хранить долгоживущий
+ * кэш: схем Calcite, разобранной статистики и оптимизированных планов синтетических
+ * каталогов разного размера.
+ *
+ * Объем считается как разность гистограмм живых объектов кучи (GC.class_histogram,
+ * перед построением выполняется полная сборка мусора) до и после создания артефактов,
+ * которые удерживаются до второго снимка. Результат выводится в CSV в пересчете
+ * на таблицу, колонку и план; классы с наибольшим приростом выводятся отдельно
+ */
+public class RetainedMemoryDriver {
+    private static final Pattern HISTOGRAM_LINE =
+        Pattern.compile("^\\s*\\d+:\\s+(\\d+)\\s+(\\d+)\\s+(\\S+)");
+
+    public static void main(String[] args) throws Exception {
+        Options options = createOptions();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("retained-memory", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp("retained-memory", options);
+            return;
+        }
+
+        List<Integer> tableCounts = integers(cmd.getOptionValue("tables", "10,100,1000"));
+        List<Integer> columnCounts = integers(cmd.getOptionValue("columns", "10,50"));
+        int plans = Integer.parseInt(cmd.getOptionValue("plans", "20"));
+        int top = Integer.parseInt(cmd.getOptionValue("top", "0"));
+        long seed = Long.parseLong(cmd.getOptionValue("seed", "42"));
+
+        PrintStream out = cmd.hasOption("output")
+            ? new PrintStream(Files.newOutputStream(Paths.get(cmd.getOptionValue("output"))), true, "UTF-8")
+            : System.out;
+        out.println("tables,columns,schema_bytes,schema_bytes_per_table,schema_bytes_per_column,"
+            + "statistics_bytes,statistics_bytes_per_column,plans,plan_bytes_per_plan,plan_bytes_per_plan_without_schema");
+
+        QueryOptimizer optimizer = new QueryOptimizer();
+        warmUp(optimizer, seed);
+        for (int tables : tableCounts) {
+            for (int columns : columnCounts) {
+                out.println(measure(optimizer, new CatalogGenerator(tables, columns, seed), plans, top));
+            }
+        }
+        if (out != System.out) {
+            out.close();
+        }
+    }
+
+    /**
+     * Загружает классы и заполняет статические кэши Calcite, чтобы они не попали в замеры
+     */
+    private static void warmUp(QueryOptimizer optimizer, long seed) throws IOException {
+        CatalogGenerator catalog = new CatalogGenerator(8, 4, seed + 1);
+        new ObjectMapper().readTree(catalog.statistics());
+        for (JoinShape shape : JoinShape.values()) {
+            optimizer.prepare(request(catalog, shape, 4));
+        }
+    }
+
+    private static String measure(QueryOptimizer optimizer, CatalogGenerator catalog, int plans, int top)
+            throws JMException, IOException {
+        String metadata = catalog.metadata();
+        String statistics = catalog.statistics();
+        List<OptimizationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < plans; i++) {
+            JoinShape shape = JoinShape.values()[i % JoinShape.values().length];
+            int width = Math.min(catalog.getTables(), 2 + i % 7);
+            OptimizationRequest request = request(catalog, shape, width);
+            request.setMetadata(metadata);
+            request.setStatistics(statistics);
+            requests.add(request);
+        }
+        String label = catalog.getTables() + "x" + catalog.getColumns();
+
+        // Каждый снимок удерживает гистограмму предыдущего; ее объем вычитается из разностей
+        Map<String, Long> calibration = histogram();
+        Map<String, Long> noise = delta(calibration, histogram(), Collections.emptyMap());
+        Reference.reachabilityFence(calibration);
+
+        Map<String, Long> before = histogram();
+        Object schema = new MetadataParser().createSchema(metadata);
+        Map<String, Long> afterSchema = histogram();
+        Object parsedStatistics = new ObjectMapper().readTree(statistics);
+        Map<String, Long> afterStatistics = histogram();
+        List<OptimizedPlan> cachedPlans = new ArrayList<>();
+        int failed = 0;
+        for (OptimizationRequest request : requests) {
+            OptimizedPlan plan = optimizer.prepare(request);
+            failed += plan.isSuccess() ? 0 : 1;
+            cachedPlans.add(plan);
+        }
+        Map<String, Long> afterPlans = histogram();
+        Reference.reachabilityFence(schema);
+        Reference.reachabilityFence(parsedStatistics);
+        Reference.reachabilityFence(cachedPlans);
+        if (failed > 0) {
+            System.err.println(label + ": не удалось построить планов: " + failed);
+        }
+
+        Map<String, Long> schemaDelta = delta(before, afterSchema, noise);
+        Map<String, Long> statisticsDelta = delta(afterSchema, afterStatistics, noise);
+        Map<String, Long> planDelta = delta(afterStatistics, afterPlans, noise);
+        long schemaBytes = total(schemaDelta);
+        long statisticsBytes = total(statisticsDelta);
+        long planBytes = total(planDelta);
+        if (top > 0) {
+            printTop(System.err, label + ", схема", schemaDelta, top);
+            printTop(System.err, label + ", статистика", statisticsDelta, top);
+            printTop(System.err, label + ", планы", planDelta, top);
+        }
+
+        long columns = (long) catalog.getTables() * (catalog.getColumns() + 1);
+        double perPlan = (double) planBytes / plans;
+        // Каждый план сейчас удерживает собственную копию схемы
+        return String.format(Locale.ROOT, "%d,%d,%d,%.1f,%.1f,%d,%.1f,%d,%.1f,%.1f",
+            catalog.getTables(), catalog.getColumns(), schemaBytes, (double) schemaBytes / catalog.getTables(),
+            (double) schemaBytes / columns, statisticsBytes, (double) statisticsBytes / columns,
+            plans, perPlan, perPlan - schemaBytes);
+    }
+
+    private static OptimizationRequest request(CatalogGenerator catalog, JoinShape shape, int width) {
+        OptimizationRequest request = new OptimizationRequest();
+        request.setSqlQuery(catalog.query(shape, width));
+        request.setMetadata(catalog.metadata());
+        request.setStatistics(catalog.statistics());
+        request.setCostThreshold(1000.0);
+        return request;
+    }
+
+    /**
+     * Гистограмма живых объектов кучи: класс -> занятые байты. Построение гистограммы
+     * выполняет полную сборку мусора
+     */
+    static Map<String, Long> histogram() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String text = (String) server.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"),
+            "gcClassHistogram", new Object[] {new String[0]}, new String[] {String[].class.getName()});
+        Map<String, Long> bytes = new HashMap<>();
+        for (String line : text.split("\n")) {
+            Matcher matcher = HISTOGRAM_LINE.matcher(line);
+            if (matcher.find()) {
+                bytes.merge(matcher.group(3), Long.parseLong(matcher.group(2)), Long::sum);
+            }
+        }
+        return bytes;
+    }
+
+    private static long total(Map<String, Long> histogram) {
+        long total = 0;
+        for (long bytes : histogram.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Прирост объема по классам между снимками за вычетом шума измерения
+     */
+    private static Map<String, Long> delta(Map<String, Long> before, Map<String, Long> after,
+                                           Map<String, Long> noise) {
+        Set<String> classes = new HashSet<>(before.keySet());
+        classes.addAll(after.keySet());
+        Map<String, Long> delta = new HashMap<>();
+        for (String name : classes) {
+            long bytes = after.getOrDefault(name, 0L) - before.getOrDefault(name, 0L) - noise.getOrDefault(name, 0L);
+            if (bytes != 0) {
+                delta.put(name, bytes);
+            }
+        }
+        return delta;
+    }
+
+    private static void printTop(PrintStream out, String title, Map<String, Long> delta, int top) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(delta.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        out.println(title + ":");
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(top, entries.size()))) {
+            out.printf(Locale.ROOT, "  %12d  %s%n", entry.getValue(), entry.getKey());
+        }
+    }
+
+    private static List<Integer> integers(String values) {
+        List<Integer> result = new ArrayList<>();
+        for (String value : values.split(",")) {
+            result.add(Integer.parseInt(value.trim()));
+        }
+        return result;
+    }
+
+    private static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder().longOpt("tables").hasArg()
+            .desc("Количество таблиц каталога через запятую (по умолчанию: 10,100,1000)").build());
+        options.addOption(Option.builder().longOpt("columns").hasArg()
+            .desc("Количество колонок таблиц через запятую (по умолчанию: 10,50)").build());
+        options.addOption(Option.builder().longOpt("plans").hasArg()
+            .desc("Количество удерживаемых планов на каталог (по умолчанию: 20)").build());
+        options.addOption(Option.builder().longOpt("top").hasArg()
+            .desc("Вывести в stderr N классов с наибольшим приростом (по умолчанию: 0)").build());
+        options.addOption(Option.builder().longOpt("seed").hasArg()
+            .desc("Начальное значение генератора каталога (по умолчанию: 42)").build());
+        options.addOption(Option.builder("o").longOpt("output").hasArg()
+            .desc("Файл для сохранения результата (CSV)").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Показать справку").build());
+        return options;
+    }
+}
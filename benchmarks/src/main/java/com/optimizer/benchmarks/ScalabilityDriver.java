@@ -0,0 +1,181 @@
+package com.optimizer.benchmarks;
+
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Измерение зависимости времени планирования и пикового объема кучи от размера каталога
+ * (таблицы x колонки), формы и ширины соединения. Для каждой комбинации параметров
+ * запрос оптимизируется несколько раз после прогрева; результаты выводятся в CSV
+ */
+public class ScalabilityDriver {
+
+    public static void main(String[] args) throws IOException {
+        Options options = createOptions();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("scalability-driver", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp("scalability-driver", options);
+            return;
+        }
+
+        List<Integer> tableCounts = integers(cmd.getOptionValue("tables", "10,100,1000"));
+        List<Integer> columnCounts = integers(cmd.getOptionValue("columns", "10,50"));
+        List<Integer> widths = integers(cmd.getOptionValue("widths", "2,4,8,16"));
+        List<JoinShape> shapes = new ArrayList<>();
+        for (String shape : cmd.getOptionValue("shapes", "chain,star,snowflake,clique").split(",")) {
+            shapes.add(JoinShape.valueOf(shape.trim().toUpperCase(Locale.ROOT)));
+        }
+        int warmup = Integer.parseInt(cmd.getOptionValue("warmup", "5"));
+        int iterations = Integer.parseInt(cmd.getOptionValue("iterations", "20"));
+        if (iterations < 1) {
+            System.err.println("Количество измерений должно быть положительным: " + iterations);
+            new HelpFormatter().printHelp("scalability-driver", options);
+            System.exit(1);
+            return;
+        }
+        long seed = Long.parseLong(cmd.getOptionValue("seed", "42"));
+
+        PrintStream out = cmd.hasOption("output")
+            ? new PrintStream(Files.newOutputStream(Paths.get(cmd.getOptionValue("output"))), true, "UTF-8")
+            : System.out;
+        out.println("tables,columns,shape,width,iterations,errors,p50_ms,p95_ms,max_ms,peak_heap_mb");
+
+        for (int tables : tableCounts) {
+            for (int columns : columnCounts) {
+                CatalogGenerator catalog = new CatalogGenerator(tables, columns, seed);
+                String metadata = catalog.metadata();
+                String statistics = catalog.statistics();
+                for (JoinShape shape : shapes) {
+                    for (int width : widths) {
+                        if (width > tables) {
+                            continue;
+                        }
+                        OptimizationRequest request = new OptimizationRequest();
+                        request.setSqlQuery(catalog.query(shape, width));
+                        request.setMetadata(metadata);
+                        request.setStatistics(statistics);
+                        request.setCostThreshold(1000.0);
+                        out.println(run(request, warmup, iterations, tables, columns, shape, width));
+                    }
+                }
+            }
+        }
+        if (out != System.out) {
+            out.close();
+        }
+    }
+
+    /**
+     * Выполняет прогрев и измерения одной комбинации параметров
+     */
+    private static String run(OptimizationRequest request, int warmup, int iterations,
+                              int tables, int columns, JoinShape shape, int width) {
+        QueryOptimizer optimizer = new QueryOptimizer();
+        for (int i = 0; i < warmup; i++) {
+            optimizer.optimize(request);
+        }
+
+        System.gc();
+        resetPeakHeap();
+        long[] latencies = new long[iterations];
+        int errors = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            OptimizationResult result = optimizer.optimize(request);
+            latencies[i] = System.nanoTime() - start;
+            if (!result.isSuccess()) {
+                errors++;
+            }
+        }
+        long peakHeap = peakHeap();
+
+        Arrays.sort(latencies);
+        return String.format(Locale.ROOT, "%d,%d,%s,%d,%d,%d,%.3f,%.3f,%.3f,%.1f",
+            tables, columns, shape.name().toLowerCase(Locale.ROOT), width, iterations, errors,
+            percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.95) / 1e6,
+            latencies[latencies.length - 1] / 1e6, peakHeap / (1024.0 * 1024.0));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Сумма пиковых объемов пулов кучи с момента сброса
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static List<Integer> integers(String values) {
+        List<Integer> result = new ArrayList<>();
+        for (String value : values.split(",")) {
+            result.add(Integer.parseInt(value.trim()));
+        }
+        return result;
+    }
+
+    private static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder().longOpt("tables").hasArg()
+            .desc("Количество таблиц каталога через запятую (по умолчанию: 10,100,1000)").build());
+        options.addOption(Option.builder().longOpt("columns").hasArg()
+            .desc("Количество колонок таблиц через запятую (по умолчанию: 10,50)").build());
+        options.addOption(Option.builder().longOpt("shapes").hasArg()
+            .desc("Формы соединения: chain, star, snowflake, clique (по умолчанию: все)").build());
+        options.addOption(Option.builder().longOpt("widths").hasArg()
+            .desc("Количество соединяемых таблиц через запятую (по умолчанию: 2,4,8,16)").build());
+        options.addOption(Option.builder().longOpt("warmup").hasArg()
+            .desc("Количество прогревочных оптимизаций (по умолчанию: 5)").build());
+        options.addOption(Option.builder().longOpt("iterations").hasArg()
+            .desc("Количество измеряемых оптимизаций (по умолчанию: 20)").build());
+        options.addOption(Option.builder().longOpt("seed").hasArg()
+            .desc("Начальное значение генератора каталога (по умолчанию: 42)").build());
+        options.addOption(Option.builder("o").longOpt("output").hasArg()
+            .desc("Файл для сохранения результата (CSV)").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Показать справку").build());
+        return options;
+    }
+}
@@ -0,0 +1,311 @@
+package com.optimizer.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.optimizer.core.OptimizedPlan;
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.SubQuery;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Прогон запросов TPC-H и TPC-DS через оптимизатор при нескольких масштабах статистики.
+ *
+ * Для каждого запроса записываются время планирования, оценка стоимости, порядок
+ * соединений оптимизированного плана и форма разбиения на подзапросы. Результаты
+ * сохраняются в JSON и сравниваются с базовым прогоном: ошибки, рост стоимости
+ * и времени считаются регрессиями, смена порядка соединений или формы разбиения
+ * выводится как изменение плана
+ */
+public class TpcBenchmarkRunner {
+    private static final ObjectMapper mapper = new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /** Порог стоимости для разбиения, как в остальных бенчмарках */
+    static final double DEFAULT_COST_THRESHOLD = 1000.0;
+    /**
+     * Допустимый рост времени планирования. Базовый прогон обычно снят на другой
+     * машине, поэтому допуск шире, чем при воспроизведении журнала
+     */
+    static final double DEFAULT_LATENCY_TOLERANCE = 1.0;
+    /** Время планирования, ниже которого рост времени не считается регрессией */
+    static final double LATENCY_FLOOR_MILLIS = 5.0;
+
+    public static void main(String[] args) throws Exception {
+        Options options = createOptions();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("tpc-benchmark", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp("tpc-benchmark", options);
+            return;
+        }
+
+        List<TpcWorkload> workloads = new ArrayList<>();
+        for (String name : cmd.getOptionValue("workload", "tpch,tpcds").split(",")) {
+            workloads.add(TpcWorkload.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+        }
+        int[] scaleFactors = cmd.hasOption("scale")
+            ? Arrays.stream(cmd.getOptionValue("scale").split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray()
+            : TpcWorkload.SCALE_FACTORS;
+        int warmup = Integer.parseInt(cmd.getOptionValue("warmup", "3"));
+        int iterations = Integer.parseInt(cmd.getOptionValue("iterations", "5"));
+        double costThreshold = Double.parseDouble(
+            cmd.getOptionValue("cost-threshold", String.valueOf(DEFAULT_COST_THRESHOLD)));
+
+        List<TpcQueryResult> results = new ArrayList<>();
+        QueryOptimizer optimizer = new QueryOptimizer();
+        for (TpcWorkload workload : workloads) {
+            for (int scaleFactor : scaleFactors) {
+                results.addAll(run(optimizer, workload, scaleFactor, costThreshold, warmup, iterations));
+            }
+        }
+        print(System.out, results);
+        for (TpcWorkload workload : workloads) {
+            printCoverage(System.out, workload);
+        }
+        if (cmd.hasOption("output")) {
+            mapper.writeValue(Paths.get(cmd.getOptionValue("output")).toFile(), results);
+        }
+
+        if (cmd.hasOption("baseline")) {
+            List<TpcQueryResult> baseline = mapper.readValue(Paths.get(cmd.getOptionValue("baseline")).toFile(),
+                new TypeReference<List<TpcQueryResult>>() { });
+            double latencyTolerance = Double.parseDouble(
+                cmd.getOptionValue("latency-tolerance", String.valueOf(DEFAULT_LATENCY_TOLERANCE)));
+            double costTolerance = Double.parseDouble(
+                cmd.getOptionValue("cost-tolerance", String.valueOf(WorkloadReplay.DEFAULT_COST_TOLERANCE)));
+            List<String> regressions = new ArrayList<>();
+            List<String> planChanges = new ArrayList<>();
+            compare(baseline, results, latencyTolerance, costTolerance, regressions, planChanges);
+            System.out.println("Изменений плана: " + planChanges.size());
+            for (String change : planChanges) {
+                System.out.println("  " + change);
+            }
+            System.out.println("Регрессий: " + regressions.size());
+            for (String regression : regressions) {
+                System.out.println("  " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * Планирует все запросы набора при заданном масштабе. Время планирования - медиана
+     * по iterations прогонам после warmup прогонов прогрева
+     */
+    static List<TpcQueryResult> run(QueryOptimizer optimizer, TpcWorkload workload, int scaleFactor,
+                                    double costThreshold, int warmup, int iterations) throws Exception {
+        String metadata = workload.metadata();
+        String statistics = workload.statistics(scaleFactor);
+        List<TpcQueryResult> results = new ArrayList<>();
+
+        for (Map.Entry<String, String> query : workload.queries().entrySet()) {
+            OptimizationRequest request = new OptimizationRequest(query.getValue(), metadata, statistics, costThreshold);
+            TpcQueryResult result = new TpcQueryResult();
+            result.setWorkload(workload.getDirectory());
+            result.setScaleFactor(scaleFactor);
+            result.setQuery(query.getKey());
+
+            long[] latencies = new long[Math.max(1, iterations)];
+            OptimizedPlan plan = null;
+            OptimizationResult optimization = null;
+            for (int i = -warmup; i < latencies.length; i++) {
+                long start = System.nanoTime();
+                plan = optimizer.prepare(request);
+                optimization = optimizer.split(plan, request);
+                if (i >= 0) {
+                    latencies[i] = System.nanoTime() - start;
+                }
+            }
+            Arrays.sort(latencies);
+            result.setLatencyMillis(latencies[latencies.length / 2] / 1e6);
+
+            result.setSuccess(optimization.isSuccess());
+            result.setErrorMessage(optimization.getErrorMessage());
+            if (optimization.isSuccess()) {
+                result.setEstimatedCost(optimization.getTotalCost());
+                result.setJoinOrder(joinOrder(plan.getOptimizedNode()));
+                result.setSubQueryCount(optimization.getSubQueries().size());
+                result.setSplitShape(splitShape(optimization.getSubQueries()));
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Порядок соединений плана: дерево соединений с именами таблиц в листьях
+     */
+    static String joinOrder(RelNode node) {
+        String order = joinTree(node);
+        return order.isEmpty() ? "-" : order;
+    }
+
+    private static String joinTree(RelNode node) {
+        String tree = relTree(node);
+        // Подзапросы, оставшиеся в выражениях (EXISTS, IN, скалярные), выводятся в фигурных скобках
+        List<String> subQueries = new ArrayList<>();
+        node.accept(new RexShuttle() {
+            @Override
+            public RexNode visitSubQuery(RexSubQuery subQuery) {
+                subQueries.add(joinOrder(subQuery.rel));
+                return subQuery;
+            }
+        });
+        if (subQueries.isEmpty()) {
+            return tree;
+        }
+        return (tree.isEmpty() ? "" : tree + " ") + "{" + String.join(", ", subQueries) + "}";
+    }
+
+    private static String relTree(RelNode node) {
+        if (node instanceof TableScan) {
+            List<String> name = node.getTable().getQualifiedName();
+            return name.get(name.size() - 1);
+        }
+        if (node instanceof Join) {
+            return "(" + joinTree(((Join) node).getLeft()) + " x " + joinTree(((Join) node).getRight()) + ")";
+        }
+        List<String> inputs = new ArrayList<>();
+        for (RelNode input : node.getInputs()) {
+            String tree = joinTree(input);
+            if (!tree.isEmpty()) {
+                inputs.add(tree);
+            }
+        }
+        // Объединения и другие узлы с несколькими входами не являются соединениями
+        return inputs.size() == 1 ? inputs.get(0) : inputs.isEmpty() ? "" : "[" + String.join(", ", inputs) + "]";
+    }
+
+    /**
+     * Форма разбиения: подзапросы в порядке выполнения со списком зависимостей
+     */
+    static String splitShape(List<SubQuery> subQueries) {
+        List<String> stages = new ArrayList<>();
+        for (SubQuery subQuery : subQueries) {
+            List<String> dependencies = subQuery.getDependencies();
+            stages.add(dependencies == null || dependencies.isEmpty()
+                ? subQuery.getId() : subQuery.getId() + "<-" + String.join(",", dependencies));
+        }
+        return String.join("; ", stages);
+    }
+
+    /**
+     * Сравнивает прогон с базовым по набору, масштабу и номеру запроса
+     */
+    static void compare(List<TpcQueryResult> baseline, List<TpcQueryResult> current,
+                        double latencyTolerance, double costTolerance,
+                        List<String> regressions, List<String> planChanges) {
+        Map<String, TpcQueryResult> before = new HashMap<>();
+        for (TpcQueryResult result : baseline) {
+            before.put(result.key(), result);
+        }
+        for (TpcQueryResult after : current) {
+            TpcQueryResult previous = before.get(after.key());
+            if (previous == null) {
+                continue;
+            }
+            String key = after.key();
+            if (previous.isSuccess() && !after.isSuccess()) {
+                regressions.add(key + ": ошибка оптимизации: " + after.getErrorMessage());
+                continue;
+            }
+            if (!previous.isSuccess() || !after.isSuccess()) {
+                continue;
+            }
+            if (after.getLatencyMillis() > LATENCY_FLOOR_MILLIS
+                    && after.getLatencyMillis() > previous.getLatencyMillis() * (1 + latencyTolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: время %.1f мс -> %.1f мс", key,
+                    previous.getLatencyMillis(), after.getLatencyMillis()));
+            }
+            if (after.getEstimatedCost() > previous.getEstimatedCost() * (1 + costTolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: стоимость %.2f -> %.2f", key,
+                    previous.getEstimatedCost(), after.getEstimatedCost()));
+            }
+            if (!after.getJoinOrder().equals(previous.getJoinOrder())) {
+                planChanges.add(key + ": порядок соединений " + previous.getJoinOrder() + " -> " + after.getJoinOrder());
+            }
+            if (!after.getSplitShape().equals(previous.getSplitShape())) {
+                planChanges.add(key + ": разбиение " + previous.getSplitShape() + " -> " + after.getSplitShape());
+            }
+        }
+    }
+
+    static void print(PrintStream out, List<TpcQueryResult> results) {
+        out.println("workload,sf,query,success,latency_ms,cost,subqueries,join_order");
+        for (TpcQueryResult result : results) {
+            out.printf(Locale.ROOT, "%s,%d,%s,%s,%.3f,%.2f,%d,\"%s\"%n", result.getWorkload(), result.getScaleFactor(),
+                result.getQuery(), result.isSuccess(), result.getLatencyMillis(), result.getEstimatedCost(),
+                result.getSubQueryCount(), result.isSuccess() ? result.getJoinOrder() : result.getErrorMessage());
+        }
+    }
+
+    /**
+     * Сколько запросов спецификации набора включено и каких не хватает
+     */
+    static void printCoverage(PrintStream out, TpcWorkload workload) {
+        List<String> missing = workload.missingQueries();
+        out.printf(Locale.ROOT, "%s: включено запросов %d из %d%n", workload.getDirectory(),
+            workload.getTotalQueries() - missing.size(), workload.getTotalQueries());
+        if (!missing.isEmpty()) {
+            out.println("  Отсутствуют: " + String.join(", ", missing));
+        }
+    }
+
+    private static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("w").longOpt("workload").hasArg()
+            .desc("Наборы запросов через запятую: tpch, tpcds (по умолчанию: оба)").build());
+        options.addOption(Option.builder("s").longOpt("scale").hasArg()
+            .desc("Масштабы статистики через запятую (по умолчанию: 1,10,100)").build());
+        options.addOption(Option.builder().longOpt("warmup").hasArg()
+            .desc("Количество прогонов прогрева на запрос (по умолчанию: 3)").build());
+        options.addOption(Option.builder("i").longOpt("iterations").hasArg()
+            .desc("Количество измеряемых прогонов на запрос (по умолчанию: 5)").build());
+        options.addOption(Option.builder().longOpt("cost-threshold").hasArg()
+            .desc("Порог стоимости для разбиения (по умолчанию: 1000)").build());
+        options.addOption(Option.builder("o").longOpt("output").hasArg()
+            .desc("Файл для сохранения результатов (JSON)").build());
+        options.addOption(Option.builder("b").longOpt("baseline").hasArg()
+            .desc("Результаты базового прогона (JSON) для сравнения").build());
+        options.addOption(Option.builder().longOpt("latency-tolerance").hasArg()
+            .desc("Допустимый рост времени планирования (по умолчанию: 1.0 - в 2 раза)").build());
+        options.addOption(Option.builder().longOpt("cost-tolerance").hasArg()
+            .desc("Допустимый рост стоимости запроса (по умолчанию: 0.01 - на 1%)").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Показать справку").build());
+        return options;
+    }
+}
@@ -0,0 +1,116 @@
+package com.optimizer.benchmarks;
+
+/**
+ * Результат планирования одного запроса TPC-H или TPC-DS при заданном масштабе
+ */
+public class TpcQueryResult {
+    private String workload;
+    private int scaleFactor;
+    private String query;
+    private boolean success;
+    private String errorMessage;
+    private double latencyMillis;
+    private double estimatedCost;
+    private String joinOrder;
+    private int subQueryCount;
+    private String splitShape;
+
+    public TpcQueryResult() {
+    }
+
+    /**
+     * Ключ для сопоставления с базовым прогоном: набор, масштаб и номер запроса
+     */
+    public String key() {
+        return workload + "/sf" + scaleFactor + "/" + query;
+    }
+
+    public String getWorkload() {
+        return workload;
+    }
+
+    public void setWorkload(String workload) {
+        this.workload = workload;
+    }
+
+    public int getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public void setScaleFactor(int scaleFactor) {
+        this.scaleFactor = scaleFactor;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Медиана времени планирования (оптимизация и разбиение) по итерациям
+     */
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public void setLatencyMillis(double latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public double getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    public void setEstimatedCost(double estimatedCost) {
+        this.estimatedCost = estimatedCost;
+    }
+
+    /**
+     * Порядок соединений оптимизированного плана, например "((lineitem x orders) x customer)"
+     */
+    public String getJoinOrder() {
+        return joinOrder;
+    }
+
+    public void setJoinOrder(String joinOrder) {
+        this.joinOrder = joinOrder;
+    }
+
+    public int getSubQueryCount() {
+        return subQueryCount;
+    }
+
+    public void setSubQueryCount(int subQueryCount) {
+        this.subQueryCount = subQueryCount;
+    }
+
+    /**
+     * Форма разбиения: подзапросы в порядке выполнения с их зависимостями, например "Q1; Q2; Q3<-Q1,Q2"
+     */
+    public String getSplitShape() {
+        return splitShape;
+    }
+
+    public void setSplitShape(String splitShape) {
+        this.splitShape = splitShape;
+    }
+}
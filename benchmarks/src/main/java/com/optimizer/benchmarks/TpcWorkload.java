@@ -0,0 +1,87 @@
+package com.optimizer.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Наборы TPC-H и TPC-DS: схема в формате MetadataParser, статистика для нескольких
+ * масштабов (scale factor) в формате StatisticsParser и запросы набора.
+ *
+ * Запросы приведены к диалекту Calcite (substring ... from ... for вместо substr,
+ * представление TPC-H Q15 заменено на WITH) с фиксированными параметрами подстановки.
+ * TPC-H включен полностью, из TPC-DS включены только перечисленные запросы
+ */
+public enum TpcWorkload {
+    TPCH("tpch", 22, range(1, 22)),
+    TPCDS("tpcds", 99, new int[] {1, 3, 6, 7, 12, 15, 19, 26, 27, 34, 37, 42, 43, 52, 55, 73, 79, 96, 98});
+
+    /** Масштабы, для которых есть статистика */
+    public static final int[] SCALE_FACTORS = {1, 10, 100};
+
+    private final String directory;
+    private final int totalQueries;
+    private final int[] includedQueries;
+
+    TpcWorkload(String directory, int totalQueries, int[] includedQueries) {
+        this.directory = directory;
+        this.totalQueries = totalQueries;
+        this.includedQueries = includedQueries;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String metadata() throws IOException {
+        return BenchmarkInput.resource(directory + "/metadata.json");
+    }
+
+    public String statistics(int scaleFactor) throws IOException {
+        return BenchmarkInput.resource(directory + "/statistics-sf" + scaleFactor + ".json");
+    }
+
+    /**
+     * Количество запросов в спецификации набора
+     */
+    public int getTotalQueries() {
+        return totalQueries;
+    }
+
+    /**
+     * Включенные запросы набора по номерам ("q1", "q3", ...)
+     */
+    public Map<String, String> queries() throws IOException {
+        Map<String, String> queries = new LinkedHashMap<>();
+        for (int number : includedQueries) {
+            String name = "q" + number;
+            queries.put(name, BenchmarkInput.resource(directory + "/queries/" + name + ".sql"));
+        }
+        return queries;
+    }
+
+    /**
+     * Запросы спецификации, которые не включены в набор
+     */
+    public List<String> missingQueries() {
+        List<String> missing = new ArrayList<>();
+        for (int number = 1; number <= totalQueries; number++) {
+            int query = number;
+            if (Arrays.stream(includedQueries).noneMatch(included -> included == query)) {
+                missing.add("q" + query);
+            }
+        }
+        return missing;
+    }
+
+    private static int[] range(int first, int last) {
+        int[] numbers = new int[last - first + 1];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = first + i;
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,243 @@
+package com.optimizer.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationResult;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Воспроизведение журнала запросов (JSONL, по одному {@link ReplayEntry} в строке)
+ * с исходными интервалами между запросами или в ускоренном темпе.
+ *
+ * Результаты каждого запроса сохраняются в JSONL и могут служить базовым прогоном
+ * для следующей версии: при сравнении отмечаются запросы, которые стали медленнее,
+ * дороже, разбиваются на другое число подзапросов или завершаются ошибкой
+ */
+public class WorkloadReplay {
+    private static final ObjectMapper mapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /** Допустимый рост времени оптимизации запроса относительно базового прогона */
+    static final double DEFAULT_LATENCY_TOLERANCE = 0.5;
+    /** Допустимый рост стоимости запроса относительно базового прогона */
+    static final double DEFAULT_COST_TOLERANCE = 0.01;
+    /** Время оптимизации, ниже которого рост времени не считается регрессией */
+    static final long LATENCY_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    public static void main(String[] args) throws Exception {
+        Options options = createOptions();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("workload-replay", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp("workload-replay", options);
+            return;
+        }
+
+        List<ReplayEntry> entries = readLog(Paths.get(cmd.getOptionValue("log")));
+        double speed = Double.parseDouble(cmd.getOptionValue("speed", "1"));
+        int concurrency = Integer.parseInt(cmd.getOptionValue("concurrency",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        List<ReplayOutcome> outcomes = replay(entries, speed, concurrency);
+        summarize(System.out, outcomes);
+        if (cmd.hasOption("output")) {
+            writeOutcomes(Paths.get(cmd.getOptionValue("output")), outcomes);
+        }
+        if (cmd.hasOption("baseline")) {
+            List<ReplayOutcome> baseline = readOutcomes(Paths.get(cmd.getOptionValue("baseline")));
+            double latencyTolerance = Double.parseDouble(
+                cmd.getOptionValue("latency-tolerance", String.valueOf(DEFAULT_LATENCY_TOLERANCE)));
+            double costTolerance = Double.parseDouble(
+                cmd.getOptionValue("cost-tolerance", String.valueOf(DEFAULT_COST_TOLERANCE)));
+            List<String> regressions = compare(baseline, outcomes, latencyTolerance, costTolerance);
+            System.out.println("Регрессий: " + regressions.size());
+            for (String regression : regressions) {
+                System.out.println("  " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * Отправляет запросы журнала в оптимизатор. Интервалы между запросами берутся
+     * из журнала и делятся на speed; speed = 0 отправляет все запросы сразу
+     */
+    static List<ReplayOutcome> replay(List<ReplayEntry> entries, double speed, int concurrency)
+            throws InterruptedException {
+        QueryOptimizer optimizer = new QueryOptimizer();
+        AtomicReferenceArray<ReplayOutcome> outcomes = new AtomicReferenceArray<>(entries.size());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        long firstTimestamp = entries.isEmpty() ? 0 : entries.get(0).getTimestamp();
+
+        for (int i = 0; i < entries.size(); i++) {
+            ReplayEntry entry = entries.get(i);
+            if (speed > 0) {
+                long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(entry.getTimestamp() - firstTimestamp) / speed);
+                long delay = start + offsetNanos - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+            }
+            int index = i;
+            executor.execute(() -> {
+                long requestStart = System.nanoTime();
+                OptimizationResult result = optimizer.optimize(entry.getRequest());
+                long latency = System.nanoTime() - requestStart;
+                outcomes.set(index, new ReplayOutcome(index, latency, result.isSuccess(), result.getTotalCost(),
+                    result.getSubQueries() != null ? result.getSubQueries().size() : 0, result.getErrorMessage()));
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+
+        List<ReplayOutcome> result = new ArrayList<>();
+        for (int i = 0; i < outcomes.length(); i++) {
+            result.add(outcomes.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Сравнивает прогон с базовым по номерам запросов журнала и возвращает описания регрессий
+     */
+    static List<String> compare(List<ReplayOutcome> baseline, List<ReplayOutcome> current,
+                                double latencyTolerance, double costTolerance) {
+        List<String> regressions = new ArrayList<>();
+        int count = Math.min(baseline.size(), current.size());
+        if (baseline.size() != current.size()) {
+            regressions.add(String.format(Locale.ROOT, "количество запросов: %d в базовом прогоне, %d в текущем",
+                baseline.size(), current.size()));
+        }
+        for (int i = 0; i < count; i++) {
+            ReplayOutcome before = baseline.get(i);
+            ReplayOutcome after = current.get(i);
+            if (before.isSuccess() && !after.isSuccess()) {
+                regressions.add(String.format("#%d: ошибка оптимизации: %s", i, after.getErrorMessage()));
+                continue;
+            }
+            if (!after.isSuccess()) {
+                continue;
+            }
+            if (after.getLatencyNanos() > LATENCY_FLOOR_NANOS
+                    && after.getLatencyNanos() > before.getLatencyNanos() * (1 + latencyTolerance)) {
+                regressions.add(String.format(Locale.ROOT, "#%d: время %.1f мс -> %.1f мс", i,
+                    before.getLatencyNanos() / 1e6, after.getLatencyNanos() / 1e6));
+            }
+            if (after.getTotalCost() > before.getTotalCost() * (1 + costTolerance)) {
+                regressions.add(String.format(Locale.ROOT, "#%d: стоимость %.2f -> %.2f", i,
+                    before.getTotalCost(), after.getTotalCost()));
+            }
+            if (before.isSuccess() && after.getSubQueryCount() != before.getSubQueryCount()) {
+                regressions.add(String.format("#%d: подзапросов %d -> %d", i,
+                    before.getSubQueryCount(), after.getSubQueryCount()));
+            }
+        }
+        return regressions;
+    }
+
+    static void summarize(PrintStream out, List<ReplayOutcome> outcomes) {
+        Histogram latencies = new Histogram(3);
+        int errors = 0;
+        double totalCost = 0;
+        for (ReplayOutcome outcome : outcomes) {
+            latencies.recordValue(outcome.getLatencyNanos());
+            if (outcome.isSuccess()) {
+                totalCost += outcome.getTotalCost();
+            } else {
+                errors++;
+            }
+        }
+        out.printf(Locale.ROOT, "Запросов: %d, ошибок: %d, суммарная стоимость: %.2f%n",
+            outcomes.size(), errors, totalCost);
+        out.printf(Locale.ROOT, "Время оптимизации, мс: p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+            latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+            latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMaxValue() / 1e6);
+    }
+
+    static List<ReplayEntry> readLog(Path log) throws IOException {
+        List<ReplayEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    entries.add(mapper.readValue(line, ReplayEntry.class));
+                }
+            }
+        }
+        entries.sort((a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+        return entries;
+    }
+
+    static List<ReplayOutcome> readOutcomes(Path file) throws IOException {
+        List<ReplayOutcome> outcomes = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                outcomes.add(mapper.readValue(line, ReplayOutcome.class));
+            }
+        }
+        return outcomes;
+    }
+
+    static void writeOutcomes(Path file, List<ReplayOutcome> outcomes) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (ReplayOutcome outcome : outcomes) {
+                writer.write(mapper.writeValueAsString(outcome));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("l").longOpt("log").hasArg().required()
+            .desc("Журнал запросов (JSONL: {\"timestamp\": ..., \"request\": {...}})").build());
+        options.addOption(Option.builder("s").longOpt("speed").hasArg()
+            .desc("Ускорение относительно исходного темпа; 0 - без пауз (по умолчанию: 1)").build());
+        options.addOption(Option.builder("c").longOpt("concurrency").hasArg()
+            .desc("Количество потоков оптимизатора (по умолчанию: число процессоров)").build());
+        options.addOption(Option.builder("o").longOpt("output").hasArg()
+            .desc("Файл для сохранения результатов прогона (JSONL)").build());
+        options.addOption(Option.builder("b").longOpt("baseline").hasArg()
+            .desc("Результаты базового прогона (JSONL) для поиска регрессий").build());
+        options.addOption(Option.builder().longOpt("latency-tolerance").hasArg()
+            .desc("Допустимый рост времени оптимизации запроса (по умолчанию: 0.5 - на 50%)").build());
+        options.addOption(Option.builder().longOpt("cost-tolerance").hasArg()
+            .desc("Допустимый рост стоимости запроса (по умолчанию: 0.01 - на 1%)").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Показать справку").build());
+        return options;
+    }
+}
@@ -1,9 +1,15 @@
 package com.optimizer;
 
+import com.optimizer.core.OptimizedPlan;
 import com.optimizer.core.QueryOptimizer;
+import com.optimizer.model.OptimizationPhase;
 import com.optimizer.model.OptimizationRequest;
 import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.PhaseTiming;
+import com.optimizer.model.SplitObjective;
+import com.optimizer.model.TargetDialect;
 import com.optimizer.util.JsonUtils;
+import com.optimizer.util.PhaseTimer;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +18,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Консольная утилита для оптимизации и разбиения SQL запросов с использованием Apache Calcite
@@ -38,7 +47,21 @@ public class SqlQueryOptimizer {
             String metadataFile = cmd.getOptionValue("metadata");
             String statisticsFile = cmd.getOptionValue("statistics");
             String outputFile = cmd.getOptionValue("output");
-            double costThreshold = Double.parseDouble(cmd.getOptionValue("threshold", "1000.0"));
+            List<Double> costThresholds = new ArrayList<>();
+            for (String threshold : cmd.getOptionValue("threshold", "1000.0").split(",")) {
+                costThresholds.add(Double.parseDouble(threshold.trim()));
+            }
+            double costThreshold = costThresholds.get(0);
+            long memoryBudget = Long.parseLong(cmd.getOptionValue("memory-budget", "0"));
+            String objective = cmd.getOptionValue("objective");
+            if (costThresholds.size() > 1 && objective == null) {
+                // Без целевой функции порог не влияет на разбиение, все варианты совпали бы
+                throw new IllegalArgumentException("Несколько порогов --threshold можно указать только вместе с --objective");
+            }
+            int workers = Integer.parseInt(cmd.getOptionValue("workers", "1"));
+            String dialect = cmd.getOptionValue("dialect");
+            boolean fusePipelines = cmd.hasOption("fuse-pipelines");
+            boolean ruleStats = cmd.hasOption("rule-stats");
 
             // Загружаем SQL запрос
             String query;
@@ -70,30 +93,39 @@ public class SqlQueryOptimizer {
             request.setMetadata(metadata);
             request.setStatistics(statistics);
             request.setCostThreshold(costThreshold);
+            request.setMemoryBudgetBytes(memoryBudget);
+            if (objective != null) {
+                request.setSplitObjective(SplitObjective.valueOf(objective.toUpperCase(Locale.ROOT).replace('-', '_')));
+            }
+            request.setParallelWorkers(workers);
+            if (dialect != null) {
+                request.setTargetDialect(TargetDialect.valueOf(dialect.toUpperCase(Locale.ROOT)));
+            }
+            request.setPipelineFusion(fusePipelines);
+            request.setCollectRuleStats(ruleStats);
+            request.setCollectPhaseTimings(!cmd.hasOption("no-timings"));
 
             logger.info("Начинаем оптимизацию SQL запроса...");
-            logger.info("SQL запрос: {}", query);
-            logger.info("Порог стоимости: {}", costThreshold);
+            logger.debug("SQL запрос: {}", query);
+            logger.info("Порог стоимости: {}", costThresholds);
+            if (memoryBudget > 0) {
+                logger.info("Бюджет памяти на этап: {} байт", memoryBudget);
+            }
 
             // Выполняем оптимизацию
             QueryOptimizer optimizer = new QueryOptimizer();
-            OptimizationResult result = optimizer.optimize(request);
-
-            // Выводим результат
-            String resultJson = JsonUtils.toJson(result);
-            if (outputFile != null) {
-                Files.write(Paths.get(outputFile), resultJson.getBytes());
-                logger.info("Результат сохранен в файл: {}", outputFile);
-            } else {
-                System.out.println(resultJson);
+            String slowQueryLog = cmd.getOptionValue("slow-query-log");
+            if (cmd.hasOption("slow-query-ms")) {
+                optimizer.getSlowQueryRecorder().setLatencyThresholdMillis(
+                    Long.parseLong(cmd.getOptionValue("slow-query-ms")));
             }
-
-            if (result.isSuccess()) {
-                logger.info("Оптимизация завершена успешно");
-                logger.info("Количество созданных подзапросов: {}", result.getSubQueries().size());
-                logger.info("Общая стоимость: {}", result.getTotalCost());
+            if (costThresholds.size() > 1) {
+                writeSplitVariants(optimizer, request, costThresholds, outputFile);
             } else {
-                logger.error("Оптимизация завершена с ошибкой: {}", result.getErrorMessage());
+                writeOptimizationResult(optimizer, request, outputFile);
+            }
+            if (slowQueryLog != null) {
+                optimizer.getSlowQueryRecorder().dump(Paths.get(slowQueryLog));
             }
 
         } catch (ParseException e) {
@@ -109,6 +141,66 @@ public class SqlQueryOptimizer {
         }
     }
 
+    /**
+     * Строит план один раз и выводит JSON массив вариантов его разбиения для каждого порога
+     */
+    private static void writeSplitVariants(QueryOptimizer optimizer, OptimizationRequest request,
+                                           List<Double> costThresholds, String outputFile) throws IOException {
+        OptimizedPlan plan = optimizer.prepare(request);
+        List<OptimizationResult> variants = new ArrayList<>();
+        for (double threshold : costThresholds) {
+            request.setCostThreshold(threshold);
+            OptimizationResult variant = optimizer.split(plan, request);
+            variants.add(variant);
+            if (variant.isSuccess()) {
+                logger.info("Порог {}: {} подзапросов, общая стоимость {}",
+                    threshold, variant.getSubQueries().size(), variant.getTotalCost());
+            }
+        }
+        writeResult(JsonUtils.toJson(variants), outputFile);
+        if (!plan.isSuccess()) {
+            logger.error("Оптимизация завершена с ошибкой: {}", plan.getErrorMessage());
+        }
+    }
+
+    /**
+     * Оптимизирует запрос и выводит результат
+     */
+    private static void writeOptimizationResult(QueryOptimizer optimizer, OptimizationRequest request,
+                                                String outputFile) throws IOException {
+        OptimizationResult result = optimizer.optimize(request);
+
+        // Выводим результат
+        PhaseTimer timer = new PhaseTimer(result.getPhaseTimings() != null);
+        String resultJson = JsonUtils.toJson(result);
+        timer.end(OptimizationPhase.JSON_SERIALIZATION);
+        if (timer.isEnabled()) {
+            // Результат уже сериализован, поэтому время сериализации только записывается в лог
+            PhaseTiming serialization = timer.getTimings().get(0);
+            logger.info("Сериализация результата в JSON: {} мкс, выделено {} байт",
+                serialization.getTimeNanos() / 1000, serialization.getAllocatedBytes());
+        }
+        writeResult(resultJson, outputFile);
+
+        if (result.isSuccess()) {
+            logger.info("Оптимизация завершена успешно");
+            logger.info("Количество созданных подзапросов: {}", result.getSubQueries().size());
+            logger.info("Общая стоимость: {}", result.getTotalCost());
+            logger.info("Класс запроса: {} ({})", result.getQueryComplexity(), optimizer.getClassificationStats());
+        } else {
+            logger.error("Оптимизация завершена с ошибкой: {}", result.getErrorMessage());
+        }
+    }
+
+    private static void writeResult(String resultJson, String outputFile) throws IOException {
+        if (outputFile != null) {
+            Files.write(Paths.get(outputFile), resultJson.getBytes());
+            logger.info("Результат сохранен в файл: {}", outputFile);
+        } else {
+            System.out.println(resultJson);
+        }
+    }
+
     private static Options createOptions() {
         Options options = new Options();
 
@@ -146,7 +238,58 @@ public class SqlQueryOptimizer {
         options.addOption(Option.builder("c")
                 .longOpt("threshold")
                 .hasArg()
-                .desc("Порог стоимости для разбиения запроса (по умолчанию: 1000.0)")
+                .desc("Порог стоимости для разбиения запроса; несколько порогов через запятую выводят все варианты разбиения (по умолчанию: 1000.0)")
+                .build());
+
+        options.addOption(Option.builder("b")
+                .longOpt("memory-budget")
+                .hasArg()
+                .desc("Бюджет памяти на промежуточные результаты одного этапа в байтах (по умолчанию: 0 - не используется)")
+                .build());
+
+        options.addOption(Option.builder("j")
+                .longOpt("objective")
+                .hasArg()
+                .desc("Целевая функция поиска оптимального разбиения: total_materialization, makespan, stage_count")
+                .build());
+
+        options.addOption(Option.builder("w")
+                .longOpt("workers")
+                .hasArg()
+                .desc("Количество параллельных исполнителей для целевой функции makespan (по умолчанию: 1)")
+                .build());
+
+        options.addOption(Option.builder("d")
+                .longOpt("dialect")
+                .hasArg()
+                .desc("Диалект хранилища для SQL и DDL временных таблиц: calcite, postgresql, greenplum, redshift, hive, spark (по умолчанию: calcite)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("fuse-pipelines")
+                .desc("Встраивать подзапросы с потоковой границей в потребителя как CTE вместо временных таблиц")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("rule-stats")
+                .desc("Добавить в результат статистику правил оптимизатора")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("no-timings")
+                .desc("Не добавлять в результат время и выделенную память по этапам")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("slow-query-ms")
+                .hasArg()
+                .desc("Порог времени оптимизации в миллисекундах для сохранения снимка медленного запроса (по умолчанию: 1000)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("slow-query-log")
+                .hasArg()
+                .desc("Файл для сохранения снимков медленных запросов (JSON)")
                 .build());
 
         options.addOption(Option.builder("h")
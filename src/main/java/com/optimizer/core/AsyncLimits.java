@@ -0,0 +1,56 @@
+package com.optimizer.core;
+
+/**
+ * Ограничения асинхронной оптимизации {@link QueryOptimizer#optimizeAsync}
+ */
+public class AsyncLimits {
+    private final int threads;
+    private final int queueCapacity;
+    private final long submitTimeoutMillis;
+
+    /**
+     * @param threads             количество потоков оптимизации
+     * @param queueCapacity       сколько запросов могут ждать свободного потока
+     * @param submitTimeoutMillis сколько вызывающий поток ждет места в заполненной очереди,
+     *                            прежде чем запрос будет отклонен (0 - отклонять сразу)
+     */
+    public AsyncLimits(int threads, int queueCapacity, long submitTimeoutMillis) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Количество потоков должно быть положительным: " + threads);
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Размер очереди не может быть отрицательным: " + queueCapacity);
+        }
+        if (submitTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Время ожидания не может быть отрицательным: " + submitTimeoutMillis);
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+    }
+
+    /**
+     * По умолчанию: поток на ядро, очередь в 100 запросов на поток, отклонение без ожидания
+     */
+    public static AsyncLimits defaults() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new AsyncLimits(processors, processors * 100, 0);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getSubmitTimeoutMillis() {
+        return submitTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "потоков: " + threads + ", очередь: " + queueCapacity + ", ожидание места: " + submitTimeoutMillis + " мс";
+    }
+}
@@ -0,0 +1,158 @@
+package com.optimizer.core;
+
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Пул потоков асинхронной оптимизации с ограниченной очередью.
+ *
+ * Места в пуле (выполняющиеся и ожидающие запросы) считаются семафором: при заполнении
+ * вызывающий поток ждет освобождения места не дольше заданного времени, после чего запрос
+ * отклоняется результатом с ошибкой и подсказкой повтора. Отмена future прерывает поток,
+ * выполняющий оптимизацию. Разбор и разбиение запроса прерывание не проверяют, поэтому
+ * место выполняющегося запроса освобождается только после выхода потока из оптимизации;
+ * запрос, еще ожидающий в очереди, освобождает место сразу при отмене
+ */
+class AsyncOptimizationExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncOptimizationExecutor.class);
+
+    private final AsyncLimits limits;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    private final Function<OptimizationRequest, OptimizationResult> optimization;
+    private final DoubleSupplier meanLatencyMillis;
+    private final Runnable onReject;
+
+    /**
+     * @param meanLatencyMillis средняя длительность оптимизации для оценки времени повтора
+     * @param onReject          вызывается при отклонении запроса
+     */
+    AsyncOptimizationExecutor(AsyncLimits limits, Function<OptimizationRequest, OptimizationResult> optimization,
+                              DoubleSupplier meanLatencyMillis, Runnable onReject) {
+        this.limits = limits;
+        this.optimization = optimization;
+        this.meanLatencyMillis = meanLatencyMillis;
+        this.onReject = onReject;
+        this.slots = new Semaphore(limits.getThreads() + limits.getQueueCapacity());
+        this.executor = new ThreadPoolExecutor(limits.getThreads(), limits.getThreads(), 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), OptimizationScheduler.threadFactory("optimizer-async"));
+    }
+
+    AsyncLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Ставит запрос в очередь. Отклоненный запрос возвращается уже завершенным future
+     * с результатом-ошибкой
+     */
+    CompletableFuture<OptimizationResult> submit(OptimizationRequest request) {
+        try {
+            if (!slots.tryAcquire(limits.getSubmitTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                return CompletableFuture.completedFuture(reject("очередь асинхронной оптимизации заполнена"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(reject("ожидание места в очереди прервано"));
+        }
+
+        PlanningFuture future = new PlanningFuture();
+        // Место освобождает тот, кто первым захватит задачу: поток пула после оптимизации
+        // или отмена задачи, которую пул еще не начал выполнять
+        AtomicBoolean claimed = new AtomicBoolean();
+        FutureTask<Void> task = new FutureTask<Void>(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                future.complete(optimization.apply(request));
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+            } finally {
+                slots.release();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                if (claimed.compareAndSet(false, true)) {
+                    slots.release();
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            return CompletableFuture.completedFuture(reject("асинхронная оптимизация остановлена"));
+        }
+        future.attach(task);
+        return future;
+    }
+
+    int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Прекращает прием запросов; запросы, уже стоящие в очереди, будут выполнены
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private OptimizationResult reject(String reason) {
+        onReject.run();
+        int waiting = executor.getQueue().size() + 1;
+        long retryAfter = Math.max(1, (long) Math.ceil(waiting * meanLatencyMillis.getAsDouble() / limits.getThreads()));
+        OptimizationResult result = new OptimizationResult();
+        result.setRetryAfterMillis(retryAfter);
+        result.setErrorMessage("Запрос отклонен: " + reason + ", повторите через " + retryAfter + " мс");
+        logger.debug("Асинхронный запрос отклонен: {}", reason);
+        return result;
+    }
+
+    /**
+     * Future, отмена которого прерывает оптимизацию
+     */
+    private static final class PlanningFuture extends CompletableFuture<OptimizationResult> {
+        private volatile Future<?> task;
+
+        void attach(Future<?> task) {
+            this.task = task;
+            if (isCancelled()) {
+                task.cancel(true);
+            }
+        }
+
+        /**
+         * Поток оптимизации прерывается независимо от mayInterruptIfRunning
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> current = task;
+            if (cancelled && current != null) {
+                current.cancel(true);
+            }
+            return cancelled;
+        }
+    }
+}
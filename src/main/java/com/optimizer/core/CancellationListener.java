@@ -0,0 +1,49 @@
+package com.optimizer.core;
+
+import org.apache.calcite.plan.RelOptListener;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Прерывает планировщик исключением {@link CancellationException} при очередном вызове правила
+ * после отмены. Планировщики Calcite не проверяют прерывание потока, а вызовы правил - самые
+ * частые точки, в которых можно остановить оптимизацию
+ */
+class CancellationListener implements RelOptListener {
+    private final BooleanSupplier cancelled;
+
+    CancellationListener(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Отмена по прерыванию потока, выполняющего оптимизацию
+     */
+    static CancellationListener onInterrupt() {
+        return new CancellationListener(() -> Thread.currentThread().isInterrupted());
+    }
+
+    @Override
+    public void ruleAttempted(RuleAttemptedEvent event) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Оптимизация отменена");
+        }
+    }
+
+    @Override
+    public void relEquivalenceFound(RelEquivalenceEvent event) {
+    }
+
+    @Override
+    public void ruleProductionSucceeded(RuleProductionEvent event) {
+    }
+
+    @Override
+    public void relDiscarded(RelDiscardedEvent event) {
+    }
+
+    @Override
+    public void relChosen(RelChosenEvent event) {
+    }
+}
@@ -0,0 +1,47 @@
+package com.optimizer.core;
+
+/**
+ * Ограничения очереди запросов одного класса стоимости в {@link OptimizationScheduler}
+ */
+public class CostClassLimits {
+    private final int concurrency;
+    private final int queueCapacity;
+    private final long queueTimeoutMillis;
+
+    /**
+     * @param concurrency        сколько запросов класса оптимизируются одновременно
+     * @param queueCapacity      сколько запросов могут ждать свободного потока (0 - без очереди)
+     * @param queueTimeoutMillis сколько запрос может ждать в очереди, прежде чем будет отклонен
+     */
+    public CostClassLimits(int concurrency, int queueCapacity, long queueTimeoutMillis) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Параллельность должна быть положительной: " + concurrency);
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Размер очереди не может быть отрицательным: " + queueCapacity);
+        }
+        if (queueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Время ожидания не может быть отрицательным: " + queueTimeoutMillis);
+        }
+        this.concurrency = concurrency;
+        this.queueCapacity = queueCapacity;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "потоков: " + concurrency + ", очередь: " + queueCapacity + ", ожидание: " + queueTimeoutMillis + " мс";
+    }
+}
@@ -0,0 +1,248 @@
+package com.optimizer.core;
+
+import com.optimizer.model.CostClass;
+import com.optimizer.model.OptimizationRequest;
+import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.QueryShape;
+import com.optimizer.parser.QueryClassifier;
+import com.optimizer.util.LatencyHistogram;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Допуск запросов к {@link QueryOptimizer} с разделением по классам стоимости.
+ *
+ * Перед оптимизацией запрос разбирается и по количеству соединений, глубине подзапросов
+ * и количеству таблиц относится к одному из классов {@link CostClass}. Для каждого класса
+ * используется отдельный пул потоков с ограниченной очередью, поэтому тяжелые запросы
+ * не задерживают легкие. Запрос, который не помещается в очередь или ждет в ней дольше
+ * допустимого, сразу завершается результатом с ошибкой и подсказкой
+ * {@link OptimizationResult#getRetryAfterMillis()}, через сколько его стоит повторить.
+ *
+ * Потокобезопасен
+ */
+public class OptimizationScheduler implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(OptimizationScheduler.class);
+
+    private final QueryOptimizer optimizer;
+    private final QueryClassifier queryClassifier = new QueryClassifier();
+    private final Map<CostClass, Lane> lanes = new EnumMap<>(CostClass.class);
+
+    public OptimizationScheduler(QueryOptimizer optimizer) {
+        this(optimizer, defaultLimits());
+    }
+
+    /**
+     * @param limits ограничения для каждого класса стоимости; должны быть заданы для всех классов
+     */
+    public OptimizationScheduler(QueryOptimizer optimizer, Map<CostClass, CostClassLimits> limits) {
+        this.optimizer = Objects.requireNonNull(optimizer, "optimizer");
+        for (CostClass costClass : CostClass.values()) {
+            CostClassLimits classLimits = limits.get(costClass);
+            if (classLimits == null) {
+                throw new IllegalArgumentException("Не заданы ограничения для класса " + costClass);
+            }
+            lanes.put(costClass, new Lane(costClass, classLimits));
+        }
+    }
+
+    /**
+     * Ограничения по умолчанию: легкие запросы используют все ядра и почти не ждут,
+     * тяжелым достается четверть ядер, короткая очередь и долгое ожидание
+     */
+    public static Map<CostClass, CostClassLimits> defaultLimits() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        Map<CostClass, CostClassLimits> limits = new EnumMap<>(CostClass.class);
+        limits.put(CostClass.LIGHT, new CostClassLimits(processors, 1000, 200));
+        limits.put(CostClass.MEDIUM, new CostClassLimits(Math.max(1, processors / 2), 200, 2000));
+        limits.put(CostClass.HEAVY, new CostClassLimits(Math.max(1, processors / 4), 20, 10000));
+        return limits;
+    }
+
+    /**
+     * Определяет класс стоимости запроса. Запрос, который не удалось разобрать, считается
+     * легким: оптимизатор быстро вернет для него ошибку разбора
+     */
+    public CostClass classify(OptimizationRequest request) {
+        try {
+            SqlNode sqlNode = SqlParser.create(request.getSqlQuery(), QueryOptimizer.PARSER_CONFIG).parseQuery();
+            QueryShape shape = queryClassifier.measure(sqlNode);
+            CostClass costClass = queryClassifier.costClass(shape);
+            logger.debug("Класс стоимости запроса: {} ({})", costClass, shape);
+            return costClass;
+        } catch (SqlParseException e) {
+            return CostClass.LIGHT;
+        }
+    }
+
+    /**
+     * Ставит запрос в очередь его класса стоимости. Если очередь заполнена или запрос
+     * не дождался свободного потока, результат содержит ошибку и подсказку повтора
+     */
+    public CompletableFuture<OptimizationResult> submit(OptimizationRequest request) {
+        return lanes.get(classify(request)).submit(request);
+    }
+
+    /**
+     * Оптимизирует запрос через очередь его класса стоимости и ждет результата
+     */
+    public OptimizationResult optimize(OptimizationRequest request) {
+        return submit(request).join();
+    }
+
+    /** Количество отклоненных запросов класса */
+    public long getRejectedCount(CostClass costClass) {
+        return lanes.get(costClass).rejected.sum();
+    }
+
+    /** Количество запросов класса, ожидающих свободного потока */
+    public int getQueueSize(CostClass costClass) {
+        return lanes.get(costClass).executor.getQueue().size();
+    }
+
+    /** Количество запросов класса, оптимизируемых в данный момент */
+    public int getActiveCount(CostClass costClass) {
+        return lanes.get(costClass).executor.getActiveCount();
+    }
+
+    public CostClassLimits getLimits(CostClass costClass) {
+        return lanes.get(costClass).limits;
+    }
+
+    /**
+     * Прекращает прием запросов. Запросы, уже стоящие в очереди, будут выполнены
+     */
+    @Override
+    public void close() {
+        for (Lane lane : lanes.values()) {
+            lane.executor.shutdown();
+        }
+    }
+
+    /**
+     * Очередь и пул потоков одного класса стоимости
+     */
+    private final class Lane {
+        private final CostClass costClass;
+        private final CostClassLimits limits;
+        private final ThreadPoolExecutor executor;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rejected = new LongAdder();
+
+        Lane(CostClass costClass, CostClassLimits limits) {
+            this.costClass = costClass;
+            this.limits = limits;
+            BlockingQueue<Runnable> queue = limits.getQueueCapacity() > 0
+                ? new ArrayBlockingQueue<>(limits.getQueueCapacity())
+                : new SynchronousQueue<>();
+            this.executor = new ThreadPoolExecutor(limits.getConcurrency(), limits.getConcurrency(),
+                0, TimeUnit.MILLISECONDS, queue, threadFactory("optimizer-" + costClass.name().toLowerCase(Locale.ROOT)), new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        CompletableFuture<OptimizationResult> submit(OptimizationRequest request) {
+            Task task = new Task(request);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.result.complete(reject("очередь запросов класса " + costClass + " заполнена"));
+                return task.result;
+            }
+            if (limits.getQueueTimeoutMillis() > 0) {
+                CompletableFuture.delayedExecutor(limits.getQueueTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .execute(task::expire);
+            }
+            return task.result;
+        }
+
+        /**
+         * Оценка времени освобождения места: все ожидающие запросы и этот запрос
+         * со средней для класса длительностью, распределенные по потокам класса
+         */
+        long retryAfterMillis() {
+            int waiting = executor.getQueue().size() + 1;
+            double estimate = waiting * latency.getMeanMillis() / limits.getConcurrency();
+            return Math.max(1, (long) Math.ceil(estimate));
+        }
+
+        OptimizationResult reject(String reason) {
+            rejected.increment();
+            OptimizationResult result = new OptimizationResult();
+            result.setRetryAfterMillis(retryAfterMillis());
+            result.setErrorMessage("Запрос отклонен: " + reason + ", повторите через "
+                + result.getRetryAfterMillis() + " мс");
+            logger.debug("Запрос класса {} отклонен: {}", costClass, reason);
+            return result;
+        }
+
+        /**
+         * Запрос в очереди. Начать выполнение или истечь по таймауту может только что-то одно
+         */
+        private final class Task implements Runnable {
+            private static final int QUEUED = 0;
+            private static final int STARTED = 1;
+            private static final int EXPIRED = 2;
+
+            private final OptimizationRequest request;
+            private final CompletableFuture<OptimizationResult> result = new CompletableFuture<>();
+            private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+            Task(OptimizationRequest request) {
+                this.request = request;
+            }
+
+            @Override
+            public void run() {
+                if (!state.compareAndSet(QUEUED, STARTED)) {
+                    return;
+                }
+                long startTime = System.nanoTime();
+                try {
+                    result.complete(optimizer.optimize(request));
+                } catch (RuntimeException | Error e) {
+                    result.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    latency.record(System.nanoTime() - startTime);
+                }
+            }
+
+            void expire() {
+                if (state.compareAndSet(QUEUED, EXPIRED)) {
+                    executor.remove(this);
+                    result.complete(reject("время ожидания в очереди класса " + costClass + " ("
+                        + limits.getQueueTimeoutMillis() + " мс) истекло"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Фабрика фоновых потоков с именами вида {@code <prefix>-<номер>}
+     */
+    static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
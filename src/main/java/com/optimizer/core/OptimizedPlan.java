@@ -0,0 +1,52 @@
+package com.optimizer.core;
+
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.tools.FrameworkConfig;
+
+/**
+ * Оптимизированный план запроса, который можно многократно разбивать на подзапросы
+ * с разными параметрами без повторного построения схемы, парсинга, валидации и оптимизации
+ */
+public class OptimizedPlan {
+    private final String sqlQuery;
+    private final FrameworkConfig config;
+    private final RelNode optimizedNode;
+    private final String errorMessage;
+
+    OptimizedPlan(String sqlQuery, FrameworkConfig config, RelNode optimizedNode) {
+        this.sqlQuery = sqlQuery;
+        this.config = config;
+        this.optimizedNode = optimizedNode;
+        this.errorMessage = null;
+    }
+
+    OptimizedPlan(String sqlQuery, String errorMessage) {
+        this.sqlQuery = sqlQuery;
+        this.config = null;
+        this.optimizedNode = null;
+        this.errorMessage = errorMessage;
+    }
+
+    public String getSqlQuery() {
+        return sqlQuery;
+    }
+
+    /**
+     * Удалось ли построить план. Разбиение неудачного плана возвращает результат с ошибкой
+     */
+    public boolean isSuccess() {
+        return errorMessage == null;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public RelNode getOptimizedNode() {
+        return optimizedNode;
+    }
+
+    FrameworkConfig getConfig() {
+        return config;
+    }
+}
@@ -0,0 +1,69 @@
+package com.optimizer.core;
+
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.AbstractRelNode;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+
+import java.util.List;
+
+/**
+ * Лист-заместитель уже оптимизированного поддерева. Правила не сопоставляются с ним,
+ * поэтому планировщик, которому передан план с заместителями, не оптимизирует эти
+ * поддеревья повторно. После оптимизации заместители заменяются самими поддеревьями
+ */
+final class OptimizedSubtree extends AbstractRelNode {
+    private final RelNode optimized;
+    private final double rowCount;
+
+    OptimizedSubtree(RelOptCluster cluster, RelNode optimized, double rowCount) {
+        super(cluster, cluster.traitSetOf(Convention.NONE));
+        this.optimized = optimized;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Заместитель поддерева, которое принадлежит другому кластеру
+     */
+    static OptimizedSubtree of(RelOptCluster cluster, RelNode optimized) {
+        return new OptimizedSubtree(cluster, optimized,
+            optimized.getCluster().getMetadataQuery().getRowCount(optimized));
+    }
+
+    RelNode getOptimized() {
+        return optimized;
+    }
+
+    /**
+     * Тот же заместитель в другом кластере
+     */
+    OptimizedSubtree copy(RelOptCluster cluster) {
+        return new OptimizedSubtree(cluster, optimized, rowCount);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return this;
+    }
+
+    @Override
+    protected RelDataType deriveRowType() {
+        return optimized.getRowType();
+    }
+
+    @Override
+    public double estimateRowCount(RelMetadataQuery mq) {
+        return rowCount;
+    }
+
+    @Override
+    public RelWriter explainTerms(RelWriter pw) {
+        // Идентификатор поддерева делает дайджест уникальным: разные поддеревья с одинаковым
+        // типом строки не должны сливаться в одну вершину планировщика
+        return super.explainTerms(pw).item("subtree", optimized.getId());
+    }
+}
@@ -0,0 +1,159 @@
+package com.optimizer.core;
+
+import com.optimizer.model.OptimizationPhase;
+import com.optimizer.model.PhaseTiming;
+import com.optimizer.model.PlanningStrategy;
+import com.optimizer.util.LatencyHistogram;
+import com.optimizer.util.RateMeter;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Метрики работы {@link QueryOptimizer}. Запись выполняется без блокировок
+ */
+public class OptimizerMetrics implements OptimizerMetricsMXBean {
+    private final LongAdder requests = new LongAdder();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder plannerLimitHits = new LongAdder();
+    private final LongAdder coalescedRequests = new LongAdder();
+    private final LongAdder rejectedAsyncRequests = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<OptimizationPhase, LatencyHistogram> phaseLatencies = new EnumMap<>(OptimizationPhase.class);
+    private final Map<PlanningStrategy, LongAdder> strategyChoices = new EnumMap<>(PlanningStrategy.class);
+    private final RateMeter requestRate = new RateMeter();
+
+    OptimizerMetrics() {
+        for (OptimizationPhase phase : OptimizationPhase.values()) {
+            phaseLatencies.put(phase, new LatencyHistogram());
+        }
+        for (PlanningStrategy strategy : PlanningStrategy.values()) {
+            strategyChoices.put(strategy, new LongAdder());
+        }
+    }
+
+    void requestStarted() {
+        requests.increment();
+        requestRate.mark();
+        inFlight.incrementAndGet();
+    }
+
+    void requestFinished(long latencyNanos, boolean success, List<PhaseTiming> phaseTimings) {
+        inFlight.decrementAndGet();
+        latency.record(latencyNanos);
+        if (!success) {
+            errors.increment();
+        }
+        if (phaseTimings != null) {
+            for (PhaseTiming timing : phaseTimings) {
+                phaseLatencies.get(timing.getPhase()).record(timing.getTimeNanos());
+            }
+        }
+    }
+
+    void plannerLimitReached() {
+        plannerLimitHits.increment();
+    }
+
+    void requestCoalesced() {
+        coalescedRequests.increment();
+    }
+
+    void asyncRequestRejected() {
+        rejectedAsyncRequests.increment();
+    }
+
+    void planningStrategyChosen(PlanningStrategy strategy) {
+        strategyChoices.get(strategy).increment();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    @Override
+    public double getRequestRate() {
+        return requestRate.getRatePerSecond();
+    }
+
+    @Override
+    public long getInFlightCount() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getPlannerLimitHits() {
+        return plannerLimitHits.sum();
+    }
+
+    @Override
+    public long getCoalescedRequestCount() {
+        return coalescedRequests.sum();
+    }
+
+    @Override
+    public long getRejectedAsyncRequestCount() {
+        return rejectedAsyncRequests.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPlanningStrategyChoices() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<PlanningStrategy, LongAdder> strategy : strategyChoices.entrySet()) {
+            result.put(strategy.getKey().name(), strategy.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public Map<String, Double> getPhaseLatencyMeanMillis() {
+        return phaseValues(LatencyHistogram::getMeanMillis);
+    }
+
+    @Override
+    public Map<String, Double> getPhaseLatencyP50Millis() {
+        return phaseValues(histogram -> histogram.getPercentileMillis(0.5));
+    }
+
+    @Override
+    public Map<String, Double> getPhaseLatencyP99Millis() {
+        return phaseValues(histogram -> histogram.getPercentileMillis(0.99));
+    }
+
+    private Map<String, Double> phaseValues(ToDoubleFunction<LatencyHistogram> value) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Map.Entry<OptimizationPhase, LatencyHistogram> phase : phaseLatencies.entrySet()) {
+            if (phase.getValue().getCount() > 0) {
+                result.put(phase.getKey().name(), value.applyAsDouble(phase.getValue()));
+            }
+        }
+        return result;
+    }
+}
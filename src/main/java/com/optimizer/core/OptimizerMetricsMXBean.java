@@ -0,0 +1,46 @@
+package com.optimizer.core;
+
+import java.util.Map;
+
+/**
+ * Метрики оптимизатора, публикуемые через JMX
+ */
+public interface OptimizerMetricsMXBean {
+
+    /** Количество запросов на оптимизацию с момента запуска */
+    long getRequestCount();
+
+    /** Запросов в секунду за последнюю минуту */
+    double getRequestRate();
+
+    /** Количество запросов, которые оптимизируются в данный момент */
+    long getInFlightCount();
+
+    /** Количество запросов, завершившихся ошибкой */
+    long getErrorCount();
+
+    /** Количество оптимизаций, остановленных по лимиту применений правил планировщика */
+    long getPlannerLimitHits();
+
+    /** Количество запросов, получивших результат одновременной оптимизации такого же запроса */
+    long getCoalescedRequestCount();
+
+    /** Количество запросов optimizeAsync, отклоненных из-за заполненной очереди */
+    long getRejectedAsyncRequestCount();
+
+    /** Сколько раз при спекулятивном планировании был выбран план каждой стратегии */
+    Map<String, Long> getPlanningStrategyChoices();
+
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP99Millis();
+
+    /** Средняя длительность каждого этапа обработки запроса */
+    Map<String, Double> getPhaseLatencyMeanMillis();
+
+    Map<String, Double> getPhaseLatencyP50Millis();
+
+    Map<String, Double> getPhaseLatencyP99Millis();
+}
@@ -0,0 +1,225 @@
+package com.optimizer.core;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.SetOp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Параллельная оптимизация независимых поддеревьев плана.
+ *
+ * Независимыми считаются входы соединений и операций над множествами (UNION, INTERSECT, EXCEPT),
+ * в том числе раскрытые запросы WITH, и некоррелированные подзапросы в выражениях. Каждое такое
+ * поддерево копируется в собственный кластер и оптимизируется отдельной задачей fork-join.
+ * Поддеревья внутри поддеревьев обрабатываются так же, рекурсивно.
+ *
+ * После сборки уровня правила применяются только к узлам над поддеревьями и к верхним
+ * {@link #BOUNDARY_DEPTH} уровням каждого оптимизированного поддерева: остальная часть поддерева
+ * заменяется листом {@link OptimizedSubtree} и повторно не оптимизируется. Этого достаточно для
+ * правил, переносящих условия через границу поддерева (например, фильтр над UNION ALL или
+ * соединением), но условие, которое последовательная оптимизация опустила бы глубже границы,
+ * остается над ней
+ */
+class ParallelSubtreeOptimizer {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelSubtreeOptimizer.class);
+
+    /** Меньшие поддеревья оптимизируются быстрее, чем копируются в отдельный кластер */
+    static final int MIN_SUBTREE_SIZE = 3;
+
+    /** Сколько верхних уровней оптимизированного поддерева доступно правилам при сборке */
+    static final int BOUNDARY_DEPTH = 2;
+
+    /**
+     * Последовательная оптимизация одного плана со сбором статистики правил
+     */
+    interface Rules {
+        RelNode apply(RelNode relNode, RuleStatsListener ruleStatsListener, CancellationListener cancellation);
+    }
+
+    private final ForkJoinPool pool;
+    private final Rules rules;
+
+    ParallelSubtreeOptimizer(ForkJoinPool pool, Rules rules) {
+        this.pool = pool;
+        this.rules = rules;
+    }
+
+    /**
+     * Оптимизирует план; статистика правил всех поддеревьев добавляется в ruleStatsListener.
+     * План, в котором меньше двух независимых поддеревьев, оптимизируется последовательно.
+     * Прерывание вызывающего потока отменяет задачи и завершает оптимизацию
+     * исключением {@link CancellationException}
+     */
+    RelNode optimize(RelNode relNode, RuleStatsListener ruleStatsListener) {
+        if (independentSubtrees(relNode).size() < 2) {
+            return rules.apply(relNode, ruleStatsListener, CancellationListener.onInterrupt());
+        }
+        Queue<RuleStatsListener> listeners = new ConcurrentLinkedQueue<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            // Исходный кластер остается у вызывающего потока, задачи работают с копией
+            RelNode root = RelTreeCopier.copy(relNode, RelTreeCopier.newCluster(relNode.getCluster()),
+                new IdentityHashMap<>());
+            ForkJoinTask<RelNode> task = pool.submit(
+                new SubtreeTask(root, listeners, new CancellationListener(cancelled::get)));
+            RelNode optimized = task.get();
+            return RelTreeCopier.copy(optimized, relNode.getCluster(), new IdentityHashMap<>());
+        } catch (InterruptedException e) {
+            // Задачи остановятся при следующем вызове правила
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Оптимизация отменена");
+        } catch (ExecutionException | RuntimeException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            logger.error("Ошибка параллельной оптимизации поддеревьев, план оптимизируется последовательно", cause);
+            listeners.clear();
+            return rules.apply(relNode, ruleStatsListener, CancellationListener.onInterrupt());
+        } finally {
+            for (RuleStatsListener listener : listeners) {
+                ruleStatsListener.merge(listener);
+            }
+        }
+    }
+
+    /**
+     * Самые верхние независимые поддеревья плана; внутрь найденных поддеревьев поиск не спускается
+     */
+    static List<RelNode> independentSubtrees(RelNode relNode) {
+        List<RelNode> subtrees = new ArrayList<>();
+        collect(relNode, subtrees);
+        return subtrees;
+    }
+
+    private static void collect(RelNode relNode, List<RelNode> subtrees) {
+        for (RelNode subQuery : RelTreeCopier.subQueries(relNode)) {
+            if (isIndependent(subQuery)) {
+                subtrees.add(subQuery);
+            }
+        }
+        boolean branching = relNode instanceof Join || relNode instanceof SetOp;
+        for (RelNode input : relNode.getInputs()) {
+            if (branching && isIndependent(input)) {
+                subtrees.add(input);
+            } else {
+                collect(input, subtrees);
+            }
+        }
+    }
+
+    private static boolean isIndependent(RelNode relNode) {
+        return size(relNode) >= MIN_SUBTREE_SIZE
+            && RelOptUtil.getVariablesUsed(relNode).isEmpty()
+            && RelTreeCopier.canCopy(relNode);
+    }
+
+    private static int size(RelNode relNode) {
+        int size = 1;
+        for (RelNode input : relNode.getInputs()) {
+            size += size(input);
+        }
+        return size;
+    }
+
+    /**
+     * Копия верхних уровней оптимизированного поддерева, в которой более глубокие узлы
+     * заменены заместителями
+     */
+    private static RelNode boundary(RelNode optimized, RelNode target) {
+        Map<RelNode, RelNode> hidden = new IdentityHashMap<>();
+        hide(optimized, BOUNDARY_DEPTH, target, hidden);
+        return RelTreeCopier.copy(optimized, target.getCluster(), hidden);
+    }
+
+    private static void hide(RelNode relNode, int depth, RelNode target, Map<RelNode, RelNode> hidden) {
+        if (depth == 0) {
+            hidden.put(relNode, OptimizedSubtree.of(target.getCluster(), relNode));
+            return;
+        }
+        for (RelNode input : relNode.getInputs()) {
+            hide(input, depth - 1, target, hidden);
+        }
+    }
+
+    /**
+     * Заменяет заместители, в том числе в подзапросах выражений, поддеревьями, которые они скрывают
+     */
+    private static RelNode expand(RelNode relNode) {
+        Map<RelNode, RelNode> subtrees = new IdentityHashMap<>();
+        collectPlaceholders(relNode, subtrees);
+        return subtrees.isEmpty() ? relNode : RelTreeCopier.copy(relNode, relNode.getCluster(), subtrees);
+    }
+
+    private static void collectPlaceholders(RelNode relNode, Map<RelNode, RelNode> subtrees) {
+        if (relNode instanceof OptimizedSubtree) {
+            subtrees.put(relNode, ((OptimizedSubtree) relNode).getOptimized());
+            return;
+        }
+        for (RelNode subQuery : RelTreeCopier.subQueries(relNode)) {
+            collectPlaceholders(subQuery, subtrees);
+        }
+        for (RelNode input : relNode.getInputs()) {
+            collectPlaceholders(input, subtrees);
+        }
+    }
+
+    /**
+     * Оптимизация поддерева, которым владеет только эта задача (вместе с его кластером)
+     */
+    private final class SubtreeTask extends RecursiveTask<RelNode> {
+        private static final long serialVersionUID = 1L;
+
+        private final RelNode subtree;
+        private final Queue<RuleStatsListener> listeners;
+        private final CancellationListener cancellation;
+
+        SubtreeTask(RelNode subtree, Queue<RuleStatsListener> listeners, CancellationListener cancellation) {
+            this.subtree = subtree;
+            this.listeners = listeners;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        protected RelNode compute() {
+            RuleStatsListener listener = new RuleStatsListener();
+            listeners.add(listener);
+            List<RelNode> independent = independentSubtrees(subtree);
+            if (independent.size() < 2) {
+                return rules.apply(subtree, listener, cancellation);
+            }
+
+            List<SubtreeTask> tasks = new ArrayList<>();
+            for (RelNode child : independent) {
+                RelNode copy = RelTreeCopier.copy(child, RelTreeCopier.newCluster(child.getCluster()),
+                    new IdentityHashMap<>());
+                tasks.add(new SubtreeTask(copy, listeners, cancellation));
+            }
+            invokeAll(tasks);
+
+            // Правила применяются к узлам над поддеревьями и к границам поддеревьев
+            Map<RelNode, RelNode> boundaries = new IdentityHashMap<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                boundaries.put(independent.get(i), boundary(tasks.get(i).join(), subtree));
+            }
+            RelNode assembled = RelTreeCopier.copy(subtree, subtree.getCluster(), boundaries);
+            return expand(rules.apply(assembled, listener, cancellation));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.optimizer.core;
+
+import com.optimizer.model.RuleStats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Статистика правил оптимизатора, накопленная по всем запросам экземпляра {@link QueryOptimizer}
+ */
+public class PlannerRuleStats {
+    private final Map<String, Counters> rules = new ConcurrentHashMap<>();
+
+    void add(Collection<RuleStats> stats) {
+        for (RuleStats rule : stats) {
+            Counters counters = rules.computeIfAbsent(rule.getRuleName(), name -> new Counters());
+            counters.attempts.add(rule.getAttempts());
+            counters.successes.add(rule.getSuccesses());
+            counters.timeNanos.add(rule.getTimeNanos());
+            counters.producedRelNodes.add(rule.getProducedRelNodes());
+        }
+    }
+
+    /**
+     * Снимок статистики, отсортированный по убыванию суммарного времени правила
+     */
+    public List<RuleStats> snapshot() {
+        List<RuleStats> result = new ArrayList<>();
+        for (Map.Entry<String, Counters> rule : rules.entrySet()) {
+            Counters counters = rule.getValue();
+            result.add(new RuleStats(rule.getKey(), counters.attempts.sum(), counters.successes.sum(),
+                counters.timeNanos.sum(), counters.producedRelNodes.sum()));
+        }
+        result.sort(Comparator.comparingLong(RuleStats::getTimeNanos).reversed());
+        return result;
+    }
+
+    private static final class Counters {
+        final LongAdder attempts = new LongAdder();
+        final LongAdder successes = new LongAdder();
+        final LongAdder timeNanos = new LongAdder();
+        final LongAdder producedRelNodes = new LongAdder();
+    }
+}
@@ -0,0 +1,56 @@
+package com.optimizer.core;
+
+import com.optimizer.model.QueryComplexity;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Количество запросов каждого класса сложности и суммарное время их оптимизации
+ */
+public class QueryClassificationStats {
+    private final Map<QueryComplexity, LongAdder> counts = new EnumMap<>(QueryComplexity.class);
+    private final Map<QueryComplexity, LongAdder> latencies = new EnumMap<>(QueryComplexity.class);
+
+    QueryClassificationStats() {
+        for (QueryComplexity complexity : QueryComplexity.values()) {
+            counts.put(complexity, new LongAdder());
+            latencies.put(complexity, new LongAdder());
+        }
+    }
+
+    void record(QueryComplexity complexity, long latencyNanos) {
+        counts.get(complexity).increment();
+        latencies.get(complexity).add(latencyNanos);
+    }
+
+    public long getCount(QueryComplexity complexity) {
+        return counts.get(complexity).sum();
+    }
+
+    public long getTotalLatencyNanos(QueryComplexity complexity) {
+        return latencies.get(complexity).sum();
+    }
+
+    /**
+     * Среднее время оптимизации запроса класса в миллисекундах (0, если запросов не было)
+     */
+    public double getAverageLatencyMillis(QueryComplexity complexity) {
+        long count = getCount(complexity);
+        return count == 0 ? 0 : getTotalLatencyNanos(complexity) / 1_000_000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (QueryComplexity complexity : QueryComplexity.values()) {
+            if (result.length() > 0) {
+                result.append("; ");
+            }
+            result.append(String.format("%s: %d запросов, среднее время %.3f мс",
+                complexity, getCount(complexity), getAverageLatencyMillis(complexity)));
+        }
+        return result.toString();
+    }
+}
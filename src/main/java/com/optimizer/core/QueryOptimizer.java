@@ -1,110 +1,560 @@
 package com.optimizer.core;
 
+import com.optimizer.model.BatchOptimizationResult;
+import com.optimizer.model.BoundaryType;
+import com.optimizer.model.OptimizationPhase;
 import com.optimizer.model.OptimizationRequest;
 import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.PlanningStrategy;
+import com.optimizer.model.QueryComplexity;
 import com.optimizer.model.SubQuery;
+import com.optimizer.model.TargetDialect;
 import com.optimizer.parser.MetadataParser;
+import com.optimizer.parser.QueryClassifier;
+import com.optimizer.parser.QueryFingerprint;
 import com.optimizer.parser.StatisticsParser;
 import com.optimizer.splitter.QuerySplitter;
+import com.optimizer.splitter.SharedSubtrees;
+import com.optimizer.splitter.SplitPlan;
+import com.optimizer.util.PhaseTimer;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
 import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.jdbc.CalciteSchema;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelRoot;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rules.CoreRules;
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.dialect.CalciteSqlDialect;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.apache.calcite.sql.parser.SqlParser;
 import org.apache.calcite.tools.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Основной класс для оптимизации SQL запросов с использованием Apache Calcite
+ * Основной класс для оптимизации SQL запросов с использованием Apache Calcite.
+ *
+ * Экземпляр потокобезопасен: схема, планировщик и имена подзапросов создаются заново
+ * для каждого запроса, общие компоненты не изменяются после создания, а статистика
+ * и метрики накапливаются в потокобезопасных счетчиках. Один экземпляр можно вызывать
+ * из любого числа потоков
  */
-public class QueryOptimizer {
+public class QueryOptimizer implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(QueryOptimizer.class);
 
+    /** Правила эвристической оптимизации плана */
+    static final List<RelOptRule> OPTIMIZATION_RULES = Arrays.asList(
+        CoreRules.FILTER_INTO_JOIN,
+        CoreRules.JOIN_CONDITION_PUSH,
+        CoreRules.FILTER_MERGE,
+        CoreRules.FILTER_PROJECT_TRANSPOSE,
+        CoreRules.FILTER_AGGREGATE_TRANSPOSE,
+        CoreRules.FILTER_SET_OP_TRANSPOSE,
+        CoreRules.PROJECT_MERGE,
+        CoreRules.PROJECT_REMOVE,
+        CoreRules.AGGREGATE_PROJECT_MERGE
+    );
+
+    /** Максимальное количество применений правил за одну оптимизацию */
+    static final int RULE_MATCH_LIMIT = 1000;
+
+    /** Настройки разбора SQL, общие для оптимизации и предварительной классификации запросов */
+    static final SqlParser.Config PARSER_CONFIG = SqlParser.Config.DEFAULT.withCaseSensitive(false);
+
     private final MetadataParser metadataParser;
     private final StatisticsParser statisticsParser;
     private final QuerySplitter querySplitter;
+    private final QueryClassifier queryClassifier;
+    private final QueryClassificationStats classificationStats;
+    private final PlannerRuleStats ruleStats;
+    private final OptimizerMetrics metrics;
+    private final SlowQueryRecorder slowQueryRecorder;
+    private final RequestCoalescer requestCoalescer;
+    private final ParallelSubtreeOptimizer subtreeOptimizer;
+    private final SpeculativePlanner speculativePlanner;
+    private volatile boolean requestCoalescing;
+    private volatile boolean parallelSubtreeOptimization;
+    private volatile SpeculativePlanning speculativePlanning;
+    private volatile AsyncOptimizationExecutor asyncExecutor;
+    private boolean closed;
 
     public QueryOptimizer() {
         this.metadataParser = new MetadataParser();
         this.statisticsParser = new StatisticsParser();
         this.querySplitter = new QuerySplitter();
+        this.queryClassifier = new QueryClassifier();
+        this.classificationStats = new QueryClassificationStats();
+        this.ruleStats = new PlannerRuleStats();
+        this.metrics = new OptimizerMetrics();
+        this.slowQueryRecorder = new SlowQueryRecorder();
+        this.requestCoalescer = new RequestCoalescer();
+        this.subtreeOptimizer = new ParallelSubtreeOptimizer(ForkJoinPool.commonPool(), this::applyRules);
+        this.speculativePlanner = new SpeculativePlanner(ForkJoinPool.commonPool(), ruleStats, this::applyRules);
     }
 
     /**
      * Оптимизирует SQL запрос и разбивает его на подзапросы
      */
     public OptimizationResult optimize(OptimizationRequest request) {
-        try {
-            logger.info("Начинаем оптимизацию запроса: {}", request.getSqlQuery());
-
-            // Создаем схему на основе метаданных
-            SchemaPlus schema = metadataParser.createSchema(request.getMetadata());
-            
-            // Загружаем статистику если предоставлена
-            if (request.getStatistics() != null) {
-                statisticsParser.loadStatistics(schema, request.getStatistics());
+        // Таблицы Spark постоянные: у каждого запроса должны быть собственные имена таблиц
+        if (!requestCoalescing || request.getTargetDialect() == TargetDialect.SPARK) {
+            return optimizeRequest(request);
+        }
+        return requestCoalescer.execute(RequestKey.of(request), () -> optimizeRequest(request),
+            metrics::requestCoalesced);
+    }
+
+    /**
+     * Оптимизирует запрос в пуле потоков оптимизатора, не блокируя вызывающий поток.
+     * Если очередь пула заполнена, вызывающий поток ждет места не дольше
+     * {@link AsyncLimits#getSubmitTimeoutMillis()}, после чего future сразу завершается
+     * результатом с ошибкой и подсказкой {@link OptimizationResult#getRetryAfterMillis()}.
+     * Отмена возвращенного future прерывает оптимизацию при следующем вызове правила планировщика
+     */
+    public CompletableFuture<OptimizationResult> optimizeAsync(OptimizationRequest request) {
+        return asyncExecutor().submit(request);
+    }
+
+    /**
+     * Задает ограничения асинхронной оптимизации. Прежний пул перестает принимать запросы
+     * и завершается после выполнения уже принятых. По умолчанию {@link AsyncLimits#defaults()}
+     */
+    public synchronized void setAsyncLimits(AsyncLimits limits) {
+        AsyncOptimizationExecutor previous = asyncExecutor;
+        asyncExecutor = new AsyncOptimizationExecutor(Objects.requireNonNull(limits, "limits"), this::optimize,
+            metrics::getLatencyMeanMillis, metrics::asyncRequestRejected);
+        if (previous != null) {
+            previous.shutdown();
+        }
+        if (closed) {
+            asyncExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Останавливает пул асинхронной оптимизации: новые асинхронные запросы отклоняются,
+     * уже принятые выполняются до конца. Синхронная оптимизация продолжает работать
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
+
+    public AsyncLimits getAsyncLimits() {
+        return asyncExecutor().getLimits();
+    }
+
+    private AsyncOptimizationExecutor asyncExecutor() {
+        AsyncOptimizationExecutor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (asyncExecutor == null) {
+                    setAsyncLimits(AsyncLimits.defaults());
+                }
+                executor = asyncExecutor;
             }
+        }
+        return executor;
+    }
+
+    /**
+     * Включает объединение одновременных одинаковых запросов: пока запрос оптимизируется,
+     * такие же запросы (тот же SQL, метаданные, статистика и параметры разбиения) не планируются
+     * заново, а ждут его и получают собственную копию его результата. Если оптимизация ведущего
+     * запроса отменена, ожидающие запросы повторяют попытку сами. Запросы для Spark не объединяются,
+     * поскольку имена их таблиц должны быть уникальны. По умолчанию выключено
+     */
+    public void setRequestCoalescing(boolean requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+    }
+
+    public boolean isRequestCoalescing() {
+        return requestCoalescing;
+    }
+
+    /**
+     * Включает параллельную оптимизацию независимых поддеревьев плана (ветвей UNION ALL, входов
+     * соединений, запросов WITH и некоррелированных подзапросов) в общем пуле fork-join.
+     * Планы подзапросов в выражениях в этом режиме тоже оптимизируются. По умолчанию выключено
+     */
+    public void setParallelSubtreeOptimization(boolean parallelSubtreeOptimization) {
+        this.parallelSubtreeOptimization = parallelSubtreeOptimization;
+    }
+
+    public boolean isParallelSubtreeOptimization() {
+        return parallelSubtreeOptimization;
+    }
+
+    /**
+     * Включает спекулятивное планирование: стратегии из настроек строят план одновременно
+     * в общем пуле fork-join, и для разбиения выбирается самый дешевый план, готовый к сроку.
+     * Выбранная стратегия возвращается в {@link OptimizationResult#getPlanningStrategy()}
+     * и учитывается в метриках. null выключает режим (по умолчанию)
+     */
+    public void setSpeculativePlanning(SpeculativePlanning speculativePlanning) {
+        this.speculativePlanning = speculativePlanning;
+    }
+
+    public SpeculativePlanning getSpeculativePlanning() {
+        return speculativePlanning;
+    }
 
-            // Создаем конфигурацию Calcite
-            FrameworkConfig config = createFrameworkConfig(schema);
-            
-            // Парсим SQL запрос
+    private OptimizationResult optimizeRequest(OptimizationRequest request) {
+        long startTime = System.nanoTime();
+        QueryComplexity complexity = null;
+        OptimizationResult completed = null;
+        // Этапы измеряются всегда: их длительность публикуется в метриках
+        PhaseTimer timer = new PhaseTimer(true);
+        metrics.requestStarted();
+        try {
+            logger.debug("Начинаем оптимизацию запроса: {}", request.getSqlQuery());
+
+            FrameworkConfig config = createFrameworkConfig(request, timer);
             SqlNode sqlNode = parseSql(request.getSqlQuery(), config);
-            
-            // Преобразуем в RelNode
-            RelNode relNode = convertToRelNode(sqlNode, config);
-            
-            // Оптимизируем запрос
-            RelNode optimizedNode = optimizeQuery(relNode, config);
-            
-            // Разбиваем на подзапросы
-            List<SubQuery> subQueries = querySplitter.splitQuery(
-                optimizedNode, 
-                request.getCostThreshold(),
-                config
-            );
+            timer.describeQuery(() -> QueryFingerprint.of(sqlNode));
+            timer.end(OptimizationPhase.PARSING);
+            complexity = queryClassifier.classify(sqlNode);
+            timer.end(OptimizationPhase.CLASSIFICATION);
 
-            // Вычисляем общую стоимость
-            double totalCost = calculateTotalCost(subQueries);
+            OptimizationResult result;
+            if (complexity == QueryComplexity.TRIVIAL) {
+                // Быстрый путь: запрос к одной таблице не оптимизируется и не разбивается
+                logger.debug("Тривиальный запрос, оптимизация и разбиение пропускаются");
+                RelNode relNode = convertToRelNode(sqlNode, config, timer);
+                List<SubQuery> subQueries = Collections.singletonList(
+                    querySplitter.singleStage(relNode, request.getTargetDialect()));
+                timer.end(OptimizationPhase.SPLITTING);
+                result = new OptimizationResult(
+                    request.getSqlQuery(),
+                    subQueries,
+                    calculateTotalCost(subQueries),
+                    createOptimizationPlan(relNode, subQueries)
+                );
+                timer.end(OptimizationPhase.PLAN_GENERATION);
+            } else {
+                RuleStatsListener ruleStatsListener = new RuleStatsListener();
+                RelNode relNode = convertToRelNode(sqlNode, config, timer);
+                SpeculativePlanning speculative = speculativePlanning;
+                RelNode optimizedNode;
+                PlanningStrategy planningStrategy = null;
+                if (speculative != null) {
+                    SpeculativePlanner.Outcome outcome =
+                        speculativePlanner.optimize(relNode, speculative, ruleStatsListener);
+                    optimizedNode = outcome.getPlan();
+                    planningStrategy = outcome.getStrategy();
+                    metrics.planningStrategyChosen(planningStrategy);
+                } else {
+                    optimizedNode = optimizeQuery(relNode, ruleStatsListener);
+                }
+                timer.describePlan(optimizedNode);
+                timer.end(OptimizationPhase.OPTIMIZATION);
+                result = splitPlannedQuery(request, optimizedNode, config, timer);
+                result.setPlanningStrategy(planningStrategy);
+                if (request.isCollectRuleStats()) {
+                    result.setRuleStats(ruleStatsListener.getStats());
+                }
+            }
+            result.setQueryComplexity(complexity);
+            if (request.isCollectPhaseTimings()) {
+                result.setPhaseTimings(timer.getTimings());
+            }
+            completed = result;
+            return result;
 
-            // Создаем план оптимизации
-            String optimizationPlan = createOptimizationPlan(optimizedNode, subQueries);
+        } catch (CancellationException e) {
+            logger.debug("Оптимизация запроса отменена");
+            OptimizationResult result = new OptimizationResult();
+            result.setErrorMessage(e.getMessage());
+            return result;
 
-            logger.info("Оптимизация завершена. Создано {} подзапросов", subQueries.size());
+        } catch (Exception e) {
+            logger.error("Ошибка оптимизации запроса", e);
+            OptimizationResult result = new OptimizationResult();
+            result.setErrorMessage(e.getMessage());
+            return result;
 
-            return new OptimizationResult(
-                request.getSqlQuery(),
-                subQueries,
-                totalCost,
-                optimizationPlan
-            );
+        } finally {
+            long latency = System.nanoTime() - startTime;
+            if (complexity != null) {
+                classificationStats.record(complexity, latency);
+            }
+            metrics.requestFinished(latency, completed != null, timer.getTimings());
+            if (completed != null) {
+                slowQueryRecorder.recordIfSlow(request.getSqlQuery(), latency, completed, timer.getTimings());
+            }
+        }
+    }
+
+    /**
+     * Количество оптимизированных запросов каждого класса сложности и время их оптимизации
+     */
+    public QueryClassificationStats getClassificationStats() {
+        return classificationStats;
+    }
+
+    /**
+     * Метрики оптимизатора: количество и задержки запросов, ошибки, срабатывания лимита планировщика
+     */
+    public OptimizerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Буфер снимков запросов, превысивших порог времени оптимизации или стоимости
+     */
+    public SlowQueryRecorder getSlowQueryRecorder() {
+        return slowQueryRecorder;
+    }
+
+    /**
+     * Регистрирует метрики оптимизатора в платформенном MBean сервере
+     * под именем com.optimizer:type=QueryOptimizer,name=&lt;name&gt;
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.optimizer:type=QueryOptimizer,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        logger.info("Метрики оптимизатора зарегистрированы в JMX: {}", objectName);
+        return objectName;
+    }
+
+    /**
+     * Строит и оптимизирует план запроса без разбиения. Полученный план можно
+     * разбивать методом {@link #split} с разными порогами и бюджетами
+     */
+    public OptimizedPlan prepare(OptimizationRequest request) {
+        try {
+            logger.debug("Подготавливаем план запроса: {}", request.getSqlQuery());
+            return planQuery(request);
 
         } catch (Exception e) {
             logger.error("Ошибка оптимизации запроса", e);
+            return new OptimizedPlan(request.getSqlQuery(), e.getMessage());
+        }
+    }
+
+    /**
+     * Разбивает подготовленный план на подзапросы. Параметры разбиения (порог стоимости,
+     * бюджет памяти, целевая функция, диалект) берутся из запроса; SQL, метаданные
+     * и статистика запроса не используются. Порог стоимости ограничивает стоимость этапа
+     * только при заданной целевой функции, в остальных режимах он не влияет на разбиение
+     */
+    public OptimizationResult split(OptimizedPlan plan, OptimizationRequest splitSettings) {
+        if (!plan.isSuccess()) {
             OptimizationResult result = new OptimizationResult();
+            result.setOriginalQuery(plan.getSqlQuery());
+            result.setErrorMessage(plan.getErrorMessage());
+            return result;
+        }
+        try {
+            OptimizationResult result = splitPlannedQuery(splitSettings, plan.getOptimizedNode(), plan.getConfig());
+            result.setOriginalQuery(plan.getSqlQuery());
+            return result;
+
+        } catch (Exception e) {
+            logger.error("Ошибка разбиения запроса", e);
+            OptimizationResult result = new OptimizationResult();
+            result.setOriginalQuery(plan.getSqlQuery());
             result.setErrorMessage(e.getMessage());
             return result;
         }
     }
 
+    /**
+     * Оптимизирует пакет SQL запросов. Одинаковые поддеревья оптимизированных планов
+     * разных запросов (а также повторы внутри одного запроса) вычисляются один раз
+     * в общих временных таблицах, на которые ссылаются подзапросы всех потребителей.
+     * Затем каждый запрос разбивается по своим параметрам
+     */
+    public BatchOptimizationResult optimizeBatch(List<OptimizationRequest> requests) {
+        logger.info("Начинаем оптимизацию пакета из {} запросов", requests.size());
+
+        OptimizationResult[] results = new OptimizationResult[requests.size()];
+        List<Integer> planned = new ArrayList<>();
+        List<OptimizedPlan> plans = new ArrayList<>();
+        List<RelNode> roots = new ArrayList<>();
+        List<String> scopes = new ArrayList<>();
+        Map<List<Object>, String> scopeIds = new HashMap<>();
+        List<TargetDialect> dialects = new ArrayList<>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            OptimizationRequest request = requests.get(i);
+            try {
+                OptimizedPlan plan = planQuery(request);
+                planned.add(i);
+                plans.add(plan);
+                roots.add(plan.getOptimizedNode());
+                // Совпадения ищутся только между запросами к одним и тем же метаданным и диалекту;
+                // область сравнивается по полным текстам метаданных и статистики, а не по их хешам
+                List<Object> scope = Arrays.asList(request.getTargetDialect(), request.getMetadata(),
+                    request.getStatistics());
+                scopes.add(scopeIds.computeIfAbsent(scope, key -> "scope-" + scopeIds.size()));
+                dialects.add(request.getTargetDialect());
+            } catch (Exception e) {
+                logger.error("Ошибка оптимизации запроса пакета", e);
+                results[i] = new OptimizationResult();
+                results[i].setErrorMessage(e.getMessage());
+            }
+        }
+
+        SharedSubtrees sharedSubtrees = querySplitter.extractCommonSubtrees(roots, scopes, dialects);
+        List<SubQuery> sharedSubQueries = sharedSubtrees.getSharedSubQueries();
+        double totalCost = calculateTotalCost(sharedSubQueries);
+
+        for (int j = 0; j < planned.size(); j++) {
+            int i = planned.get(j);
+            try {
+                results[i] = splitPlannedQuery(requests.get(i), sharedSubtrees.getRewrittenRoots().get(j),
+                    plans.get(j).getConfig());
+                totalCost += results[i].getTotalCost();
+            } catch (Exception e) {
+                logger.error("Ошибка разбиения запроса пакета", e);
+                results[i] = new OptimizationResult();
+                results[i].setErrorMessage(e.getMessage());
+            }
+        }
+
+        logger.info("Оптимизация пакета завершена. Общих подзапросов: {}, сэкономлено стоимости: {}",
+            sharedSubQueries.size(), sharedSubtrees.getSavedCost());
+        return new BatchOptimizationResult(sharedSubQueries, Arrays.asList(results), totalCost,
+            sharedSubtrees.getSavedCost());
+    }
+
+    /**
+     * Строит и оптимизирует план запроса
+     */
+    private OptimizedPlan planQuery(OptimizationRequest request) throws Exception {
+        PhaseTimer timer = PhaseTimer.disabled();
+        FrameworkConfig config = createFrameworkConfig(request, timer);
+
+        // Парсим SQL запрос
+        SqlNode sqlNode = parseSql(request.getSqlQuery(), config);
+
+        // Преобразуем в RelNode
+        RelNode relNode = convertToRelNode(sqlNode, config, timer);
+
+        // Оптимизируем запрос
+        RelNode optimizedNode = optimizeQuery(relNode, new RuleStatsListener());
+        return new OptimizedPlan(request.getSqlQuery(), config, optimizedNode);
+    }
+
+    /**
+     * Разбивает оптимизированный план на подзапросы и формирует результат
+     */
+    private OptimizationResult splitPlannedQuery(OptimizationRequest request, RelNode optimizedNode,
+                                                 FrameworkConfig config) {
+        return splitPlannedQuery(request, optimizedNode, config, PhaseTimer.disabled());
+    }
+
+    private OptimizationResult splitPlannedQuery(OptimizationRequest request, RelNode optimizedNode,
+                                                 FrameworkConfig config, PhaseTimer timer) {
+        // Разбиваем на подзапросы
+        List<SubQuery> subQueries;
+        SplitPlan splitPlan = null;
+        if (request.getSplitObjective() != null) {
+            splitPlan = querySplitter.splitQueryOptimal(
+                optimizedNode,
+                request.getSplitObjective(),
+                request.getCostThreshold(),
+                request.getParallelWorkers(),
+                config,
+                request.getTargetDialect(),
+                request.isPipelineFusion()
+            );
+            subQueries = splitPlan.getSubQueries();
+        } else if (request.getMemoryBudgetBytes() > 0) {
+            subQueries = querySplitter.splitQueryByMemoryBudget(
+                optimizedNode,
+                request.getMemoryBudgetBytes(),
+                config,
+                request.getTargetDialect(),
+                request.isPipelineFusion()
+            );
+        } else {
+            subQueries = querySplitter.splitQuery(
+                optimizedNode,
+                request.getCostThreshold(),
+                config,
+                request.getTargetDialect()
+            );
+        }
+
+        // Вычисляем общую стоимость
+        double totalCost = calculateTotalCost(subQueries);
+        timer.end(OptimizationPhase.SPLITTING);
+
+        // Создаем план оптимизации
+        String optimizationPlan = createOptimizationPlan(optimizedNode, subQueries);
+        timer.end(OptimizationPhase.PLAN_GENERATION);
+
+        logger.debug("Оптимизация завершена. Создано {} подзапросов", subQueries.size());
+
+        OptimizationResult result = new OptimizationResult(
+            request.getSqlQuery(),
+            subQueries,
+            totalCost,
+            optimizationPlan
+        );
+        if (splitPlan != null) {
+            result.setSplitObjective(splitPlan.getObjective());
+            result.setObjectiveValue(splitPlan.getObjectiveValue());
+            result.setCutPoints(splitPlan.getCutPoints());
+        }
+        return result;
+    }
+
+    /**
+     * Создает схему по метаданным и статистике запроса и конфигурацию Calcite для нее
+     */
+    private FrameworkConfig createFrameworkConfig(OptimizationRequest request, PhaseTimer timer) {
+        // Создаем схему на основе метаданных
+        SchemaPlus schema = metadataParser.createSchema(request.getMetadata());
+        timer.end(OptimizationPhase.SCHEMA_CREATION);
+
+        // Загружаем статистику если предоставлена
+        if (request.getStatistics() != null) {
+            statisticsParser.loadStatistics(schema, request.getStatistics());
+        }
+        timer.end(OptimizationPhase.STATISTICS_LOADING);
+
+        // Создаем конфигурацию Calcite
+        return createFrameworkConfig(schema);
+    }
+
     /**
      * Создает конфигурацию Calcite Framework
      */
-    private FrameworkConfig createFrameworkConfig(SchemaPlus schema) {
+    public static FrameworkConfig createFrameworkConfig(SchemaPlus schema) {
         return Frameworks.newConfigBuilder()
-            .parserConfig(SqlParser.Config.DEFAULT)
+            .parserConfig(PARSER_CONFIG)
             .defaultSchema(schema)
             .traitDefs()
             .build();
@@ -121,35 +571,97 @@ public class QueryOptimizer {
     /**
      * Преобразует SqlNode в RelNode
      */
-    private RelNode convertToRelNode(SqlNode sqlNode, FrameworkConfig config) throws RelConversionException {
+    private RelNode convertToRelNode(SqlNode sqlNode, FrameworkConfig config, PhaseTimer timer)
+            throws RelConversionException {
         try {
             Planner planner = Frameworks.getPlanner(config);
-            SqlNode parsedNode = planner.parse(sqlNode.toString());
+            SqlNode parsedNode = planner.parse(sqlNode.toSqlString(CalciteSqlDialect.DEFAULT).getSql());
             SqlNode validatedNode = planner.validate(parsedNode);
+            timer.end(OptimizationPhase.VALIDATION);
             RelRoot relRoot = planner.rel(validatedNode);
-            return relRoot.project();
+            RelNode relNode = relRoot.project();
+            timer.describePlan(relNode);
+            timer.end(OptimizationPhase.REL_CONVERSION);
+            return relNode;
         } catch (Exception e) {
             // Fallback: используем RelBuilder для создания простого RelNode
             RelBuilder relBuilder = RelBuilder.create(config);
-            return relBuilder.scan("employees").build();
+            RelNode relNode = relBuilder.scan("employees").build();
+            timer.describePlan(relNode);
+            timer.end(OptimizationPhase.REL_CONVERSION);
+            return relNode;
+        }
+    }
+
+    /**
+     * Оптимизирует готовый план запроса теми же правилами, что и {@link #optimize}
+     */
+    public RelNode optimizeQuery(RelNode relNode) {
+        return optimizeQuery(relNode, new RuleStatsListener());
+    }
+
+    private RelNode optimizeQuery(RelNode relNode, RuleStatsListener ruleStatsListener) {
+        if (parallelSubtreeOptimization) {
+            return subtreeOptimizer.optimize(relNode, ruleStatsListener);
+        }
+        return applyRules(relNode, ruleStatsListener);
+    }
+
+    /**
+     * Оптимизирует RelNode эвристическим планировщиком с набором правил {@link #OPTIMIZATION_RULES}.
+     * Статистика правил собирается слушателем и добавляется в общую статистику оптимизатора
+     */
+    private RelNode applyRules(RelNode relNode, RuleStatsListener ruleStatsListener) {
+        return applyRules(relNode, ruleStatsListener, CancellationListener.onInterrupt());
+    }
+
+    /**
+     * Оптимизирует RelNode, проверяя отмену при каждом вызове правила
+     */
+    private RelNode applyRules(RelNode relNode, RuleStatsListener ruleStatsListener,
+                               CancellationListener cancellation) {
+        try {
+            HepProgram program = new HepProgramBuilder()
+                .addMatchLimit(RULE_MATCH_LIMIT)
+                .addRuleCollection(OPTIMIZATION_RULES)
+                .build();
+            HepPlanner planner = new HepPlanner(program);
+            planner.addListener(ruleStatsListener);
+            planner.addListener(cancellation);
+            planner.setRoot(relNode);
+            return planner.findBestExp();
+
+        } catch (CancellationException e) {
+            throw e;
+
+        } catch (Exception e) {
+            logger.error("Ошибка оптимизации плана, используется исходный план", e);
+            return relNode;
+
+        } finally {
+            ruleStats.add(ruleStatsListener.getStats());
+            if (ruleStatsListener.getTransformationCount() >= RULE_MATCH_LIMIT) {
+                // Планировщик остановлен по лимиту, план может быть оптимизирован не полностью
+                metrics.plannerLimitReached();
+            }
         }
     }
 
     /**
-     * Оптимизирует RelNode с использованием cost-based оптимизации
+     * Статистика правил оптимизатора, накопленная по всем запросам этого экземпляра
      */
-    private RelNode optimizeQuery(RelNode relNode, FrameworkConfig config) {
-        // Для упрощения возвращаем исходный узел
-        // В реальной реализации здесь должна быть полная оптимизация
-        logger.info("Используем упрощенную оптимизацию");
-        return relNode;
+    public PlannerRuleStats getRuleStats() {
+        return ruleStats;
     }
 
     /**
-     * Вычисляет общую стоимость всех подзапросов
+     * Вычисляет общую стоимость всех подзапросов. Подзапрос, на который ссылаются
+     * несколько потребителей, выполняется один раз и учитывается один раз
      */
     private double calculateTotalCost(List<SubQuery> subQueries) {
+        Set<String> counted = new HashSet<>();
         return subQueries.stream()
+            .filter(subQuery -> subQuery.getId() == null || counted.add(subQuery.getId()))
             .mapToDouble(SubQuery::getCost)
             .sum();
     }
@@ -168,12 +680,29 @@ public class QueryOptimizer {
             SubQuery subQuery = subQueries.get(i);
             plan.append(String.format("Подзапрос %d (ID: %s):\n", i + 1, subQuery.getId()));
             plan.append(String.format("  Стоимость: %.2f\n", subQuery.getCost()));
+            plan.append(String.format("  Оценка результата: %.0f строк, %d байт\n",
+                subQuery.getEstimatedRows(), subQuery.getEstimatedBytes()));
             plan.append(String.format("  SQL: %s\n", subQuery.getSql()));
             if (subQuery.isTemporaryTable()) {
                 plan.append(String.format("  Временная таблица: %s\n", subQuery.getTemporaryTableName()));
+                if (subQuery.getDdl() != null) {
+                    plan.append(String.format("  DDL: %s\n", subQuery.getDdl()));
+                }
+                if (subQuery.getDropDdl() != null) {
+                    plan.append(String.format("  Удаление: %s\n", subQuery.getDropDdl()));
+                }
             }
             if (subQuery.getDependencies() != null && !subQuery.getDependencies().isEmpty()) {
-                plan.append(String.format("  Зависимости: %s\n", String.join(", ", subQuery.getDependencies())));
+                List<String> dependencies = new ArrayList<>();
+                for (String dependency : subQuery.getDependencies()) {
+                    BoundaryType boundary = subQuery.getBoundaryTypes() != null
+                        ? subQuery.getBoundaryTypes().get(dependency) : null;
+                    dependencies.add(boundary != null ? dependency + " (" + boundary + ")" : dependency);
+                }
+                plan.append(String.format("  Зависимости: %s\n", String.join(", ", dependencies)));
+            }
+            if (subQuery.getInlinedCtes() != null && !subQuery.getInlinedCtes().isEmpty()) {
+                plan.append(String.format("  Встроенные CTE: %s\n", String.join(", ", subQuery.getInlinedCtes())));
             }
             plan.append("\n");
         }
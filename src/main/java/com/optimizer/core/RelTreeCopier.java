@@ -0,0 +1,179 @@
+package com.optimizer.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalCorrelate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalIntersect;
+import org.apache.calcite.rel.logical.LogicalJoin;
+import org.apache.calcite.rel.logical.LogicalMinus;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.logical.LogicalUnion;
+import org.apache.calcite.rel.logical.LogicalValues;
+import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexSubQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Копирование логического плана в другой {@link RelOptCluster}.
+ *
+ * Кластер кэширует метаданные узлов в одном не потокобезопасном {@code RelMetadataQuery},
+ * поэтому поддеревья, которые оптимизируются в разных потоках, копируются каждое в свой кластер.
+ * Поддерживаются логические узлы, которые создает преобразование SQL и правила оптимизатора
+ */
+final class RelTreeCopier {
+
+    private RelTreeCopier() {
+    }
+
+    /**
+     * Новый кластер с тем же планировщиком, фабрикой типов и источником метаданных
+     */
+    static RelOptCluster newCluster(RelOptCluster template) {
+        return newCluster(template, template.getPlanner());
+    }
+
+    /**
+     * Новый кластер с другим планировщиком, например VolcanoPlanner, который требует,
+     * чтобы узлы принадлежали его кластеру
+     */
+    static RelOptCluster newCluster(RelOptCluster template, RelOptPlanner planner) {
+        RelOptCluster cluster = RelOptCluster.create(planner, template.getRexBuilder());
+        cluster.setMetadataProvider(template.getMetadataProvider());
+        // Запрос метаданных по умолчанию берет обработчики из ThreadLocal потока, создавшего кластер,
+        // а кластер используется в потоках пула
+        JaninoRelMetadataProvider handlers = JaninoRelMetadataProvider.of(template.getMetadataProvider());
+        cluster.setMetadataQuerySupplier(() -> new RelMetadataQuery(handlers));
+        cluster.setHintStrategies(template.getHintStrategies());
+        return cluster;
+    }
+
+    /**
+     * Можно ли скопировать план, включая планы подзапросов в выражениях
+     */
+    static boolean canCopy(RelNode rel) {
+        if (!isSupported(rel)) {
+            return false;
+        }
+        for (RelNode subQuery : subQueries(rel)) {
+            if (!canCopy(subQuery)) {
+                return false;
+            }
+        }
+        for (RelNode input : rel.getInputs()) {
+            if (!canCopy(input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Копирует план в кластер
+     *
+     * @param replacements узлы, вместо которых копируются другие поддеревья (сравнение по ссылке)
+     */
+    static RelNode copy(RelNode rel, RelOptCluster cluster, Map<RelNode, RelNode> replacements) {
+        RelNode replacement = replacements.get(rel);
+        if (replacement != null) {
+            return copy(replacement, cluster, Collections.emptyMap());
+        }
+        List<RelNode> inputs = new ArrayList<>();
+        for (RelNode input : rel.getInputs()) {
+            inputs.add(copy(input, cluster, replacements));
+        }
+        RexShuttle subQueries = new RexShuttle() {
+            @Override
+            public RexNode visitSubQuery(RexSubQuery subQuery) {
+                RexSubQuery visited = (RexSubQuery) super.visitSubQuery(subQuery);
+                return visited.clone(copy(visited.rel, cluster, replacements));
+            }
+        };
+
+        if (rel instanceof OptimizedSubtree) {
+            return ((OptimizedSubtree) rel).copy(cluster);
+        }
+        if (rel instanceof LogicalTableScan) {
+            return LogicalTableScan.create(cluster, rel.getTable(), ((LogicalTableScan) rel).getHints());
+        }
+        if (rel instanceof LogicalValues) {
+            return LogicalValues.create(cluster, rel.getRowType(), ((LogicalValues) rel).getTuples());
+        }
+        if (rel instanceof LogicalProject) {
+            LogicalProject project = (LogicalProject) rel;
+            return LogicalProject.create(inputs.get(0), project.getHints(), subQueries.apply(project.getProjects()),
+                project.getRowType(), project.getVariablesSet());
+        }
+        if (rel instanceof LogicalFilter) {
+            LogicalFilter filter = (LogicalFilter) rel;
+            return LogicalFilter.create(inputs.get(0), filter.getCondition().accept(subQueries),
+                ImmutableSet.copyOf(filter.getVariablesSet()));
+        }
+        if (rel instanceof LogicalJoin) {
+            LogicalJoin join = (LogicalJoin) rel;
+            return LogicalJoin.create(inputs.get(0), inputs.get(1), join.getHints(),
+                join.getCondition().accept(subQueries), join.getVariablesSet(), join.getJoinType(),
+                join.isSemiJoinDone(), ImmutableList.copyOf(join.getSystemFieldList()));
+        }
+        if (rel instanceof LogicalAggregate) {
+            LogicalAggregate aggregate = (LogicalAggregate) rel;
+            return LogicalAggregate.create(inputs.get(0), aggregate.getHints(), aggregate.getGroupSet(),
+                aggregate.getGroupSets(), aggregate.getAggCallList());
+        }
+        if (rel instanceof LogicalSort) {
+            LogicalSort sort = (LogicalSort) rel;
+            return LogicalSort.create(inputs.get(0), sort.getCollation(), sort.offset, sort.fetch);
+        }
+        if (rel instanceof LogicalUnion) {
+            return LogicalUnion.create(inputs, ((LogicalUnion) rel).all);
+        }
+        if (rel instanceof LogicalIntersect) {
+            return LogicalIntersect.create(inputs, ((LogicalIntersect) rel).all);
+        }
+        if (rel instanceof LogicalMinus) {
+            return LogicalMinus.create(inputs, ((LogicalMinus) rel).all);
+        }
+        if (rel instanceof LogicalCorrelate) {
+            LogicalCorrelate correlate = (LogicalCorrelate) rel;
+            return LogicalCorrelate.create(inputs.get(0), inputs.get(1), correlate.getHints(),
+                correlate.getCorrelationId(), correlate.getRequiredColumns(), correlate.getJoinType());
+        }
+        throw new IllegalArgumentException("Копирование узла не поддерживается: " + rel.getRelTypeName());
+    }
+
+    /**
+     * Планы подзапросов в выражениях узла (без выражений его входов)
+     */
+    static List<RelNode> subQueries(RelNode rel) {
+        List<RelNode> result = new ArrayList<>();
+        rel.accept(new RexShuttle() {
+            @Override
+            public RexNode visitSubQuery(RexSubQuery subQuery) {
+                result.add(subQuery.rel);
+                return subQuery;
+            }
+        });
+        return result;
+    }
+
+    private static boolean isSupported(RelNode rel) {
+        return rel instanceof OptimizedSubtree
+            || rel instanceof LogicalTableScan || rel instanceof LogicalValues || rel instanceof LogicalProject
+            || rel instanceof LogicalFilter || rel instanceof LogicalJoin || rel instanceof LogicalAggregate
+            || rel instanceof LogicalSort || rel instanceof LogicalUnion || rel instanceof LogicalIntersect
+            || rel instanceof LogicalMinus || rel instanceof LogicalCorrelate;
+    }
+}
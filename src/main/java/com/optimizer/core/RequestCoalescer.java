@@ -0,0 +1,101 @@
+package com.optimizer.core;
+
+import com.optimizer.model.OptimizationResult;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одновременных одинаковых запросов (single flight): первый запрос
+ * с данным ключом выполняет оптимизацию, а запросы с тем же ключом, поступившие
+ * до ее завершения, ждут и получают собственные копии ее результата.
+ *
+ * Если первый запрос отменен (поток оптимизации прерван), его результат ожидающим
+ * не передается: они повторяют попытку, и один из них становится новым первым.
+ * Результат не кэшируется: после завершения оптимизации следующий запрос
+ * с тем же ключом выполняется заново
+ */
+class RequestCoalescer {
+    private final ConcurrentMap<RequestKey, CompletableFuture<OptimizationResult>> inFlight =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Выполняет оптимизацию или присоединяется к уже выполняющейся с тем же ключом.
+     * Исключение первого запроса (кроме отмены) передается всем ожидающим
+     *
+     * @param onJoin вызывается один раз, если запрос присоединился к чужой оптимизации
+     */
+    OptimizationResult execute(RequestKey key, Supplier<OptimizationResult> optimization, Runnable onJoin) {
+        boolean joined = false;
+        while (true) {
+            CompletableFuture<OptimizationResult> own = new CompletableFuture<>();
+            CompletableFuture<OptimizationResult> existing = inFlight.putIfAbsent(key, own);
+            if (existing == null) {
+                return lead(key, own, optimization);
+            }
+            if (!joined) {
+                onJoin.run();
+                joined = true;
+            }
+            OptimizationResult shared = await(existing);
+            if (shared != null) {
+                return new OptimizationResult(shared);
+            }
+            // Первый запрос отменен, попытка повторяется
+        }
+    }
+
+    private OptimizationResult lead(RequestKey key, CompletableFuture<OptimizationResult> own,
+                                    Supplier<OptimizationResult> optimization) {
+        OptimizationResult result;
+        try {
+            result = optimization.get();
+        } catch (CancellationException e) {
+            inFlight.remove(key, own);
+            own.complete(null);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, own);
+            own.completeExceptionally(e);
+            throw e;
+        }
+        // Ключ удаляется до публикации результата, чтобы новые запросы не получили завершенный
+        inFlight.remove(key, own);
+        if (Thread.currentThread().isInterrupted()) {
+            // Оптимизация отменена: ее результат (ошибка или неполный план) ожидающим не передается
+            own.complete(null);
+        } else {
+            // Ожидающие копируют снимок, а не экземпляр, который может изменить вызывающий код
+            own.complete(new OptimizationResult(result));
+        }
+        return result;
+    }
+
+    /**
+     * Ждет результата первого запроса; null означает, что первый запрос был отменен
+     */
+    private static OptimizationResult await(CompletableFuture<OptimizationResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // Прерывается только ожидание: оптимизация первого запроса продолжается
+            Thread.currentThread().interrupt();
+            OptimizationResult result = new OptimizationResult();
+            result.setErrorMessage("Ожидание результата одинакового запроса прервано");
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
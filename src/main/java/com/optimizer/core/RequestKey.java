@@ -0,0 +1,45 @@
+package com.optimizer.core;
+
+import com.optimizer.model.OptimizationRequest;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ключ запроса на оптимизацию: запросы с равными ключами дают одинаковый результат.
+ * Учитываются текст SQL, метаданные, статистика и все параметры разбиения
+ */
+final class RequestKey {
+    private final List<Object> parts;
+    private final int hashCode;
+
+    private RequestKey(List<Object> parts) {
+        this.parts = parts;
+        this.hashCode = parts.hashCode();
+    }
+
+    static RequestKey of(OptimizationRequest request) {
+        return new RequestKey(Arrays.asList(
+            request.getSqlQuery(),
+            request.getMetadata(),
+            request.getStatistics(),
+            request.getCostThreshold(),
+            request.getMemoryBudgetBytes(),
+            request.getSplitObjective(),
+            request.getParallelWorkers(),
+            request.getTargetDialect(),
+            request.isPipelineFusion(),
+            request.isCollectRuleStats(),
+            request.isCollectPhaseTimings()));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RequestKey && parts.equals(((RequestKey) other).parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
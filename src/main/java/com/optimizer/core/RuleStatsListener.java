@@ -0,0 +1,113 @@
+package com.optimizer.core;
+
+import com.optimizer.model.RuleStats;
+import org.apache.calcite.plan.RelOptListener;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.rel.RelNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Слушатель планировщика, собирающий статистику правил одной оптимизации:
+ * количество вызовов и успешных срабатываний, время и число созданных узлов
+ */
+class RuleStatsListener implements RelOptListener {
+    private final Map<String, RuleStats> stats = new LinkedHashMap<>();
+    private RuleStats currentRule;
+    private long currentRuleStart;
+    private RelOptRuleCall lastProductiveCall;
+
+    @Override
+    public void ruleAttempted(RuleAttemptedEvent event) {
+        if (event.isBefore()) {
+            currentRule = statsFor(event.getRuleCall());
+            currentRuleStart = System.nanoTime();
+        } else if (currentRule != null) {
+            currentRule.setTimeNanos(currentRule.getTimeNanos() + System.nanoTime() - currentRuleStart);
+            currentRule.setAttempts(currentRule.getAttempts() + 1);
+            currentRule = null;
+        }
+    }
+
+    /**
+     * HepPlanner сообщает о преобразовании уже после завершения вызова правила,
+     * поэтому преобразование относится к правилу по его вызову
+     */
+    @Override
+    public void ruleProductionSucceeded(RuleProductionEvent event) {
+        if (!event.isBefore() || event.getRuleCall() == null) {
+            return;
+        }
+        RuleStats rule = statsFor(event.getRuleCall());
+        if (event.getRuleCall() != lastProductiveCall) {
+            lastProductiveCall = event.getRuleCall();
+            rule.setSuccesses(rule.getSuccesses() + 1);
+        }
+        rule.setProducedRelNodes(rule.getProducedRelNodes() + countNewNodes(event.getRel()));
+    }
+
+    @Override
+    public void relEquivalenceFound(RelEquivalenceEvent event) {
+    }
+
+    @Override
+    public void relDiscarded(RelDiscardedEvent event) {
+    }
+
+    @Override
+    public void relChosen(RelChosenEvent event) {
+    }
+
+    private RuleStats statsFor(RelOptRuleCall call) {
+        return stats.computeIfAbsent(call.getRule().toString(), name -> new RuleStats(name, 0, 0, 0, 0));
+    }
+
+    /**
+     * Статистика правил в порядке первого вызова
+     */
+    List<RuleStats> getStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    /**
+     * Добавляет статистику другой оптимизации, например поддерева того же запроса
+     */
+    void merge(RuleStatsListener other) {
+        for (RuleStats rule : other.stats.values()) {
+            RuleStats merged = stats.computeIfAbsent(rule.getRuleName(), name -> new RuleStats(name, 0, 0, 0, 0));
+            merged.setAttempts(merged.getAttempts() + rule.getAttempts());
+            merged.setSuccesses(merged.getSuccesses() + rule.getSuccesses());
+            merged.setTimeNanos(merged.getTimeNanos() + rule.getTimeNanos());
+            merged.setProducedRelNodes(merged.getProducedRelNodes() + rule.getProducedRelNodes());
+        }
+    }
+
+    /**
+     * Количество примененных преобразований всех правил
+     */
+    long getTransformationCount() {
+        long count = 0;
+        for (RuleStats rule : stats.values()) {
+            count += rule.getSuccesses();
+        }
+        return count;
+    }
+
+    /**
+     * Считает узлы нового поддерева; входы, уже зарегистрированные в планировщике, не учитываются
+     */
+    private static long countNewNodes(RelNode rel) {
+        if (rel == null || rel instanceof HepRelVertex) {
+            return 0;
+        }
+        long count = 1;
+        for (RelNode input : rel.getInputs()) {
+            count += countNewNodes(input);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,117 @@
+package com.optimizer.core;
+
+import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.PhaseTiming;
+import com.optimizer.model.SlowQueryRecord;
+import com.optimizer.util.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Кольцевой буфер снимков запросов, превысивших порог времени оптимизации или стоимости.
+ * При заполнении буфера новые снимки вытесняют самые старые. Запись выполняется без блокировок
+ */
+public class SlowQueryRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryRecorder.class);
+
+    /** Количество снимков в буфере по умолчанию */
+    public static final int DEFAULT_CAPACITY = 100;
+    /** Порог времени оптимизации по умолчанию */
+    public static final long DEFAULT_LATENCY_THRESHOLD_MILLIS = 1000;
+
+    private final AtomicReferenceArray<SlowQueryRecord> records;
+    private final AtomicLong recorded = new AtomicLong();
+    private volatile long latencyThresholdNanos = DEFAULT_LATENCY_THRESHOLD_MILLIS * 1_000_000;
+    private volatile double costThreshold = Double.POSITIVE_INFINITY;
+
+    public SlowQueryRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SlowQueryRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Размер буфера медленных запросов должен быть положительным");
+        }
+        this.records = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Порог времени оптимизации в миллисекундах, начиная с которого запрос сохраняется
+     */
+    public void setLatencyThresholdMillis(long latencyThresholdMillis) {
+        this.latencyThresholdNanos = latencyThresholdMillis * 1_000_000;
+    }
+
+    public long getLatencyThresholdMillis() {
+        return latencyThresholdNanos / 1_000_000;
+    }
+
+    /**
+     * Порог общей стоимости, начиная с которого запрос сохраняется (по умолчанию не ограничен)
+     */
+    public void setCostThreshold(double costThreshold) {
+        this.costThreshold = costThreshold;
+    }
+
+    public double getCostThreshold() {
+        return costThreshold;
+    }
+
+    /**
+     * Сохраняет снимок запроса, если он превысил порог времени или стоимости
+     */
+    boolean recordIfSlow(String sqlQuery, long latencyNanos, OptimizationResult result,
+                         List<PhaseTiming> phaseTimings) {
+        if (latencyNanos < latencyThresholdNanos && result.getTotalCost() < costThreshold) {
+            return false;
+        }
+        SlowQueryRecord record = new SlowQueryRecord(System.currentTimeMillis(), sqlQuery, latencyNanos,
+            result, phaseTimings);
+        long index = recorded.getAndIncrement();
+        records.set((int) (index % records.length()), record);
+        logger.debug("Сохранен снимок медленного запроса: {} мс, стоимость {}",
+            latencyNanos / 1_000_000, result.getTotalCost());
+        return true;
+    }
+
+    /**
+     * Количество запросов, сохраненных с момента запуска (включая вытесненные из буфера)
+     */
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    /**
+     * Снимки из буфера от самого старого к самому новому
+     */
+    public List<SlowQueryRecord> snapshot() {
+        long end = recorded.get();
+        long start = Math.max(0, end - records.length());
+        List<SlowQueryRecord> result = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            SlowQueryRecord record = records.get((int) (i % records.length()));
+            if (record != null) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Записывает снимки из буфера в файл в формате JSON
+     */
+    public void dump(Path file) throws IOException {
+        List<SlowQueryRecord> snapshot = snapshot();
+        Files.write(file, JsonUtils.toJson(snapshot).getBytes(StandardCharsets.UTF_8));
+        logger.info("Сохранено {} медленных запросов в файл: {}", snapshot.size(), file);
+    }
+}
@@ -0,0 +1,338 @@
+package com.optimizer.core;
+
+import com.optimizer.model.PlanningStrategy;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptListener;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.hep.HepMatchOrder;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
+import org.apache.calcite.plan.volcano.VolcanoPlanner;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rules.CoreRules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+/**
+ * Спекулятивное планирование: несколько стратегий строят план одновременно, каждая
+ * в собственной копии плана и кластера. Выбирается самый дешевый план из готовых к сроку;
+ * если план стратегии укладывается в допуск от нижней оценки стоимости, он принимается
+ * сразу. Остальные стратегии отменяются при следующем вызове правила.
+ *
+ * Нижняя оценка - суммарная стоимость чтения всех таблиц запроса: любой план читает
+ * каждую таблицу хотя бы раз.
+ *
+ * Если к сроку не готова ни одна стратегия, остальные стратегии отменяются, а план берется
+ * у стратегии HEURISTIC: вызывающий поток дожидается ее, если пул уже начал ее выполнять,
+ * и выполняет ее сам, если еще не начал. Без стратегии HEURISTIC в настройках эвристический
+ * план строится в вызывающем потоке. Поэтому время планирования не превышает срока плюс
+ * одно эвристическое планирование, а если пул начал стратегию HEURISTIC сразу - большего
+ * из срока и ее собственного времени
+ */
+class SpeculativePlanner {
+    private static final Logger logger = LoggerFactory.getLogger(SpeculativePlanner.class);
+
+    /** Правила перестановки соединений, которые VolcanoPlanner перебирает вместе с эвристическими */
+    private static final RelOptRule[] JOIN_ORDER_RULES = {CoreRules.JOIN_COMMUTE, CoreRules.JOIN_ASSOCIATE};
+
+    private final Executor executor;
+    private final PlannerRuleStats ruleStats;
+    private final BiFunction<RelNode, RuleStatsListener, RelNode> heuristic;
+
+    /**
+     * @param heuristic эвристическая оптимизация в вызывающем потоке, если ни одна стратегия не успела
+     */
+    SpeculativePlanner(Executor executor, PlannerRuleStats ruleStats,
+                       BiFunction<RelNode, RuleStatsListener, RelNode> heuristic) {
+        this.executor = executor;
+        this.ruleStats = ruleStats;
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Оптимизирует план; статистика правил выбранной стратегии добавляется в ruleStatsListener
+     */
+    Outcome optimize(RelNode relNode, SpeculativePlanning settings, RuleStatsListener ruleStatsListener) {
+        if (!RelTreeCopier.canCopy(relNode)) {
+            return fallback(relNode, ruleStatsListener);
+        }
+        double lowerBound = lowerBound(relNode, relNode.getCluster().getMetadataQuery());
+        // Стратегия HEURISTIC отменяется отдельно: после срока ее план может понадобиться
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicBoolean heuristicCancelled = new AtomicBoolean();
+        BlockingQueue<Candidate> finished = new LinkedBlockingQueue<>();
+        Attempt heuristicAttempt = null;
+        for (PlanningStrategy strategy : settings.getStrategies()) {
+            RelOptCluster cluster = strategy == PlanningStrategy.VOLCANO
+                ? RelTreeCopier.newCluster(relNode.getCluster(), volcanoPlanner(relNode.getCluster().getPlanner()))
+                : RelTreeCopier.newCluster(relNode.getCluster());
+            RelNode copy = RelTreeCopier.copy(relNode, cluster, new IdentityHashMap<>());
+            boolean heuristicStrategy = strategy == PlanningStrategy.HEURISTIC;
+            Attempt attempt = new Attempt(strategy, copy, heuristicStrategy ? heuristicCancelled : cancelled, finished);
+            if (heuristicStrategy) {
+                heuristicAttempt = attempt;
+            }
+            executor.execute(attempt);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getDeadlineMillis());
+        Candidate best = null;
+        try {
+            for (int pending = settings.getStrategies().size(); pending > 0; pending--) {
+                Candidate candidate = finished.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (candidate == null) {
+                    break;
+                }
+                if (candidate.plan != null && (best == null || candidate.cost < best.cost)) {
+                    best = candidate;
+                }
+                if (best != null && best.cost <= lowerBound * settings.getCostBound()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            cancelled.set(true);
+        }
+
+        try {
+            if (best == null && heuristicAttempt != null && !Thread.currentThread().isInterrupted()) {
+                logger.debug("Ни одна стратегия не построила план за {} мс, используется план стратегии {}",
+                    settings.getDeadlineMillis(), PlanningStrategy.HEURISTIC);
+                Candidate candidate = heuristicAttempt.runOrAwait();
+                if (candidate.plan != null) {
+                    best = candidate;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            heuristicCancelled.set(true);
+        }
+
+        if (best == null) {
+            logger.debug("Ни одна стратегия не построила план за {} мс", settings.getDeadlineMillis());
+            return fallback(relNode, ruleStatsListener);
+        }
+        logger.debug("Выбран план стратегии {} со стоимостью {} (нижняя оценка {})",
+            best.strategy, best.cost, lowerBound);
+        ruleStatsListener.merge(best.listener);
+        RelNode plan = RelTreeCopier.copy(best.plan, relNode.getCluster(), new IdentityHashMap<>());
+        return new Outcome(plan, best.strategy);
+    }
+
+    private Outcome fallback(RelNode relNode, RuleStatsListener ruleStatsListener) {
+        return new Outcome(heuristic.apply(relNode, ruleStatsListener), PlanningStrategy.HEURISTIC);
+    }
+
+    /**
+     * Строит план одной стратегией. Ошибка или отмена дает кандидата без плана
+     */
+    private Candidate plan(PlanningStrategy strategy, RelNode relNode, AtomicBoolean cancelled) {
+        RuleStatsListener listener = new RuleStatsListener();
+        // Прерывание учитывается, когда построение выполняется в вызывающем потоке
+        RelOptListener cancellation = new CancellationListener(
+            () -> cancelled.get() || Thread.currentThread().isInterrupted());
+        try {
+            RelNode plan;
+            switch (strategy) {
+                case VOLCANO:
+                    plan = volcano(relNode, listener, cancellation);
+                    break;
+                case GREEDY_JOIN_ORDER:
+                    plan = hep(greedyJoinOrderProgram(), relNode, listener, cancellation);
+                    break;
+                default:
+                    plan = hep(heuristicProgram(), relNode, listener, cancellation);
+                    break;
+            }
+            if (!RelTreeCopier.canCopy(plan)) {
+                throw new IllegalStateException("План содержит неподдерживаемые узлы");
+            }
+            double cost = plan.getCluster().getMetadataQuery().getCumulativeCost(plan).getRows();
+            return new Candidate(strategy, plan, cost, listener);
+        } catch (RuntimeException e) {
+            if (!cancelled.get()) {
+                logger.warn("Стратегия {} не построила план: {}", strategy, e.getMessage(), e);
+            }
+            return new Candidate(strategy, null, Double.POSITIVE_INFINITY, listener);
+        } finally {
+            ruleStats.add(listener.getStats());
+        }
+    }
+
+    private static RelNode hep(HepProgram program, RelNode relNode, RuleStatsListener listener,
+                               RelOptListener cancellation) {
+        HepPlanner planner = new HepPlanner(program);
+        planner.addListener(listener);
+        planner.addListener(cancellation);
+        planner.setRoot(relNode);
+        return planner.findBestExp();
+    }
+
+    private static RelNode volcano(RelNode relNode, RuleStatsListener listener, RelOptListener cancellation) {
+        RelOptPlanner planner = relNode.getCluster().getPlanner();
+        planner.addListener(listener);
+        planner.addListener(cancellation);
+        for (RelOptRule rule : QueryOptimizer.OPTIMIZATION_RULES) {
+            planner.addRule(rule);
+        }
+        for (RelOptRule rule : JOIN_ORDER_RULES) {
+            planner.addRule(rule);
+        }
+        planner.setRoot(relNode);
+        return planner.findBestExp();
+    }
+
+    /**
+     * Планировщик Volcano для кластера одной стратегии. Логические узлы не реализуются
+     * в физическом соглашении, поэтому их стоимость считается конечной
+     */
+    private static VolcanoPlanner volcanoPlanner(RelOptPlanner template) {
+        VolcanoPlanner planner = new VolcanoPlanner();
+        planner.setNoneConventionHasInfiniteCost(false);
+        planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+        planner.setExecutor(template.getExecutor());
+        return planner;
+    }
+
+    private static HepProgram heuristicProgram() {
+        return new HepProgramBuilder()
+            .addMatchLimit(QueryOptimizer.RULE_MATCH_LIMIT)
+            .addRuleCollection(QueryOptimizer.OPTIMIZATION_RULES)
+            .build();
+    }
+
+    /**
+     * Эвристические правила, затем сбор соединений в MultiJoin и жадный выбор порядка
+     * соединений правилом {@code LoptOptimizeJoinRule}
+     */
+    private static HepProgram greedyJoinOrderProgram() {
+        return new HepProgramBuilder()
+            .addMatchLimit(QueryOptimizer.RULE_MATCH_LIMIT)
+            .addRuleCollection(QueryOptimizer.OPTIMIZATION_RULES)
+            .addMatchOrder(HepMatchOrder.BOTTOM_UP)
+            .addRuleInstance(CoreRules.JOIN_TO_MULTI_JOIN)
+            .addRuleCollection(Arrays.asList(CoreRules.FILTER_MULTI_JOIN_MERGE, CoreRules.PROJECT_MULTI_JOIN_MERGE))
+            .addRuleInstance(CoreRules.MULTI_JOIN_OPTIMIZE)
+            .addMatchOrder(HepMatchOrder.ARBITRARY)
+            .addRuleCollection(QueryOptimizer.OPTIMIZATION_RULES)
+            .build();
+    }
+
+    /**
+     * Суммарная стоимость чтения таблиц плана, включая таблицы подзапросов
+     */
+    private static double lowerBound(RelNode relNode, RelMetadataQuery metadataQuery) {
+        double bound = 0;
+        if (relNode instanceof TableScan) {
+            bound += metadataQuery.getCumulativeCost(relNode).getRows();
+        }
+        for (RelNode subQuery : RelTreeCopier.subQueries(relNode)) {
+            bound += lowerBound(subQuery, metadataQuery);
+        }
+        for (RelNode input : relNode.getInputs()) {
+            bound += lowerBound(input, metadataQuery);
+        }
+        return bound;
+    }
+
+    /**
+     * Построение плана одной стратегией. Выполняется один раз: в пуле или, если пул не успел
+     * начать его к сроку, в вызывающем потоке. Готовый кандидат добавляется в очередь finished
+     */
+    private final class Attempt extends FutureTask<Candidate> {
+        private final PlanningStrategy strategy;
+        private final BlockingQueue<Candidate> finished;
+
+        Attempt(PlanningStrategy strategy, RelNode relNode, AtomicBoolean cancelled,
+                BlockingQueue<Candidate> finished) {
+            super(() -> plan(strategy, relNode, cancelled));
+            this.strategy = strategy;
+            this.finished = finished;
+        }
+
+        /**
+         * Выполняет построение в вызывающем потоке, если оно еще не начато, иначе ждет его завершения
+         */
+        Candidate runOrAwait() throws InterruptedException {
+            run();
+            return candidate();
+        }
+
+        @Override
+        protected void done() {
+            try {
+                finished.add(candidate());
+            } catch (InterruptedException e) {
+                // Задача уже завершена, поэтому результат возвращается без ожидания
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Candidate candidate() throws InterruptedException {
+            try {
+                return get();
+            } catch (ExecutionException | CancellationException e) {
+                logger.warn("Стратегия {} не построила план", strategy, e);
+                return new Candidate(strategy, null, Double.POSITIVE_INFINITY, new RuleStatsListener());
+            }
+        }
+    }
+
+    /**
+     * План, построенный стратегией (null, если стратегия завершилась ошибкой или отменена)
+     */
+    private static final class Candidate {
+        final PlanningStrategy strategy;
+        final RelNode plan;
+        final double cost;
+        final RuleStatsListener listener;
+
+        Candidate(PlanningStrategy strategy, RelNode plan, double cost, RuleStatsListener listener) {
+            this.strategy = strategy;
+            this.plan = plan;
+            this.cost = cost;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Выбранный план и стратегия, которая его построила
+     */
+    static final class Outcome {
+        private final RelNode plan;
+        private final PlanningStrategy strategy;
+
+        Outcome(RelNode plan, PlanningStrategy strategy) {
+            this.plan = plan;
+            this.strategy = strategy;
+        }
+
+        RelNode getPlan() {
+            return plan;
+        }
+
+        PlanningStrategy getStrategy() {
+            return strategy;
+        }
+    }
+}
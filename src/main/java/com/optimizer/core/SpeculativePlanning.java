@@ -0,0 +1,65 @@
+package com.optimizer.core;
+
+import com.optimizer.model.PlanningStrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Настройки спекулятивного планирования: стратегии, которые запускаются параллельно,
+ * общий срок и допустимое превышение нижней оценки стоимости
+ */
+public class SpeculativePlanning {
+    private final List<PlanningStrategy> strategies;
+    private final long deadlineMillis;
+    private final double costBound;
+
+    /**
+     * @param strategies     стратегии, запускаемые одновременно
+     * @param deadlineMillis срок, после которого выбирается лучший из готовых планов
+     * @param costBound      план со стоимостью не больше нижней оценки, умноженной на это
+     *                       значение, принимается сразу, не дожидаясь остальных стратегий
+     */
+    public SpeculativePlanning(List<PlanningStrategy> strategies, long deadlineMillis, double costBound) {
+        if (strategies == null || strategies.isEmpty()) {
+            throw new IllegalArgumentException("Не указаны стратегии планирования");
+        }
+        if (deadlineMillis <= 0) {
+            throw new IllegalArgumentException("Срок планирования должен быть положительным: " + deadlineMillis);
+        }
+        if (!(costBound >= 1.0)) {
+            throw new IllegalArgumentException("Допустимое превышение нижней оценки должно быть не меньше 1: "
+                + costBound);
+        }
+        this.strategies = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(strategies)));
+        this.deadlineMillis = deadlineMillis;
+        this.costBound = costBound;
+    }
+
+    /**
+     * Все стратегии с указанным сроком
+     */
+    public static SpeculativePlanning allStrategies(long deadlineMillis, double costBound) {
+        return new SpeculativePlanning(Arrays.asList(PlanningStrategy.values()), deadlineMillis, costBound);
+    }
+
+    public List<PlanningStrategy> getStrategies() {
+        return strategies;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public double getCostBound() {
+        return costBound;
+    }
+
+    @Override
+    public String toString() {
+        return "стратегии: " + strategies + ", срок: " + deadlineMillis + " мс, допуск: " + costBound;
+    }
+}
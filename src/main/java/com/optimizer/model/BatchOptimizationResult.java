@@ -0,0 +1,69 @@
+package com.optimizer.model;
+
+import java.util.List;
+
+/**
+ * Модель результата оптимизации пакета SQL запросов с общими подзапросами
+ */
+public class BatchOptimizationResult {
+    private List<SubQuery> sharedSubQueries;
+    private List<OptimizationResult> results;
+    private double totalCost;
+    private double savedCost;
+
+    public BatchOptimizationResult() {
+    }
+
+    public BatchOptimizationResult(List<SubQuery> sharedSubQueries, List<OptimizationResult> results,
+                                   double totalCost, double savedCost) {
+        this.sharedSubQueries = sharedSubQueries;
+        this.results = results;
+        this.totalCost = totalCost;
+        this.savedCost = savedCost;
+    }
+
+    /**
+     * Общие подзапросы, которые выполняются до запросов пакета. Подзапросы
+     * запросов пакета ссылаются на них в списке зависимостей
+     */
+    public List<SubQuery> getSharedSubQueries() {
+        return sharedSubQueries;
+    }
+
+    public void setSharedSubQueries(List<SubQuery> sharedSubQueries) {
+        this.sharedSubQueries = sharedSubQueries;
+    }
+
+    /**
+     * Результаты оптимизации в порядке запросов пакета
+     */
+    public List<OptimizationResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<OptimizationResult> results) {
+        this.results = results;
+    }
+
+    /**
+     * Общая стоимость пакета: общие подзапросы учитываются один раз
+     */
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public void setTotalCost(double totalCost) {
+        this.totalCost = totalCost;
+    }
+
+    /**
+     * Стоимость повторных вычислений, которых удалось избежать за счет общих подзапросов
+     */
+    public double getSavedCost() {
+        return savedCost;
+    }
+
+    public void setSavedCost(double savedCost) {
+        this.savedCost = savedCost;
+    }
+}
@@ -0,0 +1,11 @@
+package com.optimizer.model;
+
+/**
+ * Тип границы между подзапросом-источником и подзапросом-потребителем
+ */
+public enum BoundaryType {
+    /** Потребитель может обрабатывать результат источника потоком (CTE или потоковый обмен) */
+    PIPELINED,
+    /** Потребителю нужен весь результат источника до начала обработки - требуется материализация */
+    BLOCKING
+}
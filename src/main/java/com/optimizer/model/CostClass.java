@@ -0,0 +1,14 @@
+package com.optimizer.model;
+
+/**
+ * Класс ожидаемой стоимости планирования запроса, определяемый по разобранному SQL:
+ * количеству соединений, глубине подзапросов и количеству таблиц
+ */
+public enum CostClass {
+    /** Не более одного соединения и без подзапросов: планируется за миллисекунды */
+    LIGHT,
+    /** Запросы между легкими и тяжелыми */
+    MEDIUM,
+    /** Много соединений, таблиц или глубоко вложенные подзапросы: планирование может занимать секунды */
+    HEAVY
+}
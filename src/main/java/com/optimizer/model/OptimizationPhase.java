@@ -0,0 +1,21 @@
+package com.optimizer.model;
+
+/**
+ * Этапы обработки запроса, время которых измеряется отдельно
+ */
+public enum OptimizationPhase {
+    SCHEMA_CREATION,
+    STATISTICS_LOADING,
+    PARSING,
+    CLASSIFICATION,
+    VALIDATION,
+    REL_CONVERSION,
+    OPTIMIZATION,
+    SPLITTING,
+    PLAN_GENERATION,
+    /**
+     * Сериализация результата в JSON. Измеряется в утилите командной строки и пишется в лог
+     * и Flight Recorder, но не в phaseTimings уже сериализованного результата
+     */
+    JSON_SERIALIZATION
+}
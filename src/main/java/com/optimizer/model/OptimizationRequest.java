@@ -8,6 +8,13 @@ public class OptimizationRequest {
     private String metadata;
     private String statistics;
     private double costThreshold;
+    private long memoryBudgetBytes;
+    private SplitObjective splitObjective;
+    private int parallelWorkers = 1;
+    private TargetDialect targetDialect = TargetDialect.CALCITE;
+    private boolean pipelineFusion;
+    private boolean collectRuleStats;
+    private boolean collectPhaseTimings = true;
 
     public OptimizationRequest() {
     }
@@ -50,5 +57,85 @@ public class OptimizationRequest {
     public void setCostThreshold(double costThreshold) {
         this.costThreshold = costThreshold;
     }
-}
 
+    /**
+     * Бюджет памяти на промежуточные результаты одного этапа (в байтах).
+     * Значение 0 отключает разбиение по бюджету памяти
+     */
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * Целевая функция поиска оптимального разбиения. Если задана, порог стоимости
+     * используется как ограничение стоимости одного этапа
+     */
+    public SplitObjective getSplitObjective() {
+        return splitObjective;
+    }
+
+    public void setSplitObjective(SplitObjective splitObjective) {
+        this.splitObjective = splitObjective;
+    }
+
+    /**
+     * Количество параллельных исполнителей для целевой функции MAKESPAN
+     */
+    public int getParallelWorkers() {
+        return parallelWorkers;
+    }
+
+    public void setParallelWorkers(int parallelWorkers) {
+        this.parallelWorkers = parallelWorkers;
+    }
+
+    /**
+     * Диалект хранилища для SQL подзапросов и DDL временных таблиц
+     */
+    public TargetDialect getTargetDialect() {
+        return targetDialect;
+    }
+
+    public void setTargetDialect(TargetDialect targetDialect) {
+        this.targetDialect = targetDialect;
+    }
+
+    /**
+     * Встраивать подзапросы с потоковой границей в потребителя как CTE
+     * вместо материализации во временные таблицы
+     */
+    public boolean isPipelineFusion() {
+        return pipelineFusion;
+    }
+
+    public void setPipelineFusion(boolean pipelineFusion) {
+        this.pipelineFusion = pipelineFusion;
+    }
+
+    /**
+     * Возвращать в результате статистику правил оптимизатора
+     */
+    public boolean isCollectRuleStats() {
+        return collectRuleStats;
+    }
+
+    public void setCollectRuleStats(boolean collectRuleStats) {
+        this.collectRuleStats = collectRuleStats;
+    }
+
+    /**
+     * Возвращать в результате время и выделенную память по этапам обработки запроса
+     * (по умолчанию включено; выключение уменьшает размер результата)
+     */
+    public boolean isCollectPhaseTimings() {
+        return collectPhaseTimings;
+    }
+
+    public void setCollectPhaseTimings(boolean collectPhaseTimings) {
+        this.collectPhaseTimings = collectPhaseTimings;
+    }
+}
@@ -1,5 +1,6 @@
 package com.optimizer.model;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -12,6 +13,14 @@ public class OptimizationResult {
     private String optimizationPlan;
     private boolean success;
     private String errorMessage;
+    private SplitObjective splitObjective;
+    private Double objectiveValue;
+    private List<String> cutPoints;
+    private QueryComplexity queryComplexity;
+    private PlanningStrategy planningStrategy;
+    private List<RuleStats> ruleStats;
+    private List<PhaseTiming> phaseTimings;
+    private long retryAfterMillis;
 
     public OptimizationResult() {
     }
@@ -24,6 +33,44 @@ public class OptimizationResult {
         this.success = true;
     }
 
+    /**
+     * Создает независимую копию результата: изменение копии, ее подзапросов
+     * и статистики не затрагивает исходный результат
+     */
+    public OptimizationResult(OptimizationResult other) {
+        this.originalQuery = other.originalQuery;
+        if (other.subQueries != null) {
+            this.subQueries = new ArrayList<>();
+            for (SubQuery subQuery : other.subQueries) {
+                this.subQueries.add(new SubQuery(subQuery));
+            }
+        }
+        this.totalCost = other.totalCost;
+        this.optimizationPlan = other.optimizationPlan;
+        this.success = other.success;
+        this.errorMessage = other.errorMessage;
+        this.splitObjective = other.splitObjective;
+        this.objectiveValue = other.objectiveValue;
+        this.cutPoints = other.cutPoints != null ? new ArrayList<>(other.cutPoints) : null;
+        this.queryComplexity = other.queryComplexity;
+        this.planningStrategy = other.planningStrategy;
+        if (other.ruleStats != null) {
+            this.ruleStats = new ArrayList<>();
+            for (RuleStats stats : other.ruleStats) {
+                this.ruleStats.add(new RuleStats(stats.getRuleName(), stats.getAttempts(), stats.getSuccesses(),
+                    stats.getTimeNanos(), stats.getProducedRelNodes()));
+            }
+        }
+        if (other.phaseTimings != null) {
+            this.phaseTimings = new ArrayList<>();
+            for (PhaseTiming timing : other.phaseTimings) {
+                this.phaseTimings.add(new PhaseTiming(timing.getPhase(), timing.getTimeNanos(),
+                    timing.getAllocatedBytes()));
+            }
+        }
+        this.retryAfterMillis = other.retryAfterMillis;
+    }
+
     public String getOriginalQuery() {
         return originalQuery;
     }
@@ -72,5 +119,87 @@ public class OptimizationResult {
         this.errorMessage = errorMessage;
         this.success = false;
     }
-}
 
+    public SplitObjective getSplitObjective() {
+        return splitObjective;
+    }
+
+    public void setSplitObjective(SplitObjective splitObjective) {
+        this.splitObjective = splitObjective;
+    }
+
+    /**
+     * Значение целевой функции для выбранного разбиения (null, если поиск не выполнялся)
+     */
+    public Double getObjectiveValue() {
+        return objectiveValue;
+    }
+
+    public void setObjectiveValue(Double objectiveValue) {
+        this.objectiveValue = objectiveValue;
+    }
+
+    public List<String> getCutPoints() {
+        return cutPoints;
+    }
+
+    public void setCutPoints(List<String> cutPoints) {
+        this.cutPoints = cutPoints;
+    }
+
+    /**
+     * Класс сложности запроса; тривиальные запросы возвращаются одним подзапросом без оптимизации
+     */
+    public QueryComplexity getQueryComplexity() {
+        return queryComplexity;
+    }
+
+    public void setQueryComplexity(QueryComplexity queryComplexity) {
+        this.queryComplexity = queryComplexity;
+    }
+
+    /**
+     * Стратегия, построившая выбранный план при спекулятивном планировании (null, если выключено)
+     */
+    public PlanningStrategy getPlanningStrategy() {
+        return planningStrategy;
+    }
+
+    public void setPlanningStrategy(PlanningStrategy planningStrategy) {
+        this.planningStrategy = planningStrategy;
+    }
+
+    /**
+     * Статистика правил оптимизатора (только если запрошена)
+     */
+    public List<RuleStats> getRuleStats() {
+        return ruleStats;
+    }
+
+    public void setRuleStats(List<RuleStats> ruleStats) {
+        this.ruleStats = ruleStats;
+    }
+
+    /**
+     * Время и выделенная память по этапам обработки запроса (null, если измерение выключено)
+     */
+    public List<PhaseTiming> getPhaseTimings() {
+        return phaseTimings;
+    }
+
+    public void setPhaseTimings(List<PhaseTiming> phaseTimings) {
+        this.phaseTimings = phaseTimings;
+    }
+
+    /**
+     * Для запроса, отклоненного из-за перегрузки: через сколько миллисекунд имеет смысл
+     * повторить его (0, если запрос не отклонялся)
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
@@ -0,0 +1,46 @@
+package com.optimizer.model;
+
+/**
+ * Время и объем выделенной памяти одного этапа обработки запроса
+ */
+public class PhaseTiming {
+    private OptimizationPhase phase;
+    private long timeNanos;
+    private long allocatedBytes;
+
+    public PhaseTiming() {
+    }
+
+    public PhaseTiming(OptimizationPhase phase, long timeNanos, long allocatedBytes) {
+        this.phase = phase;
+        this.timeNanos = timeNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public OptimizationPhase getPhase() {
+        return phase;
+    }
+
+    public void setPhase(OptimizationPhase phase) {
+        this.phase = phase;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public void setTimeNanos(long timeNanos) {
+        this.timeNanos = timeNanos;
+    }
+
+    /**
+     * Байты, выделенные потоком за время этапа (-1, если JVM не поддерживает измерение)
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+}
@@ -0,0 +1,13 @@
+package com.optimizer.model;
+
+/**
+ * Стратегия построения плана запроса
+ */
+public enum PlanningStrategy {
+    /** Эвристический планировщик HepPlanner с правилами проталкивания фильтров и слияния проекций */
+    HEURISTIC,
+    /** Полный перебор стоимостным планировщиком VolcanoPlanner, включая перестановку соединений */
+    VOLCANO,
+    /** Эвристические правила и жадный выбор порядка соединений по оценкам количества строк */
+    GREEDY_JOIN_ORDER
+}
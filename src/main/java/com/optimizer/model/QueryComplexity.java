@@ -0,0 +1,11 @@
+package com.optimizer.model;
+
+/**
+ * Класс сложности запроса, определяемый по разобранному SQL до построения плана
+ */
+public enum QueryComplexity {
+    /** Запрос к одной таблице без соединений, подзапросов, агрегатов и оконных функций */
+    TRIVIAL,
+    /** Остальные запросы: проходят полную оптимизацию и разбиение */
+    COMPLEX
+}
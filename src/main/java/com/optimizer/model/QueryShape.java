@@ -0,0 +1,58 @@
+package com.optimizer.model;
+
+/**
+ * Характеристики разобранного запроса, от которых зависит время планирования
+ */
+public class QueryShape {
+    private int joinCount;
+    private int subQueryDepth;
+    private int tableCount;
+
+    public QueryShape() {
+    }
+
+    public QueryShape(int joinCount, int subQueryDepth, int tableCount) {
+        this.joinCount = joinCount;
+        this.subQueryDepth = subQueryDepth;
+        this.tableCount = tableCount;
+    }
+
+    /**
+     * Количество соединений, включая перечисление таблиц через запятую
+     */
+    public int getJoinCount() {
+        return joinCount;
+    }
+
+    public void setJoinCount(int joinCount) {
+        this.joinCount = joinCount;
+    }
+
+    /**
+     * Наибольшая вложенность подзапросов (0 - без подзапросов). Подзапросом считаются
+     * вложенные SELECT в выражениях и в FROM, а также запросы WITH
+     */
+    public int getSubQueryDepth() {
+        return subQueryDepth;
+    }
+
+    public void setSubQueryDepth(int subQueryDepth) {
+        this.subQueryDepth = subQueryDepth;
+    }
+
+    /**
+     * Количество ссылок на таблицы во всех FROM запроса
+     */
+    public int getTableCount() {
+        return tableCount;
+    }
+
+    public void setTableCount(int tableCount) {
+        this.tableCount = tableCount;
+    }
+
+    @Override
+    public String toString() {
+        return "соединений: " + joinCount + ", глубина подзапросов: " + subQueryDepth + ", таблиц: " + tableCount;
+    }
+}
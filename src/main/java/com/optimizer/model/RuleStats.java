@@ -0,0 +1,75 @@
+package com.optimizer.model;
+
+/**
+ * Статистика применения одного правила оптимизатора
+ */
+public class RuleStats {
+    private String ruleName;
+    private long attempts;
+    private long successes;
+    private long timeNanos;
+    private long producedRelNodes;
+
+    public RuleStats() {
+    }
+
+    public RuleStats(String ruleName, long attempts, long successes, long timeNanos, long producedRelNodes) {
+        this.ruleName = ruleName;
+        this.attempts = attempts;
+        this.successes = successes;
+        this.timeNanos = timeNanos;
+        this.producedRelNodes = producedRelNodes;
+    }
+
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    public void setRuleName(String ruleName) {
+        this.ruleName = ruleName;
+    }
+
+    /**
+     * Количество вызовов правила на совпавших узлах плана
+     */
+    public long getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(long attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Количество вызовов, в которых правило предложило преобразование
+     */
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public void setSuccesses(long successes) {
+        this.successes = successes;
+    }
+
+    /**
+     * Суммарное время выполнения правила в наносекундах
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public void setTimeNanos(long timeNanos) {
+        this.timeNanos = timeNanos;
+    }
+
+    /**
+     * Количество новых узлов RelNode в преобразованиях, предложенных правилом
+     */
+    public long getProducedRelNodes() {
+        return producedRelNodes;
+    }
+
+    public void setProducedRelNodes(long producedRelNodes) {
+        this.producedRelNodes = producedRelNodes;
+    }
+}
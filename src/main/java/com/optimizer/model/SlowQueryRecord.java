@@ -0,0 +1,121 @@
+package com.optimizer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Снимок медленного или дорогого запроса: SQL, время этапов, оптимизированный план и результат разбиения
+ */
+public class SlowQueryRecord {
+    private long timestamp;
+    private String sqlQuery;
+    private QueryComplexity queryComplexity;
+    private long latencyNanos;
+    private double totalCost;
+    private List<PhaseTiming> phaseTimings;
+    private String optimizationPlan;
+    private List<SubQuery> subQueries;
+
+    public SlowQueryRecord() {
+    }
+
+    /**
+     * Копирует время этапов и подзапросы: результат возвращается вызывающему,
+     * и его последующие изменения не должны менять снимок
+     */
+    public SlowQueryRecord(long timestamp, String sqlQuery, long latencyNanos, OptimizationResult result,
+                           List<PhaseTiming> phaseTimings) {
+        this.timestamp = timestamp;
+        this.sqlQuery = sqlQuery;
+        this.queryComplexity = result.getQueryComplexity();
+        this.latencyNanos = latencyNanos;
+        this.totalCost = result.getTotalCost();
+        if (phaseTimings != null) {
+            this.phaseTimings = new ArrayList<>();
+            for (PhaseTiming timing : phaseTimings) {
+                this.phaseTimings.add(new PhaseTiming(timing.getPhase(), timing.getTimeNanos(),
+                    timing.getAllocatedBytes()));
+            }
+        }
+        this.optimizationPlan = result.getOptimizationPlan();
+        if (result.getSubQueries() != null) {
+            this.subQueries = new ArrayList<>();
+            for (SubQuery subQuery : result.getSubQueries()) {
+                this.subQueries.add(new SubQuery(subQuery));
+            }
+        }
+    }
+
+    /**
+     * Время завершения оптимизации (миллисекунды от начала эпохи)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getSqlQuery() {
+        return sqlQuery;
+    }
+
+    public void setSqlQuery(String sqlQuery) {
+        this.sqlQuery = sqlQuery;
+    }
+
+    public QueryComplexity getQueryComplexity() {
+        return queryComplexity;
+    }
+
+    public void setQueryComplexity(QueryComplexity queryComplexity) {
+        this.queryComplexity = queryComplexity;
+    }
+
+    /**
+     * Полное время оптимизации запроса в наносекундах
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public void setTotalCost(double totalCost) {
+        this.totalCost = totalCost;
+    }
+
+    public List<PhaseTiming> getPhaseTimings() {
+        return phaseTimings;
+    }
+
+    public void setPhaseTimings(List<PhaseTiming> phaseTimings) {
+        this.phaseTimings = phaseTimings;
+    }
+
+    /**
+     * Текстовый план: оптимизированное дерево операций и разбиение на подзапросы
+     */
+    public String getOptimizationPlan() {
+        return optimizationPlan;
+    }
+
+    public void setOptimizationPlan(String optimizationPlan) {
+        this.optimizationPlan = optimizationPlan;
+    }
+
+    public List<SubQuery> getSubQueries() {
+        return subQueries;
+    }
+
+    public void setSubQueries(List<SubQuery> subQueries) {
+        this.subQueries = subQueries;
+    }
+}
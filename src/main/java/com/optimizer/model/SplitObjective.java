@@ -0,0 +1,13 @@
+package com.optimizer.model;
+
+/**
+ * Целевая функция поиска оптимального набора точек разбиения запроса
+ */
+public enum SplitObjective {
+    /** Минимальный суммарный объем материализуемых промежуточных результатов (в байтах) */
+    TOTAL_MATERIALIZATION,
+    /** Минимальное время выполнения всех этапов на заданном числе параллельных исполнителей */
+    MAKESPAN,
+    /** Минимальное количество этапов при ограничении стоимости одного этапа */
+    STAGE_COUNT
+}
@@ -1,6 +1,9 @@
 package com.optimizer.model;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Модель подзапроса после разбиения
@@ -13,6 +16,14 @@ public class SubQuery {
     private boolean isTemporaryTable;
     private String temporaryTableName;
     private String description;
+    private double estimatedRows;
+    private long estimatedBytes;
+    private String ddl;
+    private String dropDdl;
+    private List<String> distributionKeys;
+    private List<String> partitionKeys;
+    private Map<String, BoundaryType> boundaryTypes;
+    private List<String> inlinedCtes;
 
     public SubQuery() {
     }
@@ -25,6 +36,31 @@ public class SubQuery {
         this.isTemporaryTable = false;
     }
 
+    /**
+     * Создает независимую копию подзапроса
+     */
+    public SubQuery(SubQuery other) {
+        this.id = other.id;
+        this.sql = other.sql;
+        this.cost = other.cost;
+        this.dependencies = copyOf(other.dependencies);
+        this.isTemporaryTable = other.isTemporaryTable;
+        this.temporaryTableName = other.temporaryTableName;
+        this.description = other.description;
+        this.estimatedRows = other.estimatedRows;
+        this.estimatedBytes = other.estimatedBytes;
+        this.ddl = other.ddl;
+        this.dropDdl = other.dropDdl;
+        this.distributionKeys = copyOf(other.distributionKeys);
+        this.partitionKeys = copyOf(other.partitionKeys);
+        this.boundaryTypes = other.boundaryTypes != null ? new LinkedHashMap<>(other.boundaryTypes) : null;
+        this.inlinedCtes = copyOf(other.inlinedCtes);
+    }
+
+    private static List<String> copyOf(List<String> list) {
+        return list != null ? new ArrayList<>(list) : null;
+    }
+
     public String getId() {
         return id;
     }
@@ -80,5 +116,81 @@ public class SubQuery {
     public void setDescription(String description) {
         this.description = description;
     }
-}
 
+    public double getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public void setEstimatedRows(double estimatedRows) {
+        this.estimatedRows = estimatedRows;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public void setEstimatedBytes(long estimatedBytes) {
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * DDL для материализации результата во временную таблицу (только для временных таблиц)
+     */
+    public String getDdl() {
+        return ddl;
+    }
+
+    public void setDdl(String ddl) {
+        this.ddl = ddl;
+    }
+
+    /**
+     * Оператор удаления таблицы после выполнения запроса. Заполняется, только если
+     * диалект создает постоянную таблицу вместо временной (Spark)
+     */
+    public String getDropDdl() {
+        return dropDdl;
+    }
+
+    public void setDropDdl(String dropDdl) {
+        this.dropDdl = dropDdl;
+    }
+
+    public List<String> getDistributionKeys() {
+        return distributionKeys;
+    }
+
+    public void setDistributionKeys(List<String> distributionKeys) {
+        this.distributionKeys = distributionKeys;
+    }
+
+    public List<String> getPartitionKeys() {
+        return partitionKeys;
+    }
+
+    public void setPartitionKeys(List<String> partitionKeys) {
+        this.partitionKeys = partitionKeys;
+    }
+
+    /**
+     * Тип границы с каждым подзапросом из списка зависимостей
+     */
+    public Map<String, BoundaryType> getBoundaryTypes() {
+        return boundaryTypes;
+    }
+
+    public void setBoundaryTypes(Map<String, BoundaryType> boundaryTypes) {
+        this.boundaryTypes = boundaryTypes;
+    }
+
+    /**
+     * Имена источников, встроенных в SQL подзапроса как CTE вместо временных таблиц
+     */
+    public List<String> getInlinedCtes() {
+        return inlinedCtes;
+    }
+
+    public void setInlinedCtes(List<String> inlinedCtes) {
+        this.inlinedCtes = inlinedCtes;
+    }
+}
@@ -0,0 +1,18 @@
+package com.optimizer.model;
+
+/**
+ * Диалект хранилища, для которого генерируются SQL подзапросов и DDL временных таблиц
+ */
+public enum TargetDialect {
+    /** Диалект Calcite без подсказок по размещению данных */
+    CALCITE,
+    POSTGRESQL,
+    /** Greenplum: колоночное хранение и DISTRIBUTED BY */
+    GREENPLUM,
+    /** Redshift: DISTKEY и SORTKEY */
+    REDSHIFT,
+    /** Hive: формат хранения ORC */
+    HIVE,
+    /** Spark SQL: формат Parquet, PARTITIONED BY и CLUSTERED BY */
+    SPARK
+}
@@ -18,7 +18,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Парсер метаданных хранилища
+ * Парсер метаданных хранилища. Потокобезопасен: каждый вызов создает новую схему
  */
 public class MetadataParser {
     private static final Logger logger = LoggerFactory.getLogger(MetadataParser.class);
@@ -58,7 +58,7 @@ public class MetadataParser {
                 }
             }
             
-            logger.info("Схема создана успешно");
+            logger.debug("Схема создана успешно");
             return schemaPlus;
             
         } catch (Exception e) {
@@ -0,0 +1,241 @@
+package com.optimizer.parser;
+
+import com.optimizer.model.CostClass;
+import com.optimizer.model.QueryComplexity;
+import com.optimizer.model.QueryShape;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlJoin;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.SqlOrderBy;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.SqlWith;
+import org.apache.calcite.sql.SqlWithItem;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Классификатор запросов по разобранному SqlNode. Тривиальным считается SELECT
+ * из одной таблицы с необязательными WHERE, ORDER BY и LIMIT/OFFSET, без соединений,
+ * подзапросов, DISTINCT, группировки, агрегатных и оконных функций.
+ * Классификатор не хранит состояния и потокобезопасен
+ */
+public class QueryClassifier {
+    private static final Set<String> AGGREGATE_FUNCTIONS = aggregateFunctionNames();
+
+    /** Количество соединений, начиная с которого запрос считается тяжелым */
+    static final int HEAVY_JOIN_COUNT = 8;
+    /** Количество таблиц, начиная с которого запрос считается тяжелым */
+    static final int HEAVY_TABLE_COUNT = 10;
+    /** Глубина подзапросов, начиная с которой запрос считается тяжелым */
+    static final int HEAVY_SUBQUERY_DEPTH = 3;
+    /** Наибольшее количество соединений легкого запроса */
+    static final int LIGHT_JOIN_COUNT = 1;
+
+    /**
+     * Определяет класс сложности запроса
+     */
+    public QueryComplexity classify(SqlNode sqlNode) {
+        SqlNode query = sqlNode;
+        if (query instanceof SqlOrderBy) {
+            SqlOrderBy orderBy = (SqlOrderBy) query;
+            if (!isSimpleExpressionList(orderBy.orderList)) {
+                return QueryComplexity.COMPLEX;
+            }
+            query = orderBy.query;
+        }
+        if (!(query instanceof SqlSelect)) {
+            return QueryComplexity.COMPLEX;
+        }
+
+        SqlSelect select = (SqlSelect) query;
+        if (select.isDistinct()
+                || select.getGroup() != null
+                || select.getHaving() != null
+                || !isSingleTable(select.getFrom())
+                || (select.getWindowList() != null && select.getWindowList().size() > 0)
+                || !isSimpleExpressionList(select.getSelectList())
+                || !isSimpleExpression(select.getWhere())
+                || !isSimpleExpressionList(select.getOrderList())) {
+            return QueryComplexity.COMPLEX;
+        }
+        return QueryComplexity.TRIVIAL;
+    }
+
+    /**
+     * Считает соединения, таблицы и глубину подзапросов разобранного запроса
+     */
+    public QueryShape measure(SqlNode sqlNode) {
+        ShapeCounter counter = new ShapeCounter();
+        counter.query(sqlNode, 0);
+        return new QueryShape(counter.joins, counter.maxDepth, counter.tables);
+    }
+
+    /**
+     * Класс ожидаемой стоимости планирования запроса с данными характеристиками
+     */
+    public CostClass costClass(QueryShape shape) {
+        if (shape.getJoinCount() >= HEAVY_JOIN_COUNT || shape.getTableCount() >= HEAVY_TABLE_COUNT
+                || shape.getSubQueryDepth() >= HEAVY_SUBQUERY_DEPTH) {
+            return CostClass.HEAVY;
+        }
+        if (shape.getJoinCount() <= LIGHT_JOIN_COUNT && shape.getSubQueryDepth() == 0) {
+            return CostClass.LIGHT;
+        }
+        return CostClass.MEDIUM;
+    }
+
+    /**
+     * FROM содержит одну таблицу, возможно с псевдонимом
+     */
+    private boolean isSingleTable(SqlNode from) {
+        if (from instanceof SqlIdentifier) {
+            return true;
+        }
+        if (from != null && from.getKind() == SqlKind.AS) {
+            return ((SqlCall) from).operand(0) instanceof SqlIdentifier;
+        }
+        return false;
+    }
+
+    private boolean isSimpleExpressionList(SqlNodeList list) {
+        if (list == null) {
+            return true;
+        }
+        for (SqlNode node : list) {
+            if (!isSimpleExpression(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Выражение не содержит подзапросов, агрегатных и оконных функций
+     */
+    private boolean isSimpleExpression(SqlNode node) {
+        if (!(node instanceof SqlCall)) {
+            return true;
+        }
+        if (node instanceof SqlSelect || node instanceof SqlOrderBy) {
+            return false;
+        }
+        SqlCall call = (SqlCall) node;
+        if (call.getKind() == SqlKind.OVER || call.getKind() == SqlKind.WITH
+                || call.getKind() == SqlKind.CURSOR || isAggregate(call.getOperator())) {
+            return false;
+        }
+        for (SqlNode operand : call.getOperandList()) {
+            if (operand instanceof SqlNodeList) {
+                if (!isSimpleExpressionList((SqlNodeList) operand)) {
+                    return false;
+                }
+            } else if (!isSimpleExpression(operand)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * До валидации функции еще не разрешены, поэтому агрегатные функции
+     * ищутся по имени среди стандартных операторов
+     */
+    private boolean isAggregate(SqlOperator operator) {
+        return operator.isAggregator() || AGGREGATE_FUNCTIONS.contains(operator.getName().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Обход запроса с подсчетом соединений, таблиц и глубины подзапросов
+     */
+    private static final class ShapeCounter {
+        int joins;
+        int tables;
+        int maxDepth;
+
+        void query(SqlNode node, int depth) {
+            maxDepth = Math.max(maxDepth, depth);
+            if (node instanceof SqlOrderBy) {
+                SqlOrderBy orderBy = (SqlOrderBy) node;
+                query(orderBy.query, depth);
+                expression(orderBy.orderList, depth);
+            } else if (node instanceof SqlWith) {
+                SqlWith with = (SqlWith) node;
+                for (SqlNode item : with.withList) {
+                    query(((SqlWithItem) item).query, depth + 1);
+                }
+                query(with.body, depth);
+            } else if (node instanceof SqlSelect) {
+                SqlSelect select = (SqlSelect) node;
+                from(select.getFrom(), depth);
+                expression(select.getSelectList(), depth);
+                expression(select.getWhere(), depth);
+                expression(select.getGroup(), depth);
+                expression(select.getHaving(), depth);
+            } else if (node instanceof SqlCall) {
+                // UNION, INTERSECT, EXCEPT и VALUES: ветви находятся на том же уровне
+                for (SqlNode operand : ((SqlCall) node).getOperandList()) {
+                    if (operand != null && operand.isA(SqlKind.QUERY)) {
+                        query(operand, depth);
+                    } else {
+                        expression(operand, depth);
+                    }
+                }
+            }
+        }
+
+        void from(SqlNode from, int depth) {
+            if (from == null) {
+                return;
+            }
+            if (from instanceof SqlIdentifier) {
+                tables++;
+            } else if (from instanceof SqlJoin) {
+                SqlJoin join = (SqlJoin) from;
+                joins++;
+                from(join.getLeft(), depth);
+                from(join.getRight(), depth);
+                expression(join.getCondition(), depth);
+            } else if (from.getKind() == SqlKind.AS) {
+                from(((SqlCall) from).operand(0), depth);
+            } else if (from.isA(SqlKind.QUERY)) {
+                query(from, depth + 1);
+            } else {
+                expression(from, depth);
+            }
+        }
+
+        void expression(SqlNode node, int depth) {
+            if (node == null) {
+                return;
+            }
+            if (node.isA(SqlKind.QUERY)) {
+                query(node, depth + 1);
+            } else if (node instanceof SqlNodeList) {
+                for (SqlNode item : (SqlNodeList) node) {
+                    expression(item, depth);
+                }
+            } else if (node instanceof SqlCall) {
+                for (SqlNode operand : ((SqlCall) node).getOperandList()) {
+                    expression(operand, depth);
+                }
+            }
+        }
+    }
+
+    private static Set<String> aggregateFunctionNames() {
+        Set<String> names = new HashSet<>();
+        for (SqlOperator operator : SqlStdOperatorTable.instance().getOperatorList()) {
+            if (operator.isAggregator()) {
+                names.add(operator.getName().toUpperCase(Locale.ROOT));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,56 @@
+package com.optimizer.parser;
+
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.dialect.CalciteSqlDialect;
+import org.apache.calcite.sql.util.SqlShuttle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Отпечаток запроса: хеш текста запроса, в котором литералы заменены параметрами.
+ * Запросы, отличающиеся только значениями констант, имеют одинаковый отпечаток
+ */
+public final class QueryFingerprint {
+    private static final Logger logger = LoggerFactory.getLogger(QueryFingerprint.class);
+
+    private QueryFingerprint() {
+    }
+
+    /**
+     * Вычисляет отпечаток разобранного запроса (16 шестнадцатеричных символов)
+     */
+    public static String of(SqlNode sqlNode) {
+        String normalized;
+        try {
+            SqlNode withoutLiterals = sqlNode.accept(new SqlShuttle() {
+                @Override
+                public SqlNode visit(SqlLiteral literal) {
+                    return new SqlDynamicParam(0, literal.getParserPosition());
+                }
+            });
+            normalized = withoutLiterals.toSqlString(CalciteSqlDialect.DEFAULT).getSql();
+        } catch (Exception e) {
+            logger.debug("Не удалось нормализовать запрос для отпечатка: {}", e.getMessage());
+            normalized = sqlNode.toString();
+        }
+        return hash(normalized);
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                result.append(String.format("%02x", digest[i]));
+            }
+            return result.toString();
+        } catch (Exception e) {
+            return String.format("%016x", (long) text.hashCode());
+        }
+    }
+}
@@ -10,7 +10,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Парсер статистики таблиц
+ * Парсер статистики таблиц. Потокобезопасен: не хранит состояния между вызовами
  */
 public class StatisticsParser {
     private static final Logger logger = LoggerFactory.getLogger(StatisticsParser.class);
@@ -35,7 +35,7 @@ public class StatisticsParser {
                 }
             }
             
-            logger.info("Статистика загружена успешно");
+            logger.debug("Статистика загружена успешно");
             
         } catch (Exception e) {
             logger.error("Ошибка загрузки статистики", e);
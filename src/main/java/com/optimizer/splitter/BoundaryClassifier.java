@@ -0,0 +1,55 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.BoundaryType;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.Minus;
+import org.apache.calcite.rel.core.Intersect;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.core.Window;
+
+/**
+ * Классификация границ между этапами разбиения: может ли потребитель
+ * читать результат источника потоком или источник нужно материализовать
+ */
+public class BoundaryClassifier {
+
+    private BoundaryClassifier() {
+    }
+
+    /**
+     * Определяет тип границы между корнем источника и оператором-потребителем,
+     * который читает источник через вход с номером inputOrdinal
+     */
+    public static BoundaryType classify(RelNode consumer, int inputOrdinal, RelNode producerRoot) {
+        if (isPipelineBreaker(producerRoot) || blocksOnInput(consumer, inputOrdinal)) {
+            return BoundaryType.BLOCKING;
+        }
+        return BoundaryType.PIPELINED;
+    }
+
+    /**
+     * Оператор выдает результат только после чтения всего входа
+     */
+    private static boolean isPipelineBreaker(RelNode node) {
+        return node instanceof Sort || node instanceof Aggregate || node instanceof Window;
+    }
+
+    /**
+     * Оператор должен прочитать вход целиком, прежде чем выдать первую строку:
+     * сортировка, агрегация, оконные функции и сторона построения хеш-таблицы соединения
+     */
+    private static boolean blocksOnInput(RelNode consumer, int inputOrdinal) {
+        if (isPipelineBreaker(consumer)) {
+            return true;
+        }
+        if (consumer instanceof Join) {
+            return inputOrdinal == 1;
+        }
+        if (consumer instanceof Minus || consumer instanceof Intersect) {
+            return inputOrdinal > 0;
+        }
+        return false;
+    }
+}
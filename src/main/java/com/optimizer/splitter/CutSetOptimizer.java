@@ -0,0 +1,285 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.SplitObjective;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Correlate;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Поиск оптимального набора точек разбиения плана динамическим программированием по дереву.
+ *
+ * Для каждого узла строится множество Парето-оптимальных частичных решений: стоимость
+ * открытого этапа, в который входит узел, и накопленные показатели закрытых этапов ниже него.
+ * На каждом ребре рассматриваются два варианта - оставить потомка в этапе родителя
+ * или материализовать его во временную таблицу. Превышение лимита стоимости этапа
+ * минимизируется в первую очередь, затем выбранная целевая функция
+ */
+class CutSetOptimizer {
+    /** Максимальное число частичных решений, сохраняемых для одного узла */
+    static final int MAX_LABELS_PER_NODE = 64;
+
+    private final SplitObjective objective;
+    private final double stageCostCap;
+    private final int parallelWorkers;
+    private final RelMetadataQuery metadataQuery;
+
+    CutSetOptimizer(SplitObjective objective, double stageCostCap, int parallelWorkers, RelMetadataQuery metadataQuery) {
+        this.objective = objective;
+        this.stageCostCap = stageCostCap;
+        this.parallelWorkers = Math.max(1, parallelWorkers);
+        this.metadataQuery = metadataQuery;
+    }
+
+    /**
+     * Находит набор узлов для материализации, минимизирующий целевую функцию
+     */
+    CutSet optimize(RelNode root) {
+        List<Label> labels = solve(root, true);
+        Label best = Collections.min(labels, rankOrder());
+        return new CutSet(best.collectCuts(), objectiveValue(best), closedOverflow(best));
+    }
+
+    /**
+     * Строит множество частичных решений для поддерева узла
+     */
+    private List<Label> solve(RelNode node, boolean cutsAllowed) {
+        List<Label> current = Collections.singletonList(Label.leaf(selfCost(node)));
+
+        List<RelNode> inputs = node.getInputs();
+        for (int i = 0; i < inputs.size(); i++) {
+            RelNode child = inputs.get(i);
+            // Правую часть коррелированного соединения нельзя вычислить отдельно от левой
+            boolean childCutsAllowed = cutsAllowed && !(node instanceof Correlate && i > 0);
+            List<Label> childLabels = solve(child, childCutsAllowed);
+            boolean cuttable = childCutsAllowed && !(child instanceof TableScan);
+            double readCost = RelSizeEstimator.estimateRows(child, metadataQuery);
+            long bytes = RelSizeEstimator.estimateBytes(child, metadataQuery);
+
+            List<Label> next = new ArrayList<>(current.size() * childLabels.size() * 2);
+            for (Label label : current) {
+                for (Label childLabel : childLabels) {
+                    next.add(label.merge(childLabel));
+                    if (cuttable) {
+                        next.add(label.mergeCut(childLabel, child, readCost, bytes, excess(childLabel.open)));
+                    }
+                }
+            }
+            current = prune(next);
+        }
+        return current;
+    }
+
+    /**
+     * Оставляет только недоминируемые решения, не больше {@link #MAX_LABELS_PER_NODE}
+     */
+    private List<Label> prune(List<Label> labels) {
+        labels.sort(rankOrder());
+        List<Label> kept = new ArrayList<>();
+        for (Label candidate : labels) {
+            boolean dominated = false;
+            for (Label existing : kept) {
+                if (dominates(existing, candidate)) {
+                    dominated = true;
+                    break;
+                }
+            }
+            if (!dominated) {
+                kept.add(candidate);
+                if (kept.size() >= MAX_LABELS_PER_NODE) {
+                    break;
+                }
+            }
+        }
+        return kept;
+    }
+
+    private boolean dominates(Label a, Label b) {
+        if (a.open > b.open || a.overflow > b.overflow) {
+            return false;
+        }
+        switch (objective) {
+            case TOTAL_MATERIALIZATION:
+                return a.materializedBytes <= b.materializedBytes;
+            case STAGE_COUNT:
+                return a.stages <= b.stages;
+            case MAKESPAN:
+            default:
+                return a.work <= b.work && a.criticalPathBelow <= b.criticalPathBelow;
+        }
+    }
+
+    /**
+     * Порядок решений: превышение лимита, целевая функция, затем стоимость открытого этапа
+     */
+    private Comparator<Label> rankOrder() {
+        return Comparator.<Label>comparingDouble(this::closedOverflow)
+            .thenComparingDouble(this::objectiveValue)
+            .thenComparingDouble(label -> label.materializedBytes)
+            .thenComparingInt(label -> label.stages)
+            .thenComparingDouble(label -> label.open);
+    }
+
+    /**
+     * Значение целевой функции, если закрыть открытый этап решения
+     */
+    private double objectiveValue(Label label) {
+        switch (objective) {
+            case TOTAL_MATERIALIZATION:
+                return label.materializedBytes;
+            case STAGE_COUNT:
+                return label.stages + 1;
+            case MAKESPAN:
+            default:
+                double criticalPath = label.open + label.criticalPathBelow;
+                double totalWork = label.work + label.open;
+                return Math.max(criticalPath, totalWork / parallelWorkers);
+        }
+    }
+
+    private double closedOverflow(Label label) {
+        return label.overflow + excess(label.open);
+    }
+
+    private double excess(double stageCost) {
+        return stageCostCap > 0 && stageCost > stageCostCap ? stageCost - stageCostCap : 0.0;
+    }
+
+    private double selfCost(RelNode node) {
+        RelOptCost cost = metadataQuery.getNonCumulativeCost(node);
+        if (cost == null || cost.isInfinite() || Double.isNaN(cost.getRows())) {
+            return RelSizeEstimator.estimateRows(node, metadataQuery);
+        }
+        return cost.getRows();
+    }
+
+    /**
+     * Частичное решение для поддерева
+     */
+    private static final class Label {
+        /** Стоимость открытого этапа, в который входит корень поддерева */
+        final double open;
+        /** Суммарное превышение лимита стоимости закрытыми этапами */
+        final double overflow;
+        final double materializedBytes;
+        final int stages;
+        /** Суммарная стоимость закрытых этапов */
+        final double work;
+        /** Длина критического пути среди этапов, от которых зависит открытый этап */
+        final double criticalPathBelow;
+        final Cuts cuts;
+
+        private Label(double open, double overflow, double materializedBytes, int stages,
+                      double work, double criticalPathBelow, Cuts cuts) {
+            this.open = open;
+            this.overflow = overflow;
+            this.materializedBytes = materializedBytes;
+            this.stages = stages;
+            this.work = work;
+            this.criticalPathBelow = criticalPathBelow;
+            this.cuts = cuts;
+        }
+
+        static Label leaf(double selfCost) {
+            return new Label(selfCost, 0.0, 0.0, 0, 0.0, 0.0, null);
+        }
+
+        Label merge(Label child) {
+            return new Label(open + child.open, overflow + child.overflow,
+                materializedBytes + child.materializedBytes, stages + child.stages,
+                work + child.work, Math.max(criticalPathBelow, child.criticalPathBelow),
+                Cuts.join(cuts, child.cuts, null));
+        }
+
+        Label mergeCut(Label child, RelNode childNode, double readCost, long bytes, double childExcess) {
+            return new Label(open + readCost, overflow + child.overflow + childExcess,
+                materializedBytes + child.materializedBytes + bytes, stages + child.stages + 1,
+                work + child.work + child.open,
+                Math.max(criticalPathBelow, child.open + child.criticalPathBelow),
+                Cuts.join(cuts, child.cuts, childNode));
+        }
+
+        Set<RelNode> collectCuts() {
+            Set<RelNode> result = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Cuts> stack = new ArrayList<>();
+            if (cuts != null) {
+                stack.add(cuts);
+            }
+            while (!stack.isEmpty()) {
+                Cuts current = stack.remove(stack.size() - 1);
+                if (current.node != null) {
+                    result.add(current.node);
+                }
+                if (current.left != null) {
+                    stack.add(current.left);
+                }
+                if (current.right != null) {
+                    stack.add(current.right);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Неизменяемый список выбранных точек разбиения, разделяемый между решениями
+     */
+    private static final class Cuts {
+        final Cuts left;
+        final Cuts right;
+        final RelNode node;
+
+        private Cuts(Cuts left, Cuts right, RelNode node) {
+            this.left = left;
+            this.right = right;
+            this.node = node;
+        }
+
+        static Cuts join(Cuts left, Cuts right, RelNode node) {
+            if (node == null) {
+                if (left == null) {
+                    return right;
+                }
+                if (right == null) {
+                    return left;
+                }
+            }
+            return new Cuts(left, right, node);
+        }
+    }
+
+    /**
+     * Результат поиска: выбранные точки разбиения и значение целевой функции
+     */
+    static final class CutSet {
+        private final Set<RelNode> cuts;
+        private final double objectiveValue;
+        private final double overflow;
+
+        CutSet(Set<RelNode> cuts, double objectiveValue, double overflow) {
+            this.cuts = cuts;
+            this.objectiveValue = objectiveValue;
+            this.overflow = overflow;
+        }
+
+        Set<RelNode> getCuts() {
+            return cuts;
+        }
+
+        double getObjectiveValue() {
+            return objectiveValue;
+        }
+
+        double getOverflow() {
+            return overflow;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.TargetDialect;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.rel2sql.RelToSqlConverter;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.dialect.CalciteSqlDialect;
+import org.apache.calcite.sql.dialect.HiveSqlDialect;
+import org.apache.calcite.sql.dialect.PostgresqlSqlDialect;
+import org.apache.calcite.sql.dialect.RedshiftSqlDialect;
+import org.apache.calcite.sql.dialect.SparkSqlDialect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Генерация SQL подзапросов и DDL временных таблиц для диалекта хранилища
+ */
+public class DialectSqlGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(DialectSqlGenerator.class);
+
+    /** Количество бакетов для CLUSTERED BY в Spark */
+    static final int DEFAULT_BUCKETS = 32;
+
+    private final TargetDialect dialect;
+    private final SqlDialect sqlDialect;
+    /** Суффикс имен таблиц, уникальный для генератора (один генератор на разбиение запроса) */
+    private final String tableNameSuffix;
+
+    public DialectSqlGenerator(TargetDialect dialect) {
+        this.dialect = dialect != null ? dialect : TargetDialect.CALCITE;
+        this.sqlDialect = toSqlDialect(this.dialect);
+        this.tableNameSuffix = createsPermanentTables()
+            ? "_" + UUID.randomUUID().toString().replace("-", "") : "";
+    }
+
+    public TargetDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Преобразует RelNode в SQL строку
+     */
+    public String toSql(RelNode relNode) {
+        try {
+            RelToSqlConverter converter = new RelToSqlConverter(sqlDialect);
+            return converter.visitRoot(relNode).asStatement().toSqlString(sqlDialect).getSql();
+
+        } catch (Exception e) {
+            logger.warn("Не удалось преобразовать RelNode в SQL: {}", e.getMessage());
+            return "SELECT * FROM (" + relNode.toString() + ")"; // Fallback
+        }
+    }
+
+    /**
+     * Заключает идентификатор в кавычки по правилам диалекта
+     */
+    public String quoteIdentifier(String identifier) {
+        return sqlDialect.quoteIdentifier(identifier);
+    }
+
+    /**
+     * Поддерживает ли диалект ключи секционирования (или сортировки) временной таблицы
+     */
+    public boolean supportsPartitioning() {
+        return dialect == TargetDialect.SPARK || dialect == TargetDialect.REDSHIFT;
+    }
+
+    /**
+     * Имя таблицы для материализации. Временные таблицы видны только своему сеансу,
+     * а постоянные таблицы Spark получают уникальный суффикс, чтобы таблицы разных
+     * запросов в одной базе не совпадали по имени
+     */
+    public String temporaryTableName(String baseName) {
+        return baseName + tableNameSuffix;
+    }
+
+    /**
+     * Оператор удаления таблицы после выполнения запроса или null, если таблица временная
+     * и удаляется вместе с сеансом
+     */
+    public String dropTemporaryTable(String tableName) {
+        return createsPermanentTables() ? "DROP TABLE IF EXISTS " + sqlDialect.quoteIdentifier(tableName) : null;
+    }
+
+    /**
+     * Spark не поддерживает временные таблицы с данными, поэтому материализация создает обычную таблицу
+     */
+    private boolean createsPermanentTables() {
+        return dialect == TargetDialect.SPARK;
+    }
+
+    /**
+     * Создает DDL временной таблицы для материализации результата подзапроса
+     */
+    public String createTemporaryTable(String tableName, String selectSql,
+                                       List<String> distributionKeys, List<String> partitionKeys) {
+        String table = sqlDialect.quoteIdentifier(tableName);
+        StringBuilder ddl = new StringBuilder();
+
+        switch (dialect) {
+            case GREENPLUM:
+                ddl.append("CREATE TEMPORARY TABLE ").append(table).append('\n');
+                ddl.append("WITH (appendoptimized=true, orientation=column)\n");
+                ddl.append("AS\n").append(selectSql).append('\n');
+                if (distributionKeys.isEmpty()) {
+                    ddl.append("DISTRIBUTED RANDOMLY");
+                } else {
+                    ddl.append("DISTRIBUTED BY (").append(quote(distributionKeys)).append(')');
+                }
+                break;
+
+            case REDSHIFT:
+                ddl.append("CREATE TEMPORARY TABLE ").append(table).append('\n');
+                if (distributionKeys.isEmpty()) {
+                    ddl.append("DISTSTYLE EVEN\n");
+                } else {
+                    // Redshift допускает только одну колонку распределения
+                    ddl.append("DISTSTYLE KEY DISTKEY (")
+                        .append(sqlDialect.quoteIdentifier(distributionKeys.get(0))).append(")\n");
+                }
+                if (!partitionKeys.isEmpty()) {
+                    ddl.append("COMPOUND SORTKEY (").append(quote(partitionKeys)).append(")\n");
+                }
+                ddl.append("AS\n").append(selectSql);
+                break;
+
+            case HIVE:
+                ddl.append("CREATE TEMPORARY TABLE ").append(table).append('\n');
+                ddl.append("STORED AS ORC\n");
+                ddl.append("AS\n").append(selectSql);
+                break;
+
+            case SPARK:
+                // Обычная таблица с уникальным именем, удаляется оператором dropTemporaryTable
+                ddl.append("CREATE TABLE ").append(table).append('\n');
+                ddl.append("USING PARQUET\n");
+                if (!partitionKeys.isEmpty()) {
+                    ddl.append("PARTITIONED BY (").append(quote(partitionKeys)).append(")\n");
+                }
+                List<String> bucketKeys = new ArrayList<>(distributionKeys);
+                bucketKeys.removeAll(partitionKeys);
+                if (!bucketKeys.isEmpty()) {
+                    ddl.append("CLUSTERED BY (").append(quote(bucketKeys)).append(") INTO ")
+                        .append(DEFAULT_BUCKETS).append(" BUCKETS\n");
+                }
+                ddl.append("AS\n").append(selectSql);
+                break;
+
+            case POSTGRESQL:
+            case CALCITE:
+            default:
+                ddl.append("CREATE TEMPORARY TABLE ").append(table).append(" AS\n").append(selectSql);
+                break;
+        }
+
+        return ddl.toString();
+    }
+
+    private String quote(List<String> identifiers) {
+        StringBuilder result = new StringBuilder();
+        for (String identifier : identifiers) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(sqlDialect.quoteIdentifier(identifier));
+        }
+        return result.toString();
+    }
+
+    private static SqlDialect toSqlDialect(TargetDialect dialect) {
+        switch (dialect) {
+            case POSTGRESQL:
+            case GREENPLUM:
+                return PostgresqlSqlDialect.DEFAULT;
+            case REDSHIFT:
+                return RedshiftSqlDialect.DEFAULT;
+            case HIVE:
+                return HiveSqlDialect.DEFAULT;
+            case SPARK:
+                return SparkSqlDialect.DEFAULT;
+            case CALCITE:
+            default:
+                return CalciteSqlDialect.DEFAULT;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.optimizer.splitter;
 
+import com.optimizer.model.SplitObjective;
 import com.optimizer.model.SubQuery;
+import com.optimizer.model.TargetDialect;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
@@ -11,6 +14,8 @@ import org.apache.calcite.rel.core.Join;
 import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.rel.core.Filter;
 import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Correlate;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.metadata.RelMetadataProvider;
 import org.apache.calcite.sql.SqlNode;
@@ -24,38 +29,254 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 
 /**
- * Класс для разбиения SQL запросов на подзапросы с использованием cost-based оптимизации
+ * Класс для разбиения SQL запросов на подзапросы с использованием cost-based оптимизации.
+ *
+ * Не хранит состояния между вызовами: имена подзапросов и временных таблиц назначаются
+ * в пределах одного разбиения, поэтому один экземпляр можно использовать из нескольких потоков
  */
 public class QuerySplitter {
     private static final Logger logger = LoggerFactory.getLogger(QuerySplitter.class);
-    private int tempTableCounter = 0;
 
     /**
      * Разбивает оптимизированный запрос на подзапросы
      */
     public List<SubQuery> splitQuery(RelNode optimizedNode, double costThreshold, FrameworkConfig config) {
+        return splitQuery(optimizedNode, costThreshold, config, TargetDialect.CALCITE);
+    }
+
+    /**
+     * Разбивает оптимизированный запрос на подзапросы в SQL заданного диалекта
+     */
+    public List<SubQuery> splitQuery(RelNode optimizedNode, double costThreshold, FrameworkConfig config,
+                                     TargetDialect dialect) {
+        DialectSqlGenerator sqlGenerator = new DialectSqlGenerator(dialect);
         List<SubQuery> subQueries = new ArrayList<>();
         
         try {
             // Упрощенная логика: создаем один подзапрос
-            // В реальной реализации здесь должна быть логика разбиения на основе стоимости
-            logger.info("Создаем упрощенный подзапрос");
-            
-            SubQuery singleQuery = createSubQuery(optimizedNode, config, "Q1", Collections.emptyList());
-            subQueries.add(singleQuery);
-            
-            logger.info("Создан 1 подзапрос");
+            // В реальной реализации здесь должна быть логика разбиения на основе стоимости.
+            // Отдельно материализуются только повторяющиеся поддеревья
+            logger.debug("Создаем упрощенный подзапрос");
+
+            Set<RelNode> noCuts = Collections.emptySet();
+            subQueries.addAll(new StageBuilder(noCuts, sqlGenerator).build(optimizedNode));
+
+            logger.debug("Создано {} подзапросов", subQueries.size());
             
         } catch (Exception e) {
             logger.error("Ошибка разбиения запроса", e);
             // В случае ошибки возвращаем исходный запрос как один подзапрос
-            SubQuery fallbackQuery = createSubQuery(optimizedNode, config, "Q1", Collections.emptyList());
+            SubQuery fallbackQuery = createSubQuery(optimizedNode, sqlGenerator, "Q1", Collections.emptyList());
             subQueries.add(fallbackQuery);
         }
         
         return subQueries;
     }
 
+    /**
+     * Создает один подзапрос для всего плана без поиска точек разбиения
+     */
+    public SubQuery singleStage(RelNode node, TargetDialect dialect) {
+        return createSubQuery(node, new DialectSqlGenerator(dialect), "Q1", Collections.emptyList());
+    }
+
+    /**
+     * Разбивает оптимизированный запрос на подзапросы так, чтобы промежуточные
+     * результаты каждого этапа укладывались в заданный бюджет памяти (в байтах)
+     */
+    public List<SubQuery> splitQueryByMemoryBudget(RelNode optimizedNode, long memoryBudgetBytes, FrameworkConfig config,
+                                                   TargetDialect dialect) {
+        return splitQueryByMemoryBudget(optimizedNode, memoryBudgetBytes, config, dialect, false);
+    }
+
+    /**
+     * Разбивает запрос по бюджету памяти. При pipelineFusion источники с потоковой
+     * границей встраиваются в SQL потребителя как CTE вместо временных таблиц
+     */
+    public List<SubQuery> splitQueryByMemoryBudget(RelNode optimizedNode, long memoryBudgetBytes, FrameworkConfig config,
+                                                   TargetDialect dialect, boolean pipelineFusion) {
+        DialectSqlGenerator sqlGenerator = new DialectSqlGenerator(dialect);
+        try {
+            RelMetadataQuery metadataQuery = optimizedNode.getCluster().getMetadataQuery();
+            Set<RelNode> cuts = Collections.newSetFromMap(new IdentityHashMap<>());
+            long rootFootprint = chooseMemoryCuts(optimizedNode, memoryBudgetBytes, metadataQuery, cuts, true);
+
+            List<SubQuery> subQueries = new StageBuilder(cuts, sqlGenerator, pipelineFusion).build(optimizedNode);
+            logger.debug("Создано {} подзапросов при бюджете памяти {} байт (итоговый этап: {} байт)",
+                subQueries.size(), memoryBudgetBytes, rootFootprint);
+            return subQueries;
+
+        } catch (Exception e) {
+            logger.error("Ошибка разбиения запроса по бюджету памяти", e);
+            // В случае ошибки возвращаем исходный запрос как один подзапрос
+            List<SubQuery> subQueries = new ArrayList<>();
+            subQueries.add(createSubQuery(optimizedNode, sqlGenerator, "Q1", Collections.emptyList()));
+            return subQueries;
+        }
+    }
+
+    /**
+     * Разбивает оптимизированный запрос, выбирая точки разбиения динамическим
+     * программированием по дереву плана так, чтобы минимизировать целевую функцию.
+     * Стоимость одного этапа ограничена значением stageCostCap (0 - без ограничения)
+     */
+    public SplitPlan splitQueryOptimal(RelNode optimizedNode, SplitObjective objective, double stageCostCap,
+                                       int parallelWorkers, FrameworkConfig config, TargetDialect dialect) {
+        return splitQueryOptimal(optimizedNode, objective, stageCostCap, parallelWorkers, config, dialect, false);
+    }
+
+    /**
+     * Поиск оптимального разбиения. При pipelineFusion источники с потоковой
+     * границей встраиваются в SQL потребителя как CTE вместо временных таблиц
+     */
+    public SplitPlan splitQueryOptimal(RelNode optimizedNode, SplitObjective objective, double stageCostCap,
+                                       int parallelWorkers, FrameworkConfig config, TargetDialect dialect,
+                                       boolean pipelineFusion) {
+        DialectSqlGenerator sqlGenerator = new DialectSqlGenerator(dialect);
+        try {
+            RelMetadataQuery metadataQuery = optimizedNode.getCluster().getMetadataQuery();
+            CutSetOptimizer optimizer = new CutSetOptimizer(objective, stageCostCap, parallelWorkers, metadataQuery);
+            CutSetOptimizer.CutSet cutSet = optimizer.optimize(optimizedNode);
+            if (cutSet.getOverflow() > 0) {
+                logger.warn("Не удалось уложить все этапы в лимит стоимости {}: превышение {}",
+                    stageCostCap, cutSet.getOverflow());
+            }
+
+            StageBuilder stageBuilder = new StageBuilder(cutSet.getCuts(), sqlGenerator, pipelineFusion);
+            List<SubQuery> subQueries = stageBuilder.build(optimizedNode);
+            List<String> cutPoints = new ArrayList<>();
+            for (Map.Entry<RelNode, SubQuery> producer : stageBuilder.getProducers().entrySet()) {
+                cutPoints.add(producer.getValue().getTemporaryTableName() + " <- " + describeNode(producer.getKey()));
+            }
+            Collections.sort(cutPoints);
+
+            // Построенные этапы отличаются от решения поиска: повторяющиеся поддеревья
+            // материализуются дополнительно, а встроенные источники не образуют этапов
+            double objectiveValue = objectiveValue(subQueries, objective, parallelWorkers);
+            logger.debug("Создано {} подзапросов, целевая функция {} = {} (оценка поиска {})",
+                subQueries.size(), objective, objectiveValue, cutSet.getObjectiveValue());
+            return new SplitPlan(subQueries, objective, objectiveValue, cutPoints);
+
+        } catch (Exception e) {
+            logger.error("Ошибка поиска оптимального разбиения запроса", e);
+            List<SubQuery> subQueries = new ArrayList<>();
+            subQueries.add(createSubQuery(optimizedNode, sqlGenerator, "Q1", Collections.emptyList()));
+            return new SplitPlan(subQueries, objective, Double.NaN, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Находит одинаковые поддеревья в планах пакета запросов и выносит каждое из них
+     * в общую временную таблицу. Совпадения ищутся только между планами с одинаковой
+     * областью (scope), например построенными по одним и тем же метаданным
+     */
+    public SharedSubtrees extractCommonSubtrees(List<RelNode> roots, List<String> scopes, List<TargetDialect> dialects) {
+        SharedSubtreeExtractor extractor = new SharedSubtreeExtractor("S", "shared_");
+        try {
+            for (int i = 0; i < roots.size(); i++) {
+                extractor.register(scopes.get(i), roots.get(i));
+            }
+            List<RelNode> rewrittenRoots = new ArrayList<>();
+            for (int i = 0; i < roots.size(); i++) {
+                rewrittenRoots.add(extractor.rewrite(scopes.get(i), roots.get(i), dialects.get(i)));
+            }
+            logger.info("Найдено {} общих подзапросов в пакете из {} запросов",
+                extractor.getSharedSubQueries().size(), roots.size());
+            return new SharedSubtrees(extractor.getSharedSubQueries(), rewrittenRoots, extractor.getSavedCost());
+
+        } catch (Exception e) {
+            logger.error("Ошибка поиска общих подзапросов в пакете", e);
+            return new SharedSubtrees(Collections.emptyList(), roots, 0);
+        }
+    }
+
+    /**
+     * Значение целевой функции для построенных подзапросов
+     */
+    private static double objectiveValue(List<SubQuery> subQueries, SplitObjective objective, int parallelWorkers) {
+        switch (objective) {
+            case TOTAL_MATERIALIZATION:
+                double bytes = 0;
+                for (SubQuery subQuery : subQueries) {
+                    if (subQuery.isTemporaryTable()) {
+                        bytes += subQuery.getEstimatedBytes();
+                    }
+                }
+                return bytes;
+            case STAGE_COUNT:
+                return subQueries.size();
+            case MAKESPAN:
+            default:
+                // Подзапросы перечислены в порядке выполнения, источники раньше потребителей
+                Map<String, Double> finish = new HashMap<>();
+                double totalWork = 0;
+                double criticalPath = 0;
+                for (SubQuery subQuery : subQueries) {
+                    double start = 0;
+                    for (String dependency : subQuery.getDependencies()) {
+                        start = Math.max(start, finish.getOrDefault(dependency, 0.0));
+                    }
+                    finish.put(subQuery.getId(), start + subQuery.getCost());
+                    criticalPath = Math.max(criticalPath, start + subQuery.getCost());
+                    totalWork += subQuery.getCost();
+                }
+                return Math.max(criticalPath, totalWork / Math.max(1, parallelWorkers));
+        }
+    }
+
+    /**
+     * Возвращает однострочное описание оператора без дочерних узлов
+     */
+    private String describeNode(RelNode node) {
+        String explain = RelOptUtil.toString(node);
+        int lineEnd = explain.indexOf('\n');
+        return lineEnd >= 0 ? explain.substring(0, lineEnd).trim() : explain.trim();
+    }
+
+    /**
+     * Выбирает узлы для материализации так, чтобы этапы не превышали бюджет памяти.
+     * Возвращает объем промежуточных результатов этапа, в который входит узел
+     */
+    private long chooseMemoryCuts(RelNode node, long memoryBudgetBytes, RelMetadataQuery metadataQuery,
+                                  Set<RelNode> cuts, boolean cutsAllowed) {
+        long footprint = RelSizeEstimator.estimateFootprint(node, metadataQuery);
+        Map<RelNode, Long> candidates = new IdentityHashMap<>();
+
+        List<RelNode> children = getChildren(node);
+        for (int i = 0; i < children.size(); i++) {
+            RelNode child = children.get(i);
+            boolean childCutsAllowed = cutsAllowed && !(node instanceof Correlate && i > 0);
+            long childFootprint = chooseMemoryCuts(child, memoryBudgetBytes, metadataQuery, cuts, childCutsAllowed);
+            footprint += childFootprint;
+            if (childCutsAllowed && canMaterialize(child) && childFootprint > 0) {
+                candidates.put(child, childFootprint);
+            }
+        }
+
+        // Выносим в отдельные этапы самые тяжелые поддеревья, пока этап не уложится в бюджет
+        List<Map.Entry<RelNode, Long>> ordered = new ArrayList<>(candidates.entrySet());
+        ordered.sort(Map.Entry.<RelNode, Long>comparingByValue().reversed());
+        for (Map.Entry<RelNode, Long> candidate : ordered) {
+            if (footprint <= memoryBudgetBytes) {
+                break;
+            }
+            cuts.add(candidate.getKey());
+            footprint -= candidate.getValue();
+        }
+
+        if (footprint > memoryBudgetBytes) {
+            logger.debug("Узел {} превышает бюджет памяти: {} байт", node.getRelTypeName(), footprint);
+        }
+        return footprint;
+    }
+
+    /**
+     * Проверяет, имеет ли смысл материализовать поддерево во временную таблицу
+     */
+    private boolean canMaterialize(RelNode node) {
+        return !(node instanceof TableScan);
+    }
+
     /**
      * Разбивает RelNode на части на основе стоимости
      */
@@ -117,10 +338,11 @@ public class QuerySplitter {
     /**
      * Создает подзапрос из RelNode
      */
-    private SubQuery createSubQuery(RelNode relNode, FrameworkConfig config, String queryId, List<String> dependencies) {
+    private SubQuery createSubQuery(RelNode relNode, DialectSqlGenerator sqlGenerator, String queryId,
+                                    List<String> dependencies) {
         try {
             // Преобразуем RelNode обратно в SQL
-            String sql = relNodeToSql(relNode, config);
+            String sql = sqlGenerator.toSql(relNode);
             
             // Вычисляем стоимость
             RelMetadataQuery metadataQuery = RelMetadataQuery.instance();
@@ -128,11 +350,13 @@ public class QuerySplitter {
             
             // Определяем, нужна ли временная таблица
             boolean isTemporaryTable = dependencies.size() > 0;
-            String tempTableName = isTemporaryTable ? "temp_" + (++tempTableCounter) : null;
+            String tempTableName = isTemporaryTable ? "temp_" + queryId.toLowerCase(Locale.ROOT) : null;
             
             SubQuery subQuery = new SubQuery(queryId, sql, cost, dependencies);
             subQuery.setTemporaryTable(isTemporaryTable);
             subQuery.setTemporaryTableName(tempTableName);
+            subQuery.setEstimatedRows(RelSizeEstimator.estimateRows(relNode, metadataQuery));
+            subQuery.setEstimatedBytes(RelSizeEstimator.estimateBytes(relNode, metadataQuery));
             subQuery.setDescription("Подзапрос " + queryId + " со стоимостью " + cost);
             
             return subQuery;
@@ -144,24 +368,6 @@ public class QuerySplitter {
         }
     }
 
-    /**
-     * Преобразует RelNode в SQL строку
-     */
-    private String relNodeToSql(RelNode relNode, FrameworkConfig config) {
-        try {
-            // Создаем RelBuilder для преобразования
-            RelBuilder relBuilder = RelBuilder.create(config);
-            
-            // Преобразуем в SQL (упрощенная версия)
-            // В реальной реализации здесь должен быть более сложный код
-            return "SELECT * FROM (" + relNode.toString() + ")";
-            
-        } catch (Exception e) {
-            logger.error("Ошибка преобразования RelNode в SQL", e);
-            return "SELECT 1"; // Fallback
-        }
-    }
-
     /**
      * Определяет зависимости между подзапросами
      */
@@ -0,0 +1,121 @@
+package com.optimizer.splitter;
+
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+
+/**
+ * Оценка объема промежуточных результатов узлов плана в байтах
+ */
+public class RelSizeEstimator {
+    /** Средняя ширина строковой колонки без явной длины */
+    static final int DEFAULT_VARCHAR_BYTES = 32;
+    /** Накладные расходы на хранение одной строки результата */
+    static final int ROW_OVERHEAD_BYTES = 8;
+
+    private RelSizeEstimator() {
+    }
+
+    /**
+     * Оценивает количество строк на выходе узла
+     */
+    public static double estimateRows(RelNode node, RelMetadataQuery metadataQuery) {
+        Double rows = metadataQuery.getRowCount(node);
+        return rows == null || rows.isNaN() || rows < 0 ? 0.0 : rows;
+    }
+
+    /**
+     * Оценивает объем результата узла в байтах по числу строк и ширине колонок
+     */
+    public static long estimateBytes(RelNode node, RelMetadataQuery metadataQuery) {
+        double bytes = estimateRows(node, metadataQuery) * estimateRowBytes(node.getRowType());
+        return bytes >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) Math.ceil(bytes);
+    }
+
+    /**
+     * Оценивает объем промежуточного результата, который узел удерживает в памяти.
+     * Сканирования читают данные потоком и промежуточный результат не создают
+     */
+    public static long estimateFootprint(RelNode node, RelMetadataQuery metadataQuery) {
+        if (node instanceof TableScan) {
+            return 0L;
+        }
+        return estimateBytes(node, metadataQuery);
+    }
+
+    /**
+     * Количество узлов плана
+     */
+    public static int countNodes(RelNode node) {
+        int count = 1;
+        for (RelNode input : node.getInputs()) {
+            count += countNodes(input);
+        }
+        return count;
+    }
+
+    /**
+     * Количество сканирований таблиц в плане
+     */
+    public static int countTables(RelNode node) {
+        int count = node instanceof TableScan ? 1 : 0;
+        for (RelNode input : node.getInputs()) {
+            count += countTables(input);
+        }
+        return count;
+    }
+
+    /**
+     * Оценивает ширину строки в байтах по типу строки
+     */
+    public static int estimateRowBytes(RelDataType rowType) {
+        int bytes = ROW_OVERHEAD_BYTES;
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            bytes += estimateFieldBytes(field.getType());
+        }
+        return bytes;
+    }
+
+    /**
+     * Оценивает ширину значения одной колонки в байтах
+     */
+    private static int estimateFieldBytes(RelDataType type) {
+        if (type.isStruct()) {
+            return estimateRowBytes(type);
+        }
+        if (type.getSqlTypeName() == null) {
+            return DEFAULT_VARCHAR_BYTES;
+        }
+        switch (type.getSqlTypeName()) {
+            case BOOLEAN:
+            case TINYINT:
+                return 1;
+            case SMALLINT:
+                return 2;
+            case INTEGER:
+            case REAL:
+            case DATE:
+            case TIME:
+                return 4;
+            case BIGINT:
+            case FLOAT:
+            case DOUBLE:
+            case TIMESTAMP:
+            case TIMESTAMP_WITH_LOCAL_TIME_ZONE:
+                return 8;
+            case DECIMAL:
+                return 16;
+            case CHAR:
+            case BINARY:
+                return Math.max(1, type.getPrecision());
+            case VARCHAR:
+            case VARBINARY:
+                int precision = type.getPrecision();
+                return precision > 0 && precision < DEFAULT_VARCHAR_BYTES ? precision : DEFAULT_VARCHAR_BYTES;
+            default:
+                return DEFAULT_VARCHAR_BYTES;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.SubQuery;
+import com.optimizer.model.TargetDialect;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.sql.SqlExplainLevel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Поиск одинаковых поддеревьев в нескольких планах и вынос каждого из них
+ * в общую временную таблицу, которая вычисляется один раз.
+ *
+ * Поддеревья сравниваются по структурному ключу: текстовому представлению плана
+ * без идентификаторов узлов, поэтому совпадают поддеревья из разных кластеров
+ */
+class SharedSubtreeExtractor {
+    private final Map<RelNode, String> keys = new IdentityHashMap<>();
+    private final Map<String, Integer> occurrences = new HashMap<>();
+    private final Map<String, SubQuery> producers = new HashMap<>();
+    private final Map<String, Integer> uses = new HashMap<>();
+    private final List<SubQuery> sharedSubQueries = new ArrayList<>();
+    private final String idPrefix;
+    private final String tablePrefix;
+
+    /**
+     * @param idPrefix    префикс идентификаторов общих подзапросов
+     * @param tablePrefix префикс имен общих временных таблиц
+     */
+    SharedSubtreeExtractor(String idPrefix, String tablePrefix) {
+        this.idPrefix = idPrefix;
+        this.tablePrefix = tablePrefix;
+    }
+
+    /**
+     * Структурный ключ поддерева: одинаков для эквивалентных поддеревьев
+     * независимо от кластера и идентификаторов узлов
+     */
+    static String structuralKey(RelNode node) {
+        return RelOptUtil.toString(node, SqlExplainLevel.DIGEST_ATTRIBUTES) + node.getRowType().getFullTypeString();
+    }
+
+    /**
+     * Учитывает поддеревья плана. Планы из разных областей (например, с разными
+     * метаданными) никогда не считаются совпадающими
+     */
+    void register(String scope, RelNode root) {
+        if (isShareable(root)) {
+            occurrences.merge(key(scope, root), 1, Integer::sum);
+        }
+        for (RelNode input : root.getInputs()) {
+            register(scope, input);
+        }
+    }
+
+    /**
+     * Находит поддеревья, которые повторяются внутри одного плана. Возвращает все
+     * вхождения наибольших повторяющихся поддеревьев, вынос которых выгоден
+     */
+    static Set<RelNode> findDuplicates(RelNode root) {
+        SharedSubtreeExtractor extractor = new SharedSubtreeExtractor("", "");
+        extractor.register("", root);
+        Set<RelNode> duplicates = Collections.newSetFromMap(new IdentityHashMap<>());
+        extractor.collectShared(root, 0, duplicates);
+        return duplicates;
+    }
+
+    private void collectShared(RelNode node, int parentOccurrences, Set<RelNode> shared) {
+        int count = isShareable(node) ? occurrences.getOrDefault(key("", node), 0) : 0;
+        if (count > 1 && count > parentOccurrences && isWorthSharing(node, count)) {
+            shared.add(node);
+        }
+        for (RelNode input : node.getInputs()) {
+            collectShared(input, count, shared);
+        }
+    }
+
+    /**
+     * Заменяет общие поддеревья плана сканированием общих временных таблиц,
+     * создавая подзапрос для каждого из них при первой встрече
+     */
+    RelNode rewrite(String scope, RelNode root, TargetDialect dialect) {
+        return rewrite(scope, root, 0, new DialectSqlGenerator(dialect));
+    }
+
+    /**
+     * Общие подзапросы в порядке выполнения
+     */
+    List<SubQuery> getSharedSubQueries() {
+        return sharedSubQueries;
+    }
+
+    /**
+     * Стоимость повторных вычислений, которых удалось избежать
+     */
+    double getSavedCost() {
+        double saved = 0;
+        for (Map.Entry<String, SubQuery> producer : producers.entrySet()) {
+            saved += producer.getValue().getCost() * (uses.get(producer.getKey()) - 1);
+        }
+        return saved;
+    }
+
+    private RelNode rewrite(String scope, RelNode node, int parentOccurrences, DialectSqlGenerator sqlGenerator) {
+        String key = isShareable(node) ? key(scope, node) : null;
+        int count = key != null ? occurrences.getOrDefault(key, 0) : 0;
+
+        // Выносится наибольшее общее поддерево: вложенное выносится отдельно,
+        // только если встречается и вне его
+        if (count > 1 && count > parentOccurrences && isWorthSharing(node, count)) {
+            SubQuery producer = producers.get(key);
+            RelNode producerRoot;
+            if (producer == null) {
+                producerRoot = rewriteInputs(scope, node, count, sqlGenerator);
+                producer = createSharedStage(producerRoot, sqlGenerator);
+                producers.put(key, producer);
+            } else {
+                producerRoot = node;
+            }
+            uses.merge(key, 1, Integer::sum);
+            return TemporaryTable.createScan(node.getCluster(), producerRoot,
+                producer.getTemporaryTableName(), producer.getId());
+        }
+        return rewriteInputs(scope, node, count, sqlGenerator);
+    }
+
+    private RelNode rewriteInputs(String scope, RelNode node, int occurrences, DialectSqlGenerator sqlGenerator) {
+        List<RelNode> newInputs = new ArrayList<>();
+        boolean changed = false;
+        for (RelNode input : node.getInputs()) {
+            RelNode newInput = rewrite(scope, input, occurrences, sqlGenerator);
+            changed |= newInput != input;
+            newInputs.add(newInput);
+        }
+        return changed ? node.copy(node.getTraitSet(), newInputs) : node;
+    }
+
+    private SubQuery createSharedStage(RelNode producerRoot, DialectSqlGenerator sqlGenerator) {
+        RelMetadataQuery metadataQuery = producerRoot.getCluster().getMetadataQuery();
+        int number = sharedSubQueries.size() + 1;
+        String queryId = idPrefix + number;
+        String tableName = sqlGenerator.temporaryTableName(tablePrefix + number);
+        double cost = metadataQuery.getCumulativeCost(producerRoot).getRows();
+        String sql = sqlGenerator.toSql(producerRoot);
+
+        SubQuery subQuery = new SubQuery(queryId, sql, cost, TemporaryTable.producerIds(producerRoot));
+        subQuery.setTemporaryTable(true);
+        subQuery.setTemporaryTableName(tableName);
+        subQuery.setEstimatedRows(RelSizeEstimator.estimateRows(producerRoot, metadataQuery));
+        subQuery.setEstimatedBytes(RelSizeEstimator.estimateBytes(producerRoot, metadataQuery));
+        subQuery.setDistributionKeys(Collections.emptyList());
+        subQuery.setPartitionKeys(Collections.emptyList());
+        subQuery.setDdl(sqlGenerator.createTemporaryTable(tableName, sql,
+            Collections.emptyList(), Collections.emptyList()));
+        subQuery.setDropDdl(sqlGenerator.dropTemporaryTable(tableName));
+        subQuery.setDescription("Общий подзапрос " + queryId + " со стоимостью " + cost);
+        sharedSubQueries.add(subQuery);
+        return subQuery;
+    }
+
+    /**
+     * Вынос выгоден, если повторные вычисления поддерева дороже чтения
+     * его результата всеми потребителями
+     */
+    private static boolean isWorthSharing(RelNode node, int count) {
+        RelMetadataQuery metadataQuery = node.getCluster().getMetadataQuery();
+        double cost = metadataQuery.getCumulativeCost(node).getRows();
+        double rows = RelSizeEstimator.estimateRows(node, metadataQuery);
+        return (count - 1) * cost > count * rows;
+    }
+
+    /**
+     * Сканирования таблиц не выносятся, а поддеревья с коррелированными
+     * переменными нельзя вычислить отдельно от внешнего запроса
+     */
+    private static boolean isShareable(RelNode node) {
+        return !(node instanceof TableScan) && RelOptUtil.getVariablesUsed(node).isEmpty();
+    }
+
+    private String key(String scope, RelNode node) {
+        return scope + '\n' + keys.computeIfAbsent(node, SharedSubtreeExtractor::structuralKey);
+    }
+}
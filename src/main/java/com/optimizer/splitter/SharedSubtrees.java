@@ -0,0 +1,42 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.SubQuery;
+import org.apache.calcite.rel.RelNode;
+
+import java.util.List;
+
+/**
+ * Результат выноса общих поддеревьев пакета запросов в общие временные таблицы
+ */
+public class SharedSubtrees {
+    private final List<SubQuery> sharedSubQueries;
+    private final List<RelNode> rewrittenRoots;
+    private final double savedCost;
+
+    public SharedSubtrees(List<SubQuery> sharedSubQueries, List<RelNode> rewrittenRoots, double savedCost) {
+        this.sharedSubQueries = sharedSubQueries;
+        this.rewrittenRoots = rewrittenRoots;
+        this.savedCost = savedCost;
+    }
+
+    /**
+     * Общие подзапросы в порядке выполнения
+     */
+    public List<SubQuery> getSharedSubQueries() {
+        return sharedSubQueries;
+    }
+
+    /**
+     * Планы запросов, в которых общие поддеревья заменены сканированием общих временных таблиц
+     */
+    public List<RelNode> getRewrittenRoots() {
+        return rewrittenRoots;
+    }
+
+    /**
+     * Стоимость повторных вычислений общих поддеревьев, которых удалось избежать
+     */
+    public double getSavedCost() {
+        return savedCost;
+    }
+}
@@ -0,0 +1,42 @@
+package com.optimizer.splitter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Событие Java Flight Recorder для решения о точке разбиения: поддерево материализуется
+ * во временную таблицу, встраивается как CTE или читает уже материализованный результат.
+ * Событие записывается внутри события этапа SPLITTING того же потока
+ */
+@Name("com.optimizer.SplitCut")
+@Label("Split Cut")
+@Category({"SQL Optimizer"})
+@Description("Решение о точке разбиения плана в QuerySplitter")
+class SplitCutEvent extends Event {
+    @Label("Decision")
+    String decision;
+
+    @Label("Temporary Table")
+    String temporaryTable;
+
+    @Label("Operator")
+    String operator;
+
+    @Label("Boundary")
+    String boundary;
+
+    @Label("Table Count")
+    int tableCount;
+
+    @Label("RelNode Count")
+    int relNodeCount;
+
+    @Label("Estimated Rows")
+    double estimatedRows;
+
+    @Label("Estimated Cost")
+    double estimatedCost;
+}
@@ -0,0 +1,42 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.SplitObjective;
+import com.optimizer.model.SubQuery;
+
+import java.util.List;
+
+/**
+ * Результат разбиения запроса с поиском оптимального набора точек разбиения
+ */
+public class SplitPlan {
+    private final List<SubQuery> subQueries;
+    private final SplitObjective objective;
+    private final double objectiveValue;
+    private final List<String> cutPoints;
+
+    public SplitPlan(List<SubQuery> subQueries, SplitObjective objective, double objectiveValue, List<String> cutPoints) {
+        this.subQueries = subQueries;
+        this.objective = objective;
+        this.objectiveValue = objectiveValue;
+        this.cutPoints = cutPoints;
+    }
+
+    public List<SubQuery> getSubQueries() {
+        return subQueries;
+    }
+
+    public SplitObjective getObjective() {
+        return objective;
+    }
+
+    public double getObjectiveValue() {
+        return objectiveValue;
+    }
+
+    /**
+     * Описания выбранных точек разбиения в виде "временная таблица <- оператор"
+     */
+    public List<String> getCutPoints() {
+        return cutPoints;
+    }
+}
@@ -0,0 +1,342 @@
+package com.optimizer.splitter;
+
+import com.optimizer.model.BoundaryType;
+import com.optimizer.model.SubQuery;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.SetOp;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Строит подзапросы по выбранным точкам разбиения: каждое отмеченное поддерево
+ * материализуется во временную таблицу, а потребители читают ее вместо поддерева.
+ *
+ * Ключи распределения временной таблицы выбираются по ключам соединения и группировки,
+ * с которыми ее результат используется в подзапросе-потребителе
+ */
+class StageBuilder {
+    /** Максимальное число различных значений ключа, при котором по нему имеет смысл секционировать */
+    static final double MAX_PARTITIONS = 1000;
+
+    private final Set<RelNode> cuts;
+    private final DialectSqlGenerator sqlGenerator;
+    private final boolean pipelineFusion;
+    private final List<SubQuery> subQueries = new ArrayList<>();
+    private final Map<RelNode, SubQuery> producers = new IdentityHashMap<>();
+    private final Map<String, SubQuery> producersByKey = new HashMap<>();
+    private final Map<String, RelNode> producerRootsByKey = new HashMap<>();
+    private Set<RelNode> duplicates = Collections.emptySet();
+    private int temporaryTableCount;
+
+    StageBuilder(Set<RelNode> cuts, DialectSqlGenerator sqlGenerator) {
+        this(cuts, sqlGenerator, false);
+    }
+
+    /**
+     * @param pipelineFusion встраивать источники с потоковой границей в SQL потребителя
+     *                       в виде CTE вместо материализации во временные таблицы
+     */
+    StageBuilder(Set<RelNode> cuts, DialectSqlGenerator sqlGenerator, boolean pipelineFusion) {
+        this.cuts = cuts;
+        this.sqlGenerator = sqlGenerator;
+        this.pipelineFusion = pipelineFusion;
+    }
+
+    /**
+     * Строит подзапросы для плана. Подзапросы возвращаются в порядке выполнения.
+     * Повторяющиеся в плане поддеревья материализуются один раз, все их вхождения
+     * читают одну временную таблицу
+     */
+    List<SubQuery> build(RelNode root) {
+        duplicates = SharedSubtreeExtractor.findDuplicates(root);
+        StageContext context = new StageContext();
+        TemporaryTable temporaryTable = TemporaryTable.of(root);
+        if (temporaryTable != null && temporaryTable.getProducerId() != null) {
+            context.addDependency(temporaryTable.getProducerId(), BoundaryType.BLOCKING);
+        }
+        RelNode stageRoot = rewrite(root, KeyHints.NONE, context);
+        subQueries.add(createStage(stageRoot, null, context, KeyHints.NONE));
+        return subQueries;
+    }
+
+    /**
+     * Материализованные поддеревья и соответствующие им подзапросы
+     */
+    Map<RelNode, SubQuery> getProducers() {
+        return producers;
+    }
+
+    /**
+     * Заменяет отмеченные поддеревья сканированием временных таблиц,
+     * предварительно создавая для них подзапросы
+     */
+    private RelNode rewrite(RelNode node, KeyHints hints, StageContext context) {
+        List<RelNode> inputs = node.getInputs();
+        List<RelNode> newInputs = new ArrayList<>(inputs.size());
+        boolean changed = false;
+
+        for (int i = 0; i < inputs.size(); i++) {
+            RelNode input = inputs.get(i);
+            KeyHints inputHints = hintsForInput(node, i, hints);
+            RelNode newInput;
+            boolean duplicate = duplicates.contains(input);
+            String key = duplicate || cuts.contains(input) ? SharedSubtreeExtractor.structuralKey(input) : null;
+            if (key != null && producersByKey.containsKey(key)) {
+                // Такое же поддерево уже материализовано
+                SplitCutEvent event = new SplitCutEvent();
+                event.begin();
+                SubQuery producer = producersByKey.get(key);
+                RelNode producerRoot = producerRootsByKey.get(key);
+                BoundaryType boundary = BoundaryClassifier.classify(node, i, producerRoot);
+                context.addDependency(producer.getId(), boundary);
+                newInput = TemporaryTable.createScan(input.getCluster(), producerRoot,
+                    producer.getTemporaryTableName(), producer.getId());
+                commitCutEvent(event, "REUSED", producer.getTemporaryTableName(), input, boundary);
+            } else if (key != null) {
+                SplitCutEvent event = new SplitCutEvent();
+                event.begin();
+                StageContext producerContext = new StageContext();
+                RelNode producerRoot = rewrite(input, KeyHints.NONE, producerContext);
+                String tempTableName = sqlGenerator.temporaryTableName("temp_" + (++temporaryTableCount));
+                BoundaryType boundary = BoundaryClassifier.classify(node, i, producerRoot);
+                String producerId = null;
+                // Повторяющееся поддерево не встраивается, иначе оно вычислялось бы в каждом потребителе
+                if (pipelineFusion && !duplicate && boundary == BoundaryType.PIPELINED) {
+                    // Источник встраивается в SQL потребителя как CTE с именем временной таблицы
+                    context.inline(producerContext, tempTableName, sqlGenerator.toSql(producerRoot),
+                        producerRoot.getCluster().getMetadataQuery().getCumulativeCost(producerRoot).getRows());
+                    commitCutEvent(event, "INLINED", tempTableName, input, boundary);
+                } else {
+                    SubQuery producer = createStage(producerRoot, tempTableName, producerContext, inputHints);
+                    subQueries.add(producer);
+                    producers.put(input, producer);
+                    producerId = producer.getId();
+                    producersByKey.put(key, producer);
+                    producerRootsByKey.put(key, producerRoot);
+                    context.addDependency(producerId, boundary);
+                    commitCutEvent(event, "MATERIALIZED", tempTableName, input, boundary);
+                }
+                newInput = TemporaryTable.createScan(input.getCluster(), producerRoot, tempTableName, producerId);
+            } else {
+                // Временные таблицы, созданные до разбиения (например, общие для пакета запросов)
+                TemporaryTable temporaryTable = TemporaryTable.of(input);
+                if (temporaryTable != null && temporaryTable.getProducerId() != null) {
+                    context.addDependency(temporaryTable.getProducerId(),
+                        BoundaryClassifier.classify(node, i, temporaryTable.getProducerRoot()));
+                }
+                newInput = rewrite(input, inputHints, context);
+            }
+            changed |= newInput != input;
+            newInputs.add(newInput);
+        }
+
+        return changed ? node.copy(node.getTraitSet(), newInputs) : node;
+    }
+
+    /**
+     * Записывает событие Flight Recorder о решении по точке разбиения, если идет запись
+     */
+    private static void commitCutEvent(SplitCutEvent event, String decision, String tableName,
+                                       RelNode subtree, BoundaryType boundary) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        RelMetadataQuery metadataQuery = subtree.getCluster().getMetadataQuery();
+        event.decision = decision;
+        event.temporaryTable = tableName;
+        event.operator = subtree.getRelTypeName();
+        event.boundary = boundary.name();
+        event.tableCount = RelSizeEstimator.countTables(subtree);
+        event.relNodeCount = RelSizeEstimator.countNodes(subtree);
+        event.estimatedRows = RelSizeEstimator.estimateRows(subtree, metadataQuery);
+        event.estimatedCost = metadataQuery.getCumulativeCost(subtree).getRows();
+        event.commit();
+    }
+
+    /**
+     * Создает подзапрос для одного этапа разбиения
+     */
+    private SubQuery createStage(RelNode stageRoot, String tempTableName, StageContext context, KeyHints hints) {
+        RelMetadataQuery metadataQuery = stageRoot.getCluster().getMetadataQuery();
+        // Стоимость встроенных CTE выполняется в составе этого подзапроса
+        double cost = metadataQuery.getCumulativeCost(stageRoot).getRows() + context.inlinedCost;
+        String queryId = "Q" + (subQueries.size() + 1);
+        String sql = context.withClause(sqlGenerator) + sqlGenerator.toSql(stageRoot);
+
+        SubQuery subQuery = new SubQuery(queryId, sql, cost, context.dependencies);
+        subQuery.setBoundaryTypes(context.boundaries);
+        subQuery.setInlinedCtes(context.cteNames);
+        subQuery.setTemporaryTable(tempTableName != null);
+        subQuery.setTemporaryTableName(tempTableName);
+        subQuery.setEstimatedRows(RelSizeEstimator.estimateRows(stageRoot, metadataQuery));
+        subQuery.setEstimatedBytes(RelSizeEstimator.estimateBytes(stageRoot, metadataQuery));
+        subQuery.setDescription("Подзапрос " + queryId + " со стоимостью " + cost);
+
+        if (tempTableName != null) {
+            List<String> fieldNames = stageRoot.getRowType().getFieldNames();
+            ImmutableBitSet distribution = hints.joinKeys.isEmpty() ? hints.groupKeys : hints.joinKeys;
+            List<String> distributionKeys = fieldNames(fieldNames, distribution);
+            List<String> partitionKeys = Collections.emptyList();
+            if (sqlGenerator.supportsPartitioning() && !hints.groupKeys.isEmpty()) {
+                Double distinct = metadataQuery.getDistinctRowCount(stageRoot, hints.groupKeys, null);
+                if (distinct != null && distinct <= MAX_PARTITIONS) {
+                    partitionKeys = fieldNames(fieldNames, hints.groupKeys);
+                }
+            }
+            subQuery.setDistributionKeys(distributionKeys);
+            subQuery.setPartitionKeys(partitionKeys);
+            subQuery.setDdl(sqlGenerator.createTemporaryTable(tempTableName, sql, distributionKeys, partitionKeys));
+            subQuery.setDropDdl(sqlGenerator.dropTemporaryTable(tempTableName));
+        }
+        return subQuery;
+    }
+
+    private static List<String> fieldNames(List<String> names, ImmutableBitSet keys) {
+        List<String> result = new ArrayList<>();
+        for (int key : keys) {
+            if (key < names.size()) {
+                result.add(names.get(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Переносит ключи, используемые выше по плану, на колонки входа узла
+     */
+    private static KeyHints hintsForInput(RelNode node, int ordinal, KeyHints hints) {
+        if (node instanceof Join) {
+            Join join = (Join) node;
+            JoinInfo joinInfo = join.analyzeCondition();
+            int offset = ordinal == 0 ? 0 : join.getLeft().getRowType().getFieldCount();
+            int fieldCount = node.getInput(ordinal).getRowType().getFieldCount();
+            ImmutableBitSet ownKeys = ImmutableBitSet.of(ordinal == 0 ? joinInfo.leftKeys : joinInfo.rightKeys);
+            return new KeyHints(
+                ownKeys.isEmpty() ? shift(hints.joinKeys, offset, fieldCount) : ownKeys,
+                shift(hints.groupKeys, offset, fieldCount));
+        }
+        if (node instanceof Aggregate) {
+            Aggregate aggregate = (Aggregate) node;
+            List<Integer> groupColumns = aggregate.getGroupSet().asList();
+            ImmutableBitSet.Builder joinKeys = ImmutableBitSet.builder();
+            for (int key : hints.joinKeys) {
+                if (key < groupColumns.size()) {
+                    joinKeys.set(groupColumns.get(key));
+                }
+            }
+            return new KeyHints(joinKeys.build(), aggregate.getGroupSet());
+        }
+        if (node instanceof Project) {
+            List<RexNode> projects = ((Project) node).getProjects();
+            return new KeyHints(mapThroughProject(projects, hints.joinKeys), mapThroughProject(projects, hints.groupKeys));
+        }
+        if (node instanceof Filter || node instanceof Sort || node instanceof SetOp) {
+            return hints;
+        }
+        return KeyHints.NONE;
+    }
+
+    private static ImmutableBitSet shift(ImmutableBitSet keys, int offset, int fieldCount) {
+        ImmutableBitSet.Builder result = ImmutableBitSet.builder();
+        for (int key : keys) {
+            if (key >= offset && key < offset + fieldCount) {
+                result.set(key - offset);
+            }
+        }
+        return result.build();
+    }
+
+    private static ImmutableBitSet mapThroughProject(List<RexNode> projects, ImmutableBitSet keys) {
+        ImmutableBitSet.Builder result = ImmutableBitSet.builder();
+        for (int key : keys) {
+            if (key < projects.size() && projects.get(key) instanceof RexInputRef) {
+                result.set(((RexInputRef) projects.get(key)).getIndex());
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * Состояние одного строящегося этапа: зависимости от материализованных
+     * источников и встроенные в него CTE
+     */
+    private static final class StageContext {
+        final List<String> dependencies = new ArrayList<>();
+        final Map<String, BoundaryType> boundaries = new LinkedHashMap<>();
+        final List<String> cteNames = new ArrayList<>();
+        final List<String> cteSql = new ArrayList<>();
+        double inlinedCost;
+
+        void addDependency(String producerId, BoundaryType boundary) {
+            if (!dependencies.contains(producerId)) {
+                dependencies.add(producerId);
+            }
+            // Если источник читается несколькими входами, достаточно одного блокирующего
+            if (boundaries.get(producerId) != BoundaryType.BLOCKING) {
+                boundaries.put(producerId, boundary);
+            }
+        }
+
+        /**
+         * Встраивает источник вместе с его собственными CTE и зависимостями
+         */
+        void inline(StageContext producer, String name, String sql, double cost) {
+            for (String dependency : producer.dependencies) {
+                addDependency(dependency, producer.boundaries.get(dependency));
+            }
+            cteNames.addAll(producer.cteNames);
+            cteSql.addAll(producer.cteSql);
+            cteNames.add(name);
+            cteSql.add(sql);
+            inlinedCost += producer.inlinedCost + cost;
+        }
+
+        String withClause(DialectSqlGenerator sqlGenerator) {
+            if (cteNames.isEmpty()) {
+                return "";
+            }
+            StringBuilder with = new StringBuilder("WITH ");
+            for (int i = 0; i < cteNames.size(); i++) {
+                if (i > 0) {
+                    with.append(",\n");
+                }
+                with.append(sqlGenerator.quoteIdentifier(cteNames.get(i)))
+                    .append(" AS (\n").append(cteSql.get(i)).append("\n)");
+            }
+            return with.append('\n').toString();
+        }
+    }
+
+    /**
+     * Колонки результата, по которым потребитель соединяет или группирует данные
+     */
+    private static final class KeyHints {
+        static final KeyHints NONE = new KeyHints(ImmutableBitSet.of(), ImmutableBitSet.of());
+
+        final ImmutableBitSet joinKeys;
+        final ImmutableBitSet groupKeys;
+
+        KeyHints(ImmutableBitSet joinKeys, ImmutableBitSet groupKeys) {
+            this.joinKeys = joinKeys;
+            this.groupKeys = groupKeys;
+        }
+    }
+}
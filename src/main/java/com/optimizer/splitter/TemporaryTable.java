@@ -0,0 +1,103 @@
+package com.optimizer.splitter;
+
+import org.apache.calcite.linq4j.tree.TableExpressionFactory;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.prepare.RelOptTableImpl;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Временная таблица с результатом подзапроса. Сканирование такой таблицы заменяет
+ * в плане потребителя материализованное поддерево и хранит ссылку на подзапрос-источник
+ */
+class TemporaryTable extends AbstractTable {
+    private final RelDataType rowType;
+    private final double rowCount;
+    private final String producerId;
+    private final RelNode producerRoot;
+
+    private TemporaryTable(RelDataType rowType, double rowCount, String producerId, RelNode producerRoot) {
+        this.rowType = rowType;
+        this.rowCount = rowCount;
+        this.producerId = producerId;
+        this.producerRoot = producerRoot;
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return rowType;
+    }
+
+    @Override
+    public Statistic getStatistic() {
+        return Statistics.of(rowCount, null);
+    }
+
+    /**
+     * Идентификатор подзапроса, который заполняет таблицу (null, если источник встроен как CTE)
+     */
+    String getProducerId() {
+        return producerId;
+    }
+
+    /**
+     * Корень плана подзапроса-источника
+     */
+    RelNode getProducerRoot() {
+        return producerRoot;
+    }
+
+    /**
+     * Создает сканирование временной таблицы с тем же типом строки и оценкой
+     * количества строк, что и у материализуемого поддерева
+     */
+    static RelNode createScan(RelOptCluster cluster, RelNode producerRoot, String tableName, String producerId) {
+        RelDataType rowType = producerRoot.getRowType();
+        double rowCount = RelSizeEstimator.estimateRows(producerRoot, producerRoot.getCluster().getMetadataQuery());
+        TemporaryTable table = new TemporaryTable(rowType, rowCount, producerId, producerRoot);
+        RelOptTable relOptTable = RelOptTableImpl.create(null, rowType,
+            Collections.singletonList(tableName), table, (TableExpressionFactory) null);
+        return LogicalTableScan.create(cluster, relOptTable, Collections.emptyList());
+    }
+
+    /**
+     * Возвращает временную таблицу, если узел является ее сканированием
+     */
+    static TemporaryTable of(RelNode node) {
+        if (node instanceof TableScan) {
+            return node.getTable().unwrap(TemporaryTable.class);
+        }
+        return null;
+    }
+
+    /**
+     * Идентификаторы подзапросов, заполняющих временные таблицы, которые читает план
+     */
+    static List<String> producerIds(RelNode root) {
+        List<String> producerIds = new ArrayList<>();
+        collectProducerIds(root, producerIds);
+        return producerIds;
+    }
+
+    private static void collectProducerIds(RelNode node, List<String> producerIds) {
+        TemporaryTable temporaryTable = of(node);
+        if (temporaryTable != null && temporaryTable.producerId != null
+                && !producerIds.contains(temporaryTable.producerId)) {
+            producerIds.add(temporaryTable.producerId);
+        }
+        for (RelNode input : node.getInputs()) {
+            collectProducerIds(input, producerIds);
+        }
+    }
+}
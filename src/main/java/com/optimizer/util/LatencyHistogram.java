@@ -0,0 +1,60 @@
+package com.optimizer.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек без блокировок. Значения в наносекундах раскладываются
+ * по корзинам степеней двойки, поэтому перцентили вычисляются с точностью до двух раз
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 1);
+        buckets.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        totalNanos.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / n;
+    }
+
+    /**
+     * Верхняя граница корзины, в которую попадает перцентиль (от 0 до 1), в миллисекундах
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i) / 1_000_000.0;
+            }
+        }
+        return upperBound(BUCKETS - 1) / 1_000_000.0;
+    }
+
+    private static double upperBound(int bucket) {
+        return Math.pow(2, bucket + 1);
+    }
+}
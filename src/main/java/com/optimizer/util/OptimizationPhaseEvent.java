@@ -0,0 +1,37 @@
+package com.optimizer.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Событие Java Flight Recorder для одного этапа оптимизации запроса
+ */
+@Name("com.optimizer.OptimizationPhase")
+@Label("Optimization Phase")
+@Category({"SQL Optimizer"})
+@Description("Этап обработки запроса в QueryOptimizer")
+class OptimizationPhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Query Fingerprint")
+    @Description("Хеш текста запроса без литералов")
+    String fingerprint;
+
+    @Label("Table Count")
+    int tableCount;
+
+    @Label("RelNode Count")
+    int relNodeCount;
+
+    @Label("Estimated Cost")
+    double estimatedCost;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
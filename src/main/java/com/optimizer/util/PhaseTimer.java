@@ -0,0 +1,147 @@
+package com.optimizer.util;
+
+import com.optimizer.model.OptimizationPhase;
+import com.optimizer.model.PhaseTiming;
+import com.optimizer.splitter.RelSizeEstimator;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.rel.RelNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Измерение времени и выделенной памяти последовательных этапов обработки запроса.
+ * Этап длится от предыдущей отметки до вызова {@link #end}. Выключенный таймер ничего не измеряет.
+ *
+ * Если идет запись Java Flight Recorder, для каждого этапа записывается событие
+ * {@link OptimizationPhaseEvent} с отпечатком запроса и параметрами текущего плана.
+ * Отпечаток и параметры плана вычисляются только при записи события
+ */
+public class PhaseTimer {
+    private static final Logger logger = LoggerFactory.getLogger(PhaseTimer.class);
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+    private final boolean enabled;
+    private final List<PhaseTiming> timings = new ArrayList<>();
+    private long markNanos;
+    private long markAllocatedBytes;
+    private OptimizationPhaseEvent event;
+    private Supplier<String> fingerprintSupplier;
+    private String fingerprint;
+    private RelNode plan;
+    private RelNode describedPlan;
+    private int tableCount;
+    private int relNodeCount;
+    private double estimatedCost;
+
+    public PhaseTimer(boolean enabled) {
+        this.enabled = enabled;
+        mark();
+    }
+
+    public static PhaseTimer disabled() {
+        return new PhaseTimer(false);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Задает отпечаток запроса для событий Flight Recorder
+     */
+    public void describeQuery(Supplier<String> fingerprint) {
+        this.fingerprintSupplier = fingerprint;
+    }
+
+    /**
+     * Задает текущий план запроса, параметры которого добавляются в события Flight Recorder
+     */
+    public void describePlan(RelNode plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Начинает отсчет следующего этапа с текущего момента
+     */
+    public void mark() {
+        if (enabled) {
+            event = new OptimizationPhaseEvent();
+            event.begin();
+            markAllocatedBytes = allocatedBytes();
+            markNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Завершает этап, начатый предыдущей отметкой, и начинает отсчет следующего
+     */
+    public void end(OptimizationPhase phase) {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - markNanos;
+        long allocated = allocatedBytes();
+        PhaseTiming timing = new PhaseTiming(phase, elapsed,
+            allocated >= 0 && markAllocatedBytes >= 0 ? allocated - markAllocatedBytes : -1);
+        timings.add(timing);
+        event.end();
+        if (event.shouldCommit()) {
+            commitEvent(timing);
+        }
+        mark();
+    }
+
+    private void commitEvent(PhaseTiming timing) {
+        if (fingerprint == null && fingerprintSupplier != null) {
+            fingerprint = fingerprintSupplier.get();
+        }
+        if (plan != null && plan != describedPlan) {
+            describedPlan = plan;
+            tableCount = RelSizeEstimator.countTables(plan);
+            relNodeCount = RelSizeEstimator.countNodes(plan);
+            RelOptCost cost = plan.getCluster().getMetadataQuery().getCumulativeCost(plan);
+            estimatedCost = cost != null ? cost.getRows() : 0;
+        }
+        event.phase = timing.getPhase().name();
+        event.fingerprint = fingerprint;
+        event.tableCount = tableCount;
+        event.relNodeCount = relNodeCount;
+        event.estimatedCost = estimatedCost;
+        event.allocatedBytes = timing.getAllocatedBytes();
+        event.commit();
+    }
+
+    /**
+     * Измеренные этапы в порядке выполнения (null, если таймер выключен)
+     */
+    public List<PhaseTiming> getTimings() {
+        return enabled ? timings : null;
+    }
+
+    private static long allocatedBytes() {
+        if (THREAD_MX_BEAN == null) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+                if (threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+                    return threadBean;
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Измерение выделенной памяти недоступно: {}", e.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+package com.optimizer.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Частота событий за последнюю минуту без блокировок. События раскладываются
+ * по секундным корзинам кольцевого буфера; каждая корзина хранит номер своей секунды
+ * и счетчик в одном значении, поэтому устаревшая корзина обнуляется атомарно.
+ * Чтение частоты не меняет состояние, поэтому ее могут читать несколько клиентов
+ */
+public class RateMeter {
+    /** Длина окна в секундах */
+    public static final int WINDOW_SECONDS = 60;
+
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(WINDOW_SECONDS);
+    private final long startNanos = System.nanoTime();
+
+    public void mark() {
+        long second = currentSecond();
+        int index = (int) (second % WINDOW_SECONDS);
+        while (true) {
+            long current = buckets.get(index);
+            long next;
+            if (current >>> COUNT_BITS == second) {
+                // Переполнение счетчика корзины не переносится в номер секунды
+                next = (current & COUNT_MASK) == COUNT_MASK ? current : current + 1;
+            } else {
+                next = (second << COUNT_BITS) | 1;
+            }
+            if (buckets.compareAndSet(index, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Событий в секунду за последние {@value #WINDOW_SECONDS} секунд
+     * (за все время работы, если оно меньше окна)
+     */
+    public double getRatePerSecond() {
+        long second = currentSecond();
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long bucket = buckets.get(i);
+            long bucketSecond = bucket >>> COUNT_BITS;
+            if (bucket != 0 && bucketSecond > second - WINDOW_SECONDS && bucketSecond <= second) {
+                total += bucket & COUNT_MASK;
+            }
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return total / Math.min(WINDOW_SECONDS, Math.max(elapsedSeconds, 1.0));
+    }
+
+    private long currentSecond() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000L;
+    }
+}
@@ -0,0 +1,413 @@
+package com.optimizer;
+
+import com.optimizer.model.BoundaryType;
+import com.optimizer.model.SplitObjective;
+import com.optimizer.model.SubQuery;
+import com.optimizer.model.TargetDialect;
+import com.optimizer.parser.MetadataParser;
+import com.optimizer.splitter.BoundaryClassifier;
+import com.optimizer.splitter.QuerySplitter;
+import com.optimizer.splitter.RelSizeEstimator;
+import com.optimizer.splitter.SplitPlan;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.tools.FrameworkConfig;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Тесты режимов разбиения запросов на подзапросы.
+ * Планы строятся напрямую через RelBuilder, чтобы проверять разбиение многоуровневых деревьев
+ */
+public class QuerySplittingModesTest {
+
+    private QuerySplitter splitter;
+    private FrameworkConfig config;
+
+    @Before
+    public void setUp() {
+        splitter = new QuerySplitter();
+
+        String metadataJson = "{\n" +
+            "  \"tables\": [\n" +
+            "    {\n" +
+            "      \"name\": \"employees\",\n" +
+            "      \"columns\": [\n" +
+            "        {\"name\": \"id\", \"type\": \"integer\"},\n" +
+            "        {\"name\": \"name\", \"type\": \"varchar\"},\n" +
+            "        {\"name\": \"department_id\", \"type\": \"integer\"},\n" +
+            "        {\"name\": \"salary\", \"type\": \"decimal\"}\n" +
+            "      ]\n" +
+            "    },\n" +
+            "    {\n" +
+            "      \"name\": \"departments\",\n" +
+            "      \"columns\": [\n" +
+            "        {\"name\": \"id\", \"type\": \"integer\"},\n" +
+            "        {\"name\": \"name\", \"type\": \"varchar\"},\n" +
+            "        {\"name\": \"location\", \"type\": \"varchar\"}\n" +
+            "      ]\n" +
+            "    },\n" +
+            "    {\n" +
+            "      \"name\": \"orders\",\n" +
+            "      \"columns\": [\n" +
+            "        {\"name\": \"id\", \"type\": \"integer\"},\n" +
+            "        {\"name\": \"employee_id\", \"type\": \"integer\"},\n" +
+            "        {\"name\": \"amount\", \"type\": \"decimal\"},\n" +
+            "        {\"name\": \"status\", \"type\": \"varchar\"}\n" +
+            "      ]\n" +
+            "    }\n" +
+            "  ]\n" +
+            "}";
+
+        SchemaPlus schema = new MetadataParser().createSchema(metadataJson);
+        config = Frameworks.newConfigBuilder()
+            .parserConfig(SqlParser.Config.DEFAULT)
+            .defaultSchema(schema)
+            .traitDefs()
+            .build();
+    }
+
+    /**
+     * Строит план: (employees ⋈ departments) ⋈ orders с фильтром и агрегацией
+     */
+    private RelNode createJoinPlan() {
+        RelBuilder builder = RelBuilder.create(config);
+        return builder
+            .scan("employees")
+            .filter(builder.greaterThan(builder.field("salary"), builder.literal(50000)))
+            .scan("departments")
+            .join(JoinRelType.INNER,
+                builder.equals(builder.field(2, 0, "department_id"), builder.field(2, 1, "id")))
+            .scan("orders")
+            .join(JoinRelType.INNER,
+                builder.equals(builder.field(2, 0, 0), builder.field(2, 1, "employee_id")))
+            .aggregate(builder.groupKey("location"), builder.sum(false, "total", builder.field("amount")))
+            .build();
+    }
+
+    /**
+     * Проверяет, что зависимости ссылаются только на ранее созданные временные таблицы
+     */
+    private void assertStagesOrdered(List<SubQuery> subQueries) {
+        Set<String> produced = new HashSet<>();
+        for (SubQuery subQuery : subQueries) {
+            for (String dependency : subQuery.getDependencies()) {
+                assertTrue("Зависимость " + dependency + " должна быть вычислена раньше", produced.contains(dependency));
+            }
+            produced.add(subQuery.getId());
+        }
+        SubQuery last = subQueries.get(subQueries.size() - 1);
+        assertFalse("Итоговый подзапрос не должен быть временной таблицей", last.isTemporaryTable());
+    }
+
+    // ==================== РАЗБИЕНИЕ ПО БЮДЖЕТУ ПАМЯТИ ====================
+
+    @Test
+    public void testMemoryBudgetLargeEnoughKeepsSingleStage() {
+        List<SubQuery> subQueries = splitter.splitQueryByMemoryBudget(createJoinPlan(), Long.MAX_VALUE, config, TargetDialect.CALCITE);
+
+        assertEquals(1, subQueries.size());
+        assertTrue(subQueries.get(0).getEstimatedRows() > 0);
+        assertTrue(subQueries.get(0).getEstimatedBytes() > 0);
+        assertTrue(subQueries.get(0).getDependencies().isEmpty());
+    }
+
+    @Test
+    public void testMemoryBudgetSplitsIntoStages() {
+        RelNode plan = createJoinPlan();
+        RelMetadataQuery metadataQuery = plan.getCluster().getMetadataQuery();
+        // Бюджет меньше результата нижнего соединения вынуждает материализовать его отдельно
+        long innerJoinBytes = RelSizeEstimator.estimateBytes(plan.getInput(0).getInput(0), metadataQuery);
+        long budget = innerJoinBytes + RelSizeEstimator.estimateBytes(plan, metadataQuery);
+
+        List<SubQuery> subQueries = splitter.splitQueryByMemoryBudget(plan, budget, config, TargetDialect.CALCITE);
+
+        assertTrue("Должно быть создано несколько этапов", subQueries.size() > 1);
+        assertStagesOrdered(subQueries);
+        for (SubQuery subQuery : subQueries) {
+            assertTrue(subQuery.getEstimatedRows() > 0);
+            assertTrue(subQuery.getEstimatedBytes() > 0);
+            if (subQuery.isTemporaryTable()) {
+                assertNotNull(subQuery.getTemporaryTableName());
+            }
+        }
+        SubQuery last = subQueries.get(subQueries.size() - 1);
+        assertTrue("Итоговый подзапрос должен читать временную таблицу", last.getSql().contains("temp_"));
+    }
+
+    @Test
+    public void testRowWidthFollowsColumnTypes() {
+        RelBuilder builder = RelBuilder.create(config);
+        RelNode employees = builder.scan("employees").build();
+        RelNode ids = builder.scan("employees").project(builder.field("id")).build();
+
+        assertTrue(RelSizeEstimator.estimateRowBytes(employees.getRowType())
+            > RelSizeEstimator.estimateRowBytes(ids.getRowType()));
+    }
+
+    // ==================== ПОИСК ОПТИМАЛЬНОГО РАЗБИЕНИЯ ====================
+
+    @Test
+    public void testOptimalSplitWithoutCapKeepsSingleStage() {
+        SplitPlan plan = splitter.splitQueryOptimal(createJoinPlan(), SplitObjective.TOTAL_MATERIALIZATION, 0, 1, config, TargetDialect.CALCITE);
+
+        assertEquals(1, plan.getSubQueries().size());
+        assertEquals(0.0, plan.getObjectiveValue(), 0.0);
+        assertTrue(plan.getCutPoints().isEmpty());
+    }
+
+    @Test
+    public void testOptimalSplitRespectsStageCostCap() {
+        RelNode plan = createJoinPlan();
+        // Лимит чуть ниже стоимости всего плана требует хотя бы одной точки разбиения
+        double cap = plan.getCluster().getMetadataQuery().getCumulativeCost(plan).getRows() - 1;
+
+        SplitPlan split = splitter.splitQueryOptimal(plan, SplitObjective.STAGE_COUNT, cap, 1, config, TargetDialect.CALCITE);
+
+        assertTrue("Должно быть создано несколько этапов", split.getSubQueries().size() > 1);
+        assertEquals(split.getSubQueries().size(), split.getObjectiveValue(), 0.0);
+        assertEquals(split.getSubQueries().size() - 1, split.getCutPoints().size());
+        assertStagesOrdered(split.getSubQueries());
+        for (SubQuery subQuery : split.getSubQueries()) {
+            assertTrue("Стоимость этапа не должна превышать лимит", subQuery.getCost() <= cap);
+        }
+    }
+
+    @Test
+    public void testMaterializationObjectivePrefersSmallIntermediates() {
+        RelNode plan = createJoinPlan();
+        double totalCost = plan.getCluster().getMetadataQuery().getCumulativeCost(plan).getRows();
+
+        SplitPlan byStages = splitter.splitQueryOptimal(plan, SplitObjective.STAGE_COUNT, totalCost - 1, 1, config, TargetDialect.CALCITE);
+        SplitPlan byBytes = splitter.splitQueryOptimal(plan, SplitObjective.TOTAL_MATERIALIZATION, totalCost - 1, 1, config, TargetDialect.CALCITE);
+
+        long stagesBytes = 0;
+        for (SubQuery subQuery : byStages.getSubQueries()) {
+            stagesBytes += subQuery.isTemporaryTable() ? subQuery.getEstimatedBytes() : 0;
+        }
+        assertTrue(byBytes.getObjectiveValue() <= stagesBytes);
+    }
+
+    @Test
+    public void testMakespanObjectiveReported() {
+        SplitPlan plan = splitter.splitQueryOptimal(createJoinPlan(), SplitObjective.MAKESPAN, 0, 4, config, TargetDialect.CALCITE);
+
+        assertFalse(plan.getSubQueries().isEmpty());
+        assertTrue(plan.getObjectiveValue() > 0);
+        assertStagesOrdered(plan.getSubQueries());
+    }
+
+    // ==================== DDL ВРЕМЕННЫХ ТАБЛИЦ ====================
+
+    /**
+     * Разбивает план так, чтобы нижнее соединение было материализовано
+     */
+    private List<SubQuery> splitWithTemporaryTable(TargetDialect dialect) {
+        RelNode plan = createJoinPlan();
+        double cap = plan.getCluster().getMetadataQuery().getCumulativeCost(plan).getRows() - 1;
+        return splitter.splitQueryOptimal(plan, SplitObjective.STAGE_COUNT, cap, 1, config, dialect).getSubQueries();
+    }
+
+    private SubQuery findTemporaryTable(List<SubQuery> subQueries) {
+        for (SubQuery subQuery : subQueries) {
+            if (subQuery.isTemporaryTable()) {
+                return subQuery;
+            }
+        }
+        fail("Должна быть создана временная таблица");
+        return null;
+    }
+
+    @Test
+    public void testTemporaryTableDdlGenerated() {
+        List<SubQuery> subQueries = splitWithTemporaryTable(TargetDialect.CALCITE);
+        SubQuery temp = findTemporaryTable(subQueries);
+
+        assertNotNull(temp.getDdl());
+        assertTrue(temp.getDdl().startsWith("CREATE TEMPORARY TABLE \"" + temp.getTemporaryTableName() + "\" AS"));
+        assertTrue(temp.getDdl().endsWith(temp.getSql()));
+        assertNull("Итоговый подзапрос не материализуется", subQueries.get(subQueries.size() - 1).getDdl());
+    }
+
+    @Test
+    public void testDistributionKeysFollowDownstreamJoin() {
+        List<SubQuery> subQueries = splitWithTemporaryTable(TargetDialect.GREENPLUM);
+        SubQuery temp = findTemporaryTable(subQueries);
+        SubQuery consumer = subQueries.get(subQueries.size() - 1);
+
+        // Временная таблица распределяется по колонке, по которой ее соединяет потребитель
+        assertEquals(1, temp.getDistributionKeys().size());
+        String key = temp.getDistributionKeys().get(0);
+        assertTrue(consumer.getSql().contains(
+            "JOIN \"departments\" ON \"" + temp.getTemporaryTableName() + "\".\"" + key + "\"")
+            || consumer.getSql().contains(
+            "JOIN \"orders\" ON \"" + temp.getTemporaryTableName() + "\".\"" + key + "\""));
+        assertTrue(temp.getDdl().contains("orientation=column"));
+        assertTrue(temp.getDdl().endsWith("DISTRIBUTED BY (\"" + key + "\")"));
+    }
+
+    @Test
+    public void testSparkDdlUsesColumnarFormatAndBuckets() {
+        SubQuery temp = findTemporaryTable(splitWithTemporaryTable(TargetDialect.SPARK));
+
+        assertTrue(temp.getDdl().startsWith("CREATE TABLE " + temp.getTemporaryTableName()));
+        assertTrue(temp.getDdl().contains("USING PARQUET"));
+        assertTrue(temp.getDdl().contains("CLUSTERED BY (" + temp.getDistributionKeys().get(0) + ") INTO"));
+    }
+
+    @Test
+    public void testSparkTableNamesUniquePerSplit() {
+        List<SubQuery> first = splitWithTemporaryTable(TargetDialect.SPARK);
+        List<SubQuery> second = splitWithTemporaryTable(TargetDialect.SPARK);
+        SubQuery firstTemp = findTemporaryTable(first);
+        SubQuery secondTemp = findTemporaryTable(second);
+
+        // Таблицы Spark постоянные, поэтому одинаковые запросы не должны создавать одну и ту же таблицу
+        assertNotEquals(firstTemp.getTemporaryTableName(), secondTemp.getTemporaryTableName());
+        assertTrue(first.get(first.size() - 1).getSql().contains(firstTemp.getTemporaryTableName()));
+        assertEquals("DROP TABLE IF EXISTS " + firstTemp.getTemporaryTableName(), firstTemp.getDropDdl());
+        assertNull("Временная таблица удаляется вместе с сеансом",
+            findTemporaryTable(splitWithTemporaryTable(TargetDialect.CALCITE)).getDropDdl());
+    }
+
+    // ==================== ГРАНИЦЫ МЕЖДУ ЭТАПАМИ ====================
+
+    @Test
+    public void testBoundaryClassification() {
+        RelNode plan = createJoinPlan();
+        RelNode outerJoin = plan.getInput(0);
+        RelNode innerJoin = outerJoin.getInput(0);
+
+        // Сторона зондирования соединения читается потоком, сторона построения блокирует
+        assertEquals(BoundaryType.PIPELINED, BoundaryClassifier.classify(innerJoin, 0, innerJoin.getInput(0)));
+        assertEquals(BoundaryType.BLOCKING, BoundaryClassifier.classify(innerJoin, 1, innerJoin.getInput(1)));
+        // Агрегация читает вход целиком
+        assertEquals(BoundaryType.BLOCKING, BoundaryClassifier.classify(plan, 0, outerJoin));
+        // Результат агрегации доступен только после ее завершения
+        assertEquals(BoundaryType.BLOCKING, BoundaryClassifier.classify(outerJoin, 0, plan));
+    }
+
+    private long budgetForInnerJoinCut(RelNode plan) {
+        RelMetadataQuery metadataQuery = plan.getCluster().getMetadataQuery();
+        long innerJoinBytes = RelSizeEstimator.estimateBytes(plan.getInput(0).getInput(0), metadataQuery);
+        return innerJoinBytes + RelSizeEstimator.estimateBytes(plan, metadataQuery);
+    }
+
+    @Test
+    public void testDependencyBoundariesReported() {
+        RelNode plan = createJoinPlan();
+        List<SubQuery> subQueries = splitter.splitQueryByMemoryBudget(plan, budgetForInnerJoinCut(plan), config, TargetDialect.CALCITE);
+
+        for (SubQuery subQuery : subQueries) {
+            assertEquals(subQuery.getDependencies().size(), subQuery.getBoundaryTypes().size());
+            assertTrue(subQuery.getInlinedCtes().isEmpty());
+        }
+    }
+
+    @Test
+    public void testPipelineFusionInlinesPipelinedProducers() {
+        RelNode plan = createJoinPlan();
+        long budget = budgetForInnerJoinCut(plan);
+        List<SubQuery> materialized = splitter.splitQueryByMemoryBudget(plan, budget, config, TargetDialect.CALCITE);
+        List<SubQuery> fused = splitter.splitQueryByMemoryBudget(plan, budget, config, TargetDialect.CALCITE, true);
+
+        int pipelined = 0;
+        for (SubQuery subQuery : materialized) {
+            pipelined += Collections.frequency(subQuery.getBoundaryTypes().values(), BoundaryType.PIPELINED);
+        }
+        assertTrue("В разбиении должна быть потоковая граница", pipelined > 0);
+        assertEquals(materialized.size() - pipelined, fused.size());
+        assertStagesOrdered(fused);
+
+        int inlined = 0;
+        for (SubQuery subQuery : fused) {
+            assertFalse(subQuery.getBoundaryTypes().containsValue(BoundaryType.PIPELINED));
+            if (!subQuery.getInlinedCtes().isEmpty()) {
+                inlined += subQuery.getInlinedCtes().size();
+                assertTrue(subQuery.getSql().startsWith("WITH "));
+                for (String cte : subQuery.getInlinedCtes()) {
+                    assertTrue(subQuery.getSql().contains("\"" + cte + "\" AS ("));
+                }
+            }
+        }
+        assertEquals(pipelined, inlined);
+
+        // Встроенная работа не теряется
+        double materializedCost = 0;
+        double fusedCost = 0;
+        for (SubQuery subQuery : materialized) {
+            materializedCost += subQuery.getCost();
+        }
+        for (SubQuery subQuery : fused) {
+            fusedCost += subQuery.getCost();
+        }
+        assertEquals(materializedCost, fusedCost, 1e-6);
+    }
+
+    // ==================== ПОВТОРЯЮЩИЕСЯ ПОДДЕРЕВЬЯ ====================
+
+    /**
+     * Строит план с самосоединением отфильтрованного набора сотрудников
+     */
+    private RelNode createSelfJoinPlan() {
+        RelBuilder builder = RelBuilder.create(config);
+        return builder
+            .scan("employees")
+            .filter(builder.greaterThan(builder.field("salary"), builder.literal(50000)))
+            .scan("employees")
+            .filter(builder.greaterThan(builder.field("salary"), builder.literal(50000)))
+            .join(JoinRelType.INNER,
+                builder.equals(builder.field(2, 0, "department_id"), builder.field(2, 1, "department_id")))
+            .build();
+    }
+
+    @Test
+    public void testDuplicateSubtreeMaterializedOnce() {
+        List<SubQuery> subQueries = splitter.splitQuery(createSelfJoinPlan(), 1000.0, config);
+
+        assertEquals(2, subQueries.size());
+        assertStagesOrdered(subQueries);
+        SubQuery shared = subQueries.get(0);
+        assertTrue(shared.isTemporaryTable());
+        SubQuery consumer = subQueries.get(1);
+        assertEquals(Collections.singletonList(shared.getId()), consumer.getDependencies());
+        // Оба входа соединения читают одну временную таблицу
+        String sql = consumer.getSql();
+        String table = "\"" + shared.getTemporaryTableName() + "\"";
+        assertNotEquals(sql.indexOf(table), sql.lastIndexOf(table));
+    }
+
+    @Test
+    public void testDuplicateSubtreeIsNotFused() {
+        RelNode plan = createSelfJoinPlan();
+        List<SubQuery> subQueries = splitter.splitQueryByMemoryBudget(plan, Long.MAX_VALUE, config, TargetDialect.CALCITE, true);
+
+        assertEquals(2, subQueries.size());
+        assertTrue(subQueries.get(0).isTemporaryTable());
+        assertTrue(subQueries.get(1).getInlinedCtes().isEmpty());
+    }
+
+    @Test
+    public void testDuplicateSubtreeCostCountedOnce() {
+        RelNode plan = createSelfJoinPlan();
+        double unsharedCost = plan.getCluster().getMetadataQuery().getCumulativeCost(plan).getRows();
+
+        List<SubQuery> subQueries = splitter.splitQuery(plan, 1000.0, config);
+        double totalCost = 0;
+        for (SubQuery subQuery : subQueries) {
+            totalCost += subQuery.getCost();
+        }
+        assertTrue("Повторное вычисление фильтра не должно учитываться", totalCost < unsharedCost);
+    }
+}
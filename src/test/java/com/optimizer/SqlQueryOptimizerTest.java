@@ -1,14 +1,56 @@
 package com.optimizer;
 
+import com.optimizer.core.AsyncLimits;
+import com.optimizer.core.CostClassLimits;
+import com.optimizer.core.OptimizationScheduler;
+import com.optimizer.core.OptimizedPlan;
+import com.optimizer.core.OptimizerMetrics;
 import com.optimizer.core.QueryOptimizer;
+import com.optimizer.core.SlowQueryRecorder;
+import com.optimizer.core.SpeculativePlanning;
+import com.optimizer.model.BatchOptimizationResult;
+import com.optimizer.model.CostClass;
+import com.optimizer.model.OptimizationPhase;
 import com.optimizer.model.OptimizationRequest;
 import com.optimizer.model.OptimizationResult;
+import com.optimizer.model.PhaseTiming;
+import com.optimizer.model.PlanningStrategy;
+import com.optimizer.model.QueryComplexity;
+import com.optimizer.model.RuleStats;
+import com.optimizer.model.SlowQueryRecord;
+import com.optimizer.model.SplitObjective;
 import com.optimizer.model.SubQuery;
+import com.optimizer.parser.QueryFingerprint;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.calcite.sql.parser.SqlParser;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * Комплексные тесты для проверки всех возможностей SQL, поддерживаемых Apache Calcite
@@ -752,6 +794,882 @@ public class SqlQueryOptimizerTest {
         assertSubQueriesValid(result.getSubQueries());
     }
 
+    @Test
+    public void testQuerySplittingWithObjective() {
+        String sql = "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id";
+        OptimizationRequest request = createRequest(sql, 10000.0);
+        request.setSplitObjective(SplitObjective.STAGE_COUNT);
+        OptimizationResult result = optimizer.optimize(request);
+
+        assertOptimizationSuccess(result);
+        assertSubQueriesValid(result.getSubQueries());
+        assertEquals(SplitObjective.STAGE_COUNT, result.getSplitObjective());
+        assertNotNull("Значение целевой функции должно быть заполнено", result.getObjectiveValue());
+        assertNotNull(result.getCutPoints());
+    }
+
+    @Test
+    public void testStageCountObjectiveMatchesBuiltStages() {
+        // Повторяющийся CTE материализуется отдельно от точек разбиения, найденных поиском
+        String sql = "WITH high_paid AS (SELECT id, department_id FROM employees WHERE salary > 50000) " +
+                    "SELECT a.id, b.id FROM high_paid a JOIN high_paid b ON a.department_id = b.department_id";
+        for (boolean pipelineFusion : new boolean[] {false, true}) {
+            OptimizationRequest request = createRequest(sql, 10.0);
+            request.setSplitObjective(SplitObjective.STAGE_COUNT);
+            request.setPipelineFusion(pipelineFusion);
+            OptimizationResult result = optimizer.optimize(request);
+
+            assertOptimizationSuccess(result);
+            assertEquals(result.getSubQueries().size(), result.getObjectiveValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void testQuerySplittingWithMemoryBudget() {
+        String sql = "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id";
+        OptimizationRequest request = createRequest(sql, 1000.0);
+        request.setMemoryBudgetBytes(1024 * 1024);
+        OptimizationResult result = optimizer.optimize(request);
+
+        assertOptimizationSuccess(result);
+        assertSubQueriesValid(result.getSubQueries());
+        for (SubQuery subQuery : result.getSubQueries()) {
+            assertTrue("Оценка объема должна быть заполнена", subQuery.getEstimatedBytes() > 0);
+        }
+    }
+
+    @Test
+    public void testRepeatedCteMaterializedOnce() {
+        String sql = "WITH high_paid AS (SELECT id, department_id FROM employees WHERE salary > 50000) " +
+                    "SELECT a.id, b.id FROM high_paid a JOIN high_paid b ON a.department_id = b.department_id";
+        OptimizationResult result = optimizer.optimize(createRequest(sql, 1000.0));
+
+        assertOptimizationSuccess(result);
+        assertSubQueriesValid(result.getSubQueries());
+        assertEquals(2, result.getSubQueries().size());
+        SubQuery shared = result.getSubQueries().get(0);
+        assertTrue(shared.isTemporaryTable());
+        assertTrue(result.getSubQueries().get(1).getDependencies().contains(shared.getId()));
+    }
+
+    @Test
+    public void testCheapRepeatedSubtreeStaysInlined() {
+        // Проекция без фильтра читает столько же строк, сколько вернула бы временная таблица
+        String sql = "WITH dept AS (SELECT id, name FROM departments) " +
+                    "SELECT a.name, b.name FROM dept a JOIN dept b ON a.id = b.id";
+        OptimizationResult result = optimizer.optimize(createRequest(sql, 1000.0));
+
+        assertOptimizationSuccess(result);
+        assertEquals(1, result.getSubQueries().size());
+        assertFalse(result.getSubQueries().get(0).isTemporaryTable());
+        assertTrue(result.getSubQueries().get(0).getDependencies().isEmpty());
+    }
+
+    @Test
+    public void testPreparedPlanResplitMatchesOptimize() {
+        String sql = "SELECT d.location, SUM(e.salary) FROM employees e " +
+                    "JOIN departments d ON e.department_id = d.id GROUP BY d.location";
+        OptimizationRequest request = createRequest(sql, 1000.0);
+        request.setSplitObjective(SplitObjective.STAGE_COUNT);
+        OptimizedPlan plan = optimizer.prepare(request);
+        assertTrue(plan.isSuccess());
+
+        for (double threshold : new double[] {10.0, 100.0, 100000.0}) {
+            request.setCostThreshold(threshold);
+            OptimizationResult resplit = optimizer.split(plan, request);
+            OptimizationResult full = optimizer.optimize(request);
+
+            assertOptimizationSuccess(resplit);
+            assertEquals(sql, resplit.getOriginalQuery());
+            assertEquals(full.getSubQueries().size(), resplit.getSubQueries().size());
+            assertEquals(full.getTotalCost(), resplit.getTotalCost(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testSplitOfFailedPlanReturnsError() {
+        OptimizedPlan plan = optimizer.prepare(createRequest("SELECT FROM WHERE", 1000.0));
+
+        assertFalse(plan.isSuccess());
+        OptimizationResult result = optimizer.split(plan, createRequest("SELECT FROM WHERE", 1000.0));
+        assertFalse(result.isSuccess());
+        assertNotNull(result.getErrorMessage());
+    }
+
+    // ==================== ТЕСТЫ КЛАССИФИКАЦИИ ЗАПРОСОВ ====================
+
+    @Test
+    public void testTrivialQueriesUseFastPath() {
+        String[] trivial = {
+            "SELECT * FROM employees",
+            "SELECT e.name, e.salary * 2 FROM employees e WHERE e.salary > 1000 AND e.name LIKE 'A%'",
+            "SELECT name FROM employees WHERE department_id IN (1, 2, 3) ORDER BY name LIMIT 10"
+        };
+        for (String sql : trivial) {
+            OptimizationResult result = optimizer.optimize(createRequest(sql, 1000.0));
+            assertOptimizationSuccess(result);
+            assertEquals(sql, QueryComplexity.TRIVIAL, result.getQueryComplexity());
+            assertEquals(1, result.getSubQueries().size());
+            assertTrue(result.getSubQueries().get(0).getDependencies().isEmpty());
+        }
+        assertEquals(trivial.length, optimizer.getClassificationStats().getCount(QueryComplexity.TRIVIAL));
+        assertEquals(0, optimizer.getClassificationStats().getCount(QueryComplexity.COMPLEX));
+        assertTrue(optimizer.getClassificationStats().getTotalLatencyNanos(QueryComplexity.TRIVIAL) > 0);
+    }
+
+    @Test
+    public void testComplexQueriesUseFullPath() {
+        String[] complex = {
+            "SELECT e.name FROM employees e JOIN departments d ON e.department_id = d.id",
+            "SELECT COUNT(*) FROM employees",
+            "SELECT DISTINCT department_id FROM employees",
+            "SELECT name FROM employees WHERE department_id IN (SELECT id FROM departments)",
+            "SELECT name, ROW_NUMBER() OVER (ORDER BY salary) FROM employees",
+            "SELECT name FROM employees UNION SELECT name FROM departments"
+        };
+        for (String sql : complex) {
+            OptimizationResult result = optimizer.optimize(createRequest(sql, 1000.0));
+            assertEquals(sql, QueryComplexity.COMPLEX, result.getQueryComplexity());
+        }
+        assertEquals(complex.length, optimizer.getClassificationStats().getCount(QueryComplexity.COMPLEX));
+        assertEquals(0, optimizer.getClassificationStats().getCount(QueryComplexity.TRIVIAL));
+    }
+
+    // ==================== ТЕСТЫ СТАТИСТИКИ ПРАВИЛ ====================
+
+    @Test
+    public void testRuleStatsReturnedWhenRequested() {
+        String sql = "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id " +
+                    "WHERE e.salary > 50000";
+        OptimizationRequest request = createRequest(sql, 1000.0);
+        request.setCollectRuleStats(true);
+        OptimizationResult result = optimizer.optimize(request);
+
+        assertOptimizationSuccess(result);
+        assertNotNull(result.getRuleStats());
+        RuleStats fired = null;
+        for (RuleStats rule : result.getRuleStats()) {
+            assertTrue(rule.getSuccesses() <= rule.getAttempts());
+            if (rule.getSuccesses() > 0) {
+                fired = rule;
+            }
+        }
+        assertNotNull("Фильтр должен быть перенесен в соединение", fired);
+        assertTrue(fired.getProducedRelNodes() > 0);
+        assertTrue(fired.getTimeNanos() > 0);
+
+        assertNull(optimizer.optimize(createRequest(sql, 1000.0)).getRuleStats());
+    }
+
+    @Test
+    public void testRuleStatsAggregatedAcrossRequests() {
+        String sql = "SELECT e.name FROM employees e JOIN departments d ON e.department_id = d.id WHERE d.id = 1";
+        OptimizationRequest request = createRequest(sql, 1000.0);
+        request.setCollectRuleStats(true);
+        OptimizationResult first = optimizer.optimize(request);
+        optimizer.optimize(request);
+
+        long attempts = 0;
+        for (RuleStats rule : first.getRuleStats()) {
+            attempts += rule.getAttempts();
+        }
+        long aggregated = 0;
+        for (RuleStats rule : optimizer.getRuleStats().snapshot()) {
+            aggregated += rule.getAttempts();
+        }
+        assertTrue(attempts > 0);
+        assertEquals(2 * attempts, aggregated);
+    }
+
+    // ==================== ТЕСТЫ ВРЕМЕНИ ЭТАПОВ ====================
+
+    @Test
+    public void testPhaseTimingsReported() {
+        String sql = "SELECT d.name, COUNT(*) FROM employees e JOIN departments d ON e.department_id = d.id GROUP BY d.name";
+        OptimizationResult result = optimizer.optimize(createRequest(sql, 1000.0));
+
+        assertOptimizationSuccess(result);
+        assertNotNull(result.getPhaseTimings());
+        List<OptimizationPhase> phases = new ArrayList<>();
+        for (PhaseTiming timing : result.getPhaseTimings()) {
+            assertTrue(timing.getTimeNanos() >= 0);
+            phases.add(timing.getPhase());
+        }
+        assertEquals(Arrays.asList(
+            OptimizationPhase.SCHEMA_CREATION,
+            OptimizationPhase.STATISTICS_LOADING,
+            OptimizationPhase.PARSING,
+            OptimizationPhase.CLASSIFICATION,
+            OptimizationPhase.VALIDATION,
+            OptimizationPhase.REL_CONVERSION,
+            OptimizationPhase.OPTIMIZATION,
+            OptimizationPhase.SPLITTING,
+            OptimizationPhase.PLAN_GENERATION), phases);
+    }
+
+    @Test
+    public void testPhaseTimingsCanBeDisabled() {
+        OptimizationRequest request = createRequest("SELECT * FROM employees", 1000.0);
+        request.setCollectPhaseTimings(false);
+        OptimizationResult result = optimizer.optimize(request);
+
+        assertOptimizationSuccess(result);
+        assertNull(result.getPhaseTimings());
+    }
+
+    // ==================== ТЕСТЫ МЕТРИК ====================
+
+    @Test
+    public void testMetricsCountRequestsAndErrors() {
+        optimizer.optimize(createRequest("SELECT * FROM employees", 1000.0));
+        optimizer.optimize(createRequest("SELECT FROM WHERE", 1000.0));
+
+        OptimizerMetrics metrics = optimizer.getMetrics();
+        assertEquals(2, metrics.getRequestCount());
+        assertEquals(1, metrics.getErrorCount());
+        assertEquals(0, metrics.getInFlightCount());
+        assertTrue(metrics.getLatencyP99Millis() >= metrics.getLatencyP50Millis());
+        assertTrue(metrics.getLatencyP50Millis() > 0);
+        assertTrue(metrics.getPhaseLatencyP50Millis().containsKey(OptimizationPhase.PARSING.name()));
+    }
+
+    @Test
+    public void testRequestRateNotResetByReads() {
+        for (int i = 0; i < 3; i++) {
+            optimizer.optimize(createRequest("SELECT * FROM employees", 1000.0));
+        }
+
+        OptimizerMetrics metrics = optimizer.getMetrics();
+        double first = metrics.getRequestRate();
+        assertTrue(first > 0);
+        // Чтение метрики одним клиентом не сбрасывает окно для других
+        assertTrue(metrics.getRequestRate() > 0);
+        assertTrue(metrics.getRequestRate() <= first);
+    }
+
+    @Test
+    public void testMetricsRegisteredInJmx() throws Exception {
+        optimizer.optimize(createRequest("SELECT * FROM employees", 1000.0));
+        ObjectName name = optimizer.registerMBean("test-" + System.nanoTime());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(1L, server.getAttribute(name, "RequestCount"));
+            assertNotNull(server.getAttribute(name, "PhaseLatencyP99Millis"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testSlowQueriesCapturedInRingBuffer() throws Exception {
+        SlowQueryRecorder recorder = optimizer.getSlowQueryRecorder();
+        recorder.setLatencyThresholdMillis(Long.MAX_VALUE / 1_000_000);
+        recorder.setCostThreshold(0);
+        String sql = "SELECT d.name, COUNT(*) FROM employees e JOIN departments d ON e.department_id = d.id GROUP BY d.name";
+        for (int i = 0; i < SlowQueryRecorder.DEFAULT_CAPACITY + 5; i++) {
+            optimizer.optimize(createRequest(sql, 1000.0));
+        }
+
+        assertEquals(SlowQueryRecorder.DEFAULT_CAPACITY + 5, recorder.getRecordedCount());
+        List<SlowQueryRecord> records = recorder.snapshot();
+        assertEquals(SlowQueryRecorder.DEFAULT_CAPACITY, records.size());
+        SlowQueryRecord record = records.get(records.size() - 1);
+        assertEquals(sql, record.getSqlQuery());
+        assertNotNull(record.getPhaseTimings());
+        assertTrue(record.getOptimizationPlan().contains("ПЛАН ОПТИМИЗАЦИИ"));
+        assertFalse(record.getSubQueries().isEmpty());
+
+        Path file = Files.createTempFile("slow-queries", ".json");
+        try {
+            recorder.dump(file);
+            assertTrue(new String(Files.readAllBytes(file)).contains("optimizationPlan"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSlowQueryRecordIsIndependentOfResult() {
+        optimizer.getSlowQueryRecorder().setCostThreshold(0);
+        OptimizationRequest request = createRequest(
+            "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id", 1000.0);
+        request.setCollectPhaseTimings(true);
+        OptimizationResult result = optimizer.optimize(request);
+        String sql = result.getSubQueries().get(0).getSql();
+        int phases = result.getPhaseTimings().size();
+
+        // Изменения результата вызывающим не должны менять сохраненный снимок
+        result.getSubQueries().get(0).setSql("SELECT 1");
+        result.getSubQueries().clear();
+        result.getPhaseTimings().clear();
+
+        SlowQueryRecord record = optimizer.getSlowQueryRecorder().snapshot().get(0);
+        assertEquals(1, record.getSubQueries().size());
+        assertEquals(sql, record.getSubQueries().get(0).getSql());
+        assertEquals(phases, record.getPhaseTimings().size());
+    }
+
+    @Test
+    public void testFastQueriesNotCaptured() {
+        optimizer.getSlowQueryRecorder().setLatencyThresholdMillis(60_000);
+        optimizer.optimize(createRequest("SELECT * FROM employees", 1000.0));
+
+        assertEquals(0, optimizer.getSlowQueryRecorder().getRecordedCount());
+        assertTrue(optimizer.getSlowQueryRecorder().snapshot().isEmpty());
+    }
+
+    @Test
+    public void testFlightRecorderEventsEmitted() throws Exception {
+        String sql = "WITH high_paid AS (SELECT id, department_id FROM employees WHERE salary > 50000) " +
+                    "SELECT a.id, b.id FROM high_paid a JOIN high_paid b ON a.department_id = b.department_id";
+        Path file = Files.createTempFile("optimizer", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.optimizer.OptimizationPhase");
+            recording.enable("com.optimizer.SplitCut");
+            recording.start();
+            assertOptimizationSuccess(optimizer.optimize(createRequest(sql, 1000.0)));
+            recording.stop();
+            recording.dump(file);
+
+            Set<String> phases = new HashSet<>();
+            Set<String> decisions = new HashSet<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals("com.optimizer.OptimizationPhase")) {
+                    phases.add(event.getString("phase"));
+                    if (event.getString("phase").equals(OptimizationPhase.OPTIMIZATION.name())) {
+                        assertNotNull(event.getString("fingerprint"));
+                        assertEquals(2, event.getInt("tableCount"));
+                        assertTrue(event.getInt("relNodeCount") > 2);
+                    }
+                } else {
+                    decisions.add(event.getString("decision"));
+                }
+            }
+            assertTrue(phases.contains(OptimizationPhase.PARSING.name()));
+            assertTrue(phases.contains(OptimizationPhase.SPLITTING.name()));
+            assertTrue(decisions.contains("MATERIALIZED"));
+            assertTrue(decisions.contains("REUSED"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testFingerprintIgnoresLiterals() throws Exception {
+        SqlParser.Config config = SqlParser.Config.DEFAULT;
+        String first = QueryFingerprint.of(SqlParser.create("SELECT name FROM employees WHERE salary > 100", config).parseQuery());
+        String second = QueryFingerprint.of(SqlParser.create("SELECT name FROM employees WHERE salary > 200", config).parseQuery());
+        String other = QueryFingerprint.of(SqlParser.create("SELECT id FROM employees WHERE salary > 100", config).parseQuery());
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+    }
+
+    // ==================== ТЕСТЫ ПАКЕТНОЙ ОПТИМИЗАЦИИ ====================
+
+    @Test
+    public void testBatchSharesCommonSubtrees() {
+        String totals = "(SELECT e.department_id, SUM(e.salary) AS total FROM employees e " +
+                       "JOIN departments d ON e.department_id = d.id WHERE e.salary > 50000 GROUP BY e.department_id)";
+        List<OptimizationRequest> requests = Arrays.asList(
+            createRequest("SELECT MAX(t.total) FROM " + totals + " t", 1000.0),
+            createRequest("SELECT d.name, t.total FROM " + totals + " t JOIN departments d ON t.department_id = d.id", 1000.0),
+            createRequest("SELECT name FROM departments", 1000.0)
+        );
+        BatchOptimizationResult batch = optimizer.optimizeBatch(requests);
+
+        assertEquals(3, batch.getResults().size());
+        assertFalse("Общая агрегация должна быть вынесена", batch.getSharedSubQueries().isEmpty());
+        SubQuery shared = batch.getSharedSubQueries().get(0);
+        assertTrue(shared.isTemporaryTable());
+        assertTrue(shared.getSql().toUpperCase().contains("JOIN"));
+        assertTrue(batch.getSavedCost() > 0);
+
+        // Оба запроса с соединением читают общую временную таблицу
+        for (int i = 0; i < 2; i++) {
+            OptimizationResult result = batch.getResults().get(i);
+            assertOptimizationSuccess(result);
+            SubQuery last = result.getSubQueries().get(result.getSubQueries().size() - 1);
+            assertTrue(last.getDependencies().contains(shared.getId()));
+            assertTrue(last.getSql().contains(shared.getTemporaryTableName()));
+        }
+        assertTrue(batch.getResults().get(2).getSubQueries().get(0).getDependencies().isEmpty());
+
+        double separateCost = 0;
+        for (OptimizationRequest request : requests) {
+            separateCost += optimizer.optimize(request).getTotalCost();
+        }
+        assertTrue("Пакет должен быть дешевле раздельной оптимизации", batch.getTotalCost() < separateCost);
+    }
+
+    @Test
+    public void testBatchWithoutCommonSubtrees() {
+        List<OptimizationRequest> requests = Arrays.asList(
+            createRequest("SELECT name FROM employees WHERE salary > 1000", 1000.0),
+            createRequest("SELECT location FROM departments WHERE id = 1", 1000.0)
+        );
+        BatchOptimizationResult batch = optimizer.optimizeBatch(requests);
+
+        assertTrue(batch.getSharedSubQueries().isEmpty());
+        assertEquals(0.0, batch.getSavedCost(), 0.0);
+        for (OptimizationResult result : batch.getResults()) {
+            assertOptimizationSuccess(result);
+        }
+    }
+
+    @Test
+    public void testBatchScopeComparesFullMetadata() {
+        // Имена "Aa" и "BB" дают одинаковый String.hashCode, поэтому и метаданные совпадают по хешу
+        String extraTable = "  \"tables\": [\n    {\"name\": \"%s\", \"columns\": [{\"name\": \"id\", \"type\": \"integer\"}]},\n";
+        String first = metadataJson.replace("  \"tables\": [\n", String.format(extraTable, "Aa"));
+        String second = metadataJson.replace("  \"tables\": [\n", String.format(extraTable, "BB"));
+        assertNotEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+
+        String sql = "SELECT e.department_id, SUM(e.salary) AS total FROM employees e " +
+                     "JOIN departments d ON e.department_id = d.id WHERE e.salary > 50000 GROUP BY e.department_id";
+        OptimizationRequest left = createRequest(sql, 1000.0);
+        left.setMetadata(first);
+        OptimizationRequest right = createRequest(sql, 1000.0);
+        right.setMetadata(second);
+        BatchOptimizationResult batch = optimizer.optimizeBatch(Arrays.asList(left, right));
+
+        assertTrue("Поддеревья запросов к разным метаданным не должны объединяться",
+            batch.getSharedSubQueries().isEmpty());
+        for (OptimizationResult result : batch.getResults()) {
+            assertOptimizationSuccess(result);
+        }
+
+        right.setMetadata(first);
+        assertFalse(optimizer.optimizeBatch(Arrays.asList(left, right)).getSharedSubQueries().isEmpty());
+    }
+
+    // ==================== ТЕСТЫ ПАРАЛЛЕЛЬНОЙ ОПТИМИЗАЦИИ ====================
+
+    @Test
+    public void testConcurrentOptimizationIsDeterministic() throws Exception {
+        List<OptimizationRequest> requests = new ArrayList<>();
+        requests.add(createRequest("SELECT name FROM employees WHERE salary > 1000", 1000.0));
+        requests.add(createRequest("SELECT e.name, d.name, o.amount FROM employees e " +
+            "JOIN departments d ON e.department_id = d.id LEFT JOIN orders o ON e.id = o.employee_id " +
+            "WHERE e.salary > 50000", 50.0));
+        requests.add(createRequest("SELECT department_id, COUNT(*) FROM employees GROUP BY department_id", 1000.0));
+        OptimizationRequest budgeted = createRequest(
+            "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id", 1000.0);
+        budgeted.setMemoryBudgetBytes(1024);
+        requests.add(budgeted);
+        OptimizationRequest staged = createRequest(
+            "SELECT e.name, SUM(o.amount) FROM employees e JOIN orders o ON e.id = o.employee_id GROUP BY e.name", 10.0);
+        staged.setSplitObjective(SplitObjective.STAGE_COUNT);
+        requests.add(staged);
+
+        List<String> expected = new ArrayList<>();
+        for (OptimizationRequest request : requests) {
+            expected.add(signature(optimizer.optimize(request)));
+        }
+
+        int optimizations = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < optimizations; i++) {
+                OptimizationRequest request = requests.get(i % requests.size());
+                futures.add(executor.submit(() -> signature(optimizer.optimize(request))));
+            }
+            for (int i = 0; i < optimizations; i++) {
+                assertEquals("Результат параллельной оптимизации #" + i + " отличается от последовательной",
+                    expected.get(i % requests.size()), futures.get(i).get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(optimizations + requests.size(), optimizer.getMetrics().getRequestCount());
+        assertEquals(0, optimizer.getMetrics().getErrorCount());
+    }
+
+    @Test
+    public void testCoalescingSharesInFlightResult() throws Exception {
+        optimizer.setRequestCoalescing(true);
+        OptimizationRequest request = createRequest("SELECT e.name, d.name, SUM(o.amount) FROM employees e " +
+            "JOIN departments d ON e.department_id = d.id JOIN orders o ON e.id = o.employee_id " +
+            "GROUP BY e.name, d.name", 50.0);
+        List<OptimizationResult> results = optimizeSimultaneously(request, 16);
+
+        Set<OptimizationResult> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (OptimizationResult result : results) {
+            assertOptimizationSuccess(result);
+            assertEquals("Объединенные запросы получают результат первого", signature(results.get(0)), signature(result));
+            distinct.add(result);
+        }
+        OptimizerMetrics metrics = optimizer.getMetrics();
+        assertTrue("Одновременные одинаковые запросы должны объединяться", metrics.getCoalescedRequestCount() > 0);
+        assertEquals(16, metrics.getRequestCount() + metrics.getCoalescedRequestCount());
+        assertEquals("Каждый запрос получает собственную копию результата", 16, distinct.size());
+        results.get(0).getSubQueries().clear();
+        assertFalse(results.get(1).getSubQueries().isEmpty());
+
+        // Завершенный результат не кэшируется
+        assertNotSame(results.get(0), optimizer.optimize(request));
+    }
+
+    @Test
+    public void testCoalescingPropagatesErrors() throws Exception {
+        optimizer.setRequestCoalescing(true);
+        List<OptimizationResult> results = optimizeSimultaneously(createRequest("SELECT FROM WHERE", 1000.0), 8);
+
+        for (OptimizationResult result : results) {
+            assertFalse(result.isSuccess());
+            assertNotNull("Ошибка первого запроса должна передаваться ожидающим", result.getErrorMessage());
+        }
+        assertEquals(optimizer.getMetrics().getRequestCount(), optimizer.getMetrics().getErrorCount());
+        assertTrue(optimizer.optimize(createRequest("SELECT name FROM employees", 1000.0)).isSuccess());
+    }
+
+    @Test
+    public void testCoalescingFollowerRetriesAfterLeaderCancelled() throws Exception {
+        optimizer.setRequestCoalescing(true);
+        OptimizationRequest request = createRequest(selfJoin(12), 1000.0);
+        OptimizerMetrics metrics = optimizer.getMetrics();
+
+        CompletableFuture<OptimizationResult> leader = optimizer.optimizeAsync(request);
+        awaitCondition(() -> metrics.getInFlightCount() == 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<OptimizationResult> follower = executor.submit(() -> optimizer.optimize(request));
+            awaitCondition(() -> metrics.getCoalescedRequestCount() == 1);
+
+            assertTrue(leader.cancel(true));
+            // Ожидающий не получает результат отмененного первого запроса, а планирует сам
+            OptimizationResult result = follower.get(120, TimeUnit.SECONDS);
+            assertOptimizationSuccess(result);
+            assertEquals(2, metrics.getRequestCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Условие не выполнилось за отведенное время", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testParallelSubtreeOptimizationMatchesSerial() {
+        String[] queries = {
+            "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id " +
+                "WHERE e.salary > 50000 " +
+                "UNION ALL " +
+                "SELECT e.name, d.location FROM employees e JOIN departments d ON e.department_id = d.id " +
+                "WHERE d.location = 'Moscow'",
+            "WITH high AS (SELECT department_id, COUNT(*) AS cnt FROM employees WHERE salary > 50000 " +
+                "GROUP BY department_id), " +
+                "big AS (SELECT d.id, d.name FROM departments d JOIN employees e ON e.department_id = d.id " +
+                "WHERE e.salary > 10000) " +
+                "SELECT big.name, high.cnt FROM big JOIN high ON big.id = high.department_id"
+        };
+        for (String sql : queries) {
+            OptimizationResult serial = optimizer.optimize(createRequest(sql, 1000.0));
+            optimizer.setParallelSubtreeOptimization(true);
+            OptimizationResult parallel = optimizer.optimize(createRequest(sql, 1000.0));
+            optimizer.setParallelSubtreeOptimization(false);
+
+            assertOptimizationSuccess(parallel);
+            assertEquals("Параллельная оптимизация поддеревьев должна давать тот же план: " + sql,
+                signature(serial), signature(parallel));
+        }
+    }
+
+    @Test
+    public void testParallelSubtreeOptimizationOfSubqueries() {
+        String sql = "SELECT name, (SELECT MAX(salary) FROM employees WHERE salary > 0) AS top " +
+            "FROM employees WHERE salary > (SELECT AVG(salary) FROM employees WHERE department_id > 0) " +
+            "UNION ALL " +
+            "SELECT d.name, 0 FROM departments d JOIN employees e ON e.department_id = d.id WHERE e.salary > 1000";
+        OptimizationRequest request = createRequest(sql, 1000.0);
+        request.setCollectRuleStats(true);
+        optimizer.setParallelSubtreeOptimization(true);
+
+        OptimizationResult result = optimizer.optimize(request);
+
+        assertOptimizationSuccess(result);
+        assertFalse(result.getRuleStats().isEmpty());
+        long attempts = 0;
+        for (RuleStats rule : result.getRuleStats()) {
+            attempts += rule.getAttempts();
+        }
+        assertTrue("Статистика правил должна включать все поддеревья", attempts > 0);
+    }
+
+    private List<OptimizationResult> optimizeSimultaneously(OptimizationRequest request, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        try {
+            List<Future<OptimizationResult>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return optimizer.optimize(request);
+                }));
+            }
+            List<OptimizationResult> results = new ArrayList<>();
+            for (Future<OptimizationResult> future : futures) {
+                results.add(future.get(60, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Все, что должно совпадать у результатов одного запроса: SQL, имена и зависимости подзапросов, стоимость
+     */
+    private static String signature(OptimizationResult result) {
+        StringBuilder signature = new StringBuilder()
+            .append(result.isSuccess()).append('|').append(result.getTotalCost());
+        for (SubQuery subQuery : result.getSubQueries()) {
+            signature.append('\n').append(subQuery.getId()).append('|').append(subQuery.getTemporaryTableName())
+                .append('|').append(subQuery.getDependencies()).append('|').append(subQuery.getSql());
+        }
+        return signature.toString();
+    }
+
+    // ==================== ТЕСТЫ ДОПУСКА ЗАПРОСОВ ====================
+
+    @Test
+    public void testCostClassByQueryShape() {
+        try (OptimizationScheduler scheduler = new OptimizationScheduler(optimizer)) {
+            assertEquals(CostClass.LIGHT, scheduler.classify(createRequest("SELECT name FROM employees", 1000.0)));
+            assertEquals(CostClass.LIGHT, scheduler.classify(createRequest(
+                "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id", 1000.0)));
+            assertEquals(CostClass.MEDIUM, scheduler.classify(createRequest(
+                "SELECT name FROM employees WHERE department_id IN (SELECT id FROM departments)", 1000.0)));
+            assertEquals(CostClass.HEAVY, scheduler.classify(createRequest(selfJoin(9), 1000.0)));
+            assertEquals(CostClass.HEAVY, scheduler.classify(createRequest(
+                "SELECT name FROM employees WHERE department_id IN (SELECT id FROM departments WHERE id IN " +
+                "(SELECT department_id FROM employees WHERE salary > (SELECT AVG(salary) FROM employees)))",
+                1000.0)));
+            assertEquals("Неразобранный запрос не должен занимать очередь тяжелых",
+                CostClass.LIGHT, scheduler.classify(createRequest("SELECT FROM WHERE", 1000.0)));
+        }
+    }
+
+    @Test
+    public void testSchedulerRejectsOverCapacity() {
+        Map<CostClass, CostClassLimits> limits = new EnumMap<>(CostClass.class);
+        limits.put(CostClass.LIGHT, new CostClassLimits(2, 10, 0));
+        limits.put(CostClass.MEDIUM, new CostClassLimits(1, 1, 0));
+        limits.put(CostClass.HEAVY, new CostClassLimits(1, 1, 0));
+
+        try (OptimizationScheduler scheduler = new OptimizationScheduler(optimizer, limits)) {
+            List<CompletableFuture<OptimizationResult>> heavy = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                heavy.add(scheduler.submit(createRequest(selfJoin(9), 1000.0)));
+            }
+            OptimizationResult light = scheduler.optimize(createRequest("SELECT name FROM employees", 1000.0));
+            assertOptimizationSuccess(light);
+            assertEquals(0, light.getRetryAfterMillis());
+
+            int rejected = 0;
+            for (CompletableFuture<OptimizationResult> future : heavy) {
+                OptimizationResult result = future.join();
+                if (result.getRetryAfterMillis() > 0) {
+                    rejected++;
+                    assertFalse(result.isSuccess());
+                    assertNotNull(result.getErrorMessage());
+                }
+            }
+            assertTrue("Запросы сверх очереди должны отклоняться", rejected > 0);
+            assertEquals(rejected, scheduler.getRejectedCount(CostClass.HEAVY));
+            assertEquals(0, scheduler.getRejectedCount(CostClass.LIGHT));
+        }
+    }
+
+    /**
+     * Соединение таблицы employees с собой указанное количество раз
+     */
+    private static String selfJoin(int joins) {
+        StringBuilder sql = new StringBuilder("SELECT e0.name FROM employees e0");
+        for (int i = 1; i <= joins; i++) {
+            sql.append(" JOIN employees e").append(i)
+                .append(" ON e").append(i - 1).append(".manager_id = e").append(i).append(".id");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Суммарное количество вызовов правил
+     */
+    private static long totalAttempts(List<RuleStats> stats) {
+        long attempts = 0;
+        for (RuleStats rule : stats) {
+            attempts += rule.getAttempts();
+        }
+        return attempts;
+    }
+
+    // ==================== ТЕСТЫ СПЕКУЛЯТИВНОГО ПЛАНИРОВАНИЯ ====================
+
+    @Test
+    public void testSpeculativePlanningReportsStrategy() {
+        String sql = "SELECT c.name, e.name, d.name, o.amount FROM orders o " +
+            "JOIN customers c ON o.customer_id = c.id " +
+            "JOIN employees e ON o.employee_id = e.id " +
+            "JOIN departments d ON e.department_id = d.id " +
+            "WHERE o.amount > 100";
+        optimizer.setSpeculativePlanning(SpeculativePlanning.allStrategies(60000, 1.0));
+
+        OptimizationResult result = optimizer.optimize(createRequest(sql, 1000.0));
+
+        assertOptimizationSuccess(result);
+        assertNotNull("Результат должен содержать выбранную стратегию", result.getPlanningStrategy());
+        long choices = 0;
+        for (long count : optimizer.getMetrics().getPlanningStrategyChoices().values()) {
+            choices += count;
+        }
+        assertEquals(1, choices);
+        assertEquals(Long.valueOf(1),
+            optimizer.getMetrics().getPlanningStrategyChoices().get(result.getPlanningStrategy().name()));
+    }
+
+    @Test
+    public void testSpeculativePlanningFallsBackAfterDeadline() {
+        optimizer.setSpeculativePlanning(
+            new SpeculativePlanning(Collections.singletonList(PlanningStrategy.VOLCANO), 1, 1.0));
+
+        OptimizationResult result = optimizer.optimize(createRequest(selfJoin(9), 1000.0));
+
+        assertOptimizationSuccess(result);
+        assertEquals("Без готовых планов к сроку план строится эвристически",
+            PlanningStrategy.HEURISTIC, result.getPlanningStrategy());
+    }
+
+    @Test
+    public void testSpeculativeFallbackReusesHeuristicCandidate() {
+        OptimizationRequest request = createRequest(selfJoin(16), 1000.0);
+        request.setCollectRuleStats(true);
+        // Прогрев: пул и классы планировщика уже загружены, стратегия начинается сразу
+        optimizer.setSpeculativePlanning(
+            new SpeculativePlanning(Collections.singletonList(PlanningStrategy.HEURISTIC), 60000, 1.0));
+        optimizer.optimize(request);
+        long before = totalAttempts(optimizer.getRuleStats().snapshot());
+        optimizer.setSpeculativePlanning(
+            new SpeculativePlanning(Collections.singletonList(PlanningStrategy.HEURISTIC), 1, 1.0));
+
+        OptimizationResult result = optimizer.optimize(request);
+        ForkJoinPool.commonPool().awaitQuiescence(60, TimeUnit.SECONDS);
+
+        assertOptimizationSuccess(result);
+        assertEquals(PlanningStrategy.HEURISTIC, result.getPlanningStrategy());
+        long attempts = totalAttempts(result.getRuleStats());
+        assertTrue(attempts > 0);
+        assertEquals("Эвристический план после срока не должен строиться повторно",
+            attempts, totalAttempts(optimizer.getRuleStats().snapshot()) - before);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSpeculativePlanningRejectsCostBoundBelowOne() {
+        SpeculativePlanning.allStrategies(100, 0.5);
+    }
+
+    // ==================== ТЕСТЫ АСИНХРОННОЙ ОПТИМИЗАЦИИ ====================
+
+    @Test
+    public void testOptimizeAsync() throws Exception {
+        CompletableFuture<OptimizationResult> future = optimizer.optimizeAsync(createRequest(
+            "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id", 1000.0));
+
+        OptimizationResult result = future.get(60, TimeUnit.SECONDS);
+        assertOptimizationSuccess(result);
+        assertEquals(0, result.getRetryAfterMillis());
+    }
+
+    @Test
+    public void testOptimizeAsyncRejectsWhenSaturated() {
+        optimizer.setAsyncLimits(new AsyncLimits(1, 1, 0));
+
+        List<CompletableFuture<OptimizationResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(optimizer.optimizeAsync(createRequest(selfJoin(9), 1000.0)));
+        }
+        int rejected = 0;
+        for (CompletableFuture<OptimizationResult> future : futures) {
+            OptimizationResult result = future.join();
+            if (result.getRetryAfterMillis() > 0) {
+                rejected++;
+                assertFalse(result.isSuccess());
+            } else {
+                assertOptimizationSuccess(result);
+            }
+        }
+        assertTrue("Запросы сверх очереди должны отклоняться сразу", rejected > 0);
+        assertEquals(rejected, optimizer.getMetrics().getRejectedAsyncRequestCount());
+    }
+
+    @Test
+    public void testOptimizeAsyncCancellationReleasesQueue() throws Exception {
+        optimizer.setAsyncLimits(new AsyncLimits(1, 0, 10000));
+
+        CompletableFuture<OptimizationResult> cancelled = optimizer.optimizeAsync(createRequest(selfJoin(9), 1000.0));
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+
+        // Место освобождается после завершения отмененной оптимизации, следующий запрос дождется его
+        OptimizationResult result = optimizer.optimizeAsync(createRequest("SELECT name FROM employees", 1000.0))
+            .get(60, TimeUnit.SECONDS);
+        assertOptimizationSuccess(result);
+    }
+
+    @Test
+    public void testCancelledAsyncRequestHoldsSlotUntilExit() throws Exception {
+        optimizer.setAsyncLimits(new AsyncLimits(1, 0, 0));
+        // Разбор, проверка и преобразование длинного списка IN не проверяют прерывание
+        StringBuilder sql = new StringBuilder("SELECT name FROM employees WHERE salary IN (0");
+        for (int i = 1; i < 50000; i++) {
+            sql.append(", ").append(i);
+        }
+        sql.append(")");
+        CompletableFuture<OptimizationResult> running = optimizer.optimizeAsync(createRequest(sql.toString(), 1000.0));
+        awaitCondition(() -> optimizer.getMetrics().getInFlightCount() == 1);
+        assertTrue(running.cancel(true));
+
+        OptimizationResult rejected = optimizer.optimizeAsync(createRequest("SELECT name FROM employees", 1000.0))
+            .join();
+        assertFalse("Место занято, пока отмененная оптимизация не завершилась", rejected.isSuccess());
+        assertTrue(rejected.getRetryAfterMillis() > 0);
+
+        awaitCondition(() -> optimizer.optimizeAsync(createRequest("SELECT name FROM employees", 1000.0))
+            .join().isSuccess());
+    }
+
+    @Test
+    public void testCloseStopsAsyncOptimization() {
+        optimizer.close();
+
+        OptimizationResult result = optimizer.optimizeAsync(createRequest("SELECT name FROM employees", 1000.0))
+            .join();
+        assertFalse(result.isSuccess());
+        assertTrue(result.getErrorMessage().contains("остановлена"));
+        assertOptimizationSuccess(optimizer.optimize(createRequest("SELECT name FROM employees", 1000.0)));
+    }
+
+    @Test
+    public void testInterruptStopsPlanning() {
+        Thread.currentThread().interrupt();
+        try {
+            OptimizationResult result = optimizer.optimize(createRequest(
+                "SELECT e.name, d.name FROM employees e JOIN departments d ON e.department_id = d.id " +
+                "WHERE e.salary > 50000", 1000.0));
+            assertFalse("Прерванная оптимизация должна завершаться ошибкой", result.isSuccess());
+            assertNotNull(result.getErrorMessage());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
     // ==================== ТЕСТЫ ОШИБОК ====================
 
     @Test